@@ -0,0 +1,135 @@
+/**
+* Copyright (c) 2011, Lawrence Livermore National Security, LLC. 
+* Produced at the Lawrence Livermore National Laboratory. 
+* Written by Kevin Lawrence, lawrence22@llnl.gov
+* Under the guidance of: 
+* David Andrzejewski, andrzejewski1@llnl.gov
+* David Buttler, buttler1@llnl.gov 
+* LLNL-CODE-521811 All rights reserved. This file is part of IRIS
+*
+* This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+* License (as published by the Free Software Foundation) version 2, dated June 1991. This program is distributed in the
+* hope that it will be useful, but WITHOUT ANY WARRANTY; without even the IMPLIED WARRANTY OF MERCHANTABILITY or
+* FITNESS FOR A PARTICULAR PURPOSE. See the terms and conditions of the GNU General Public License for more details.
+* You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+* Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA For full text see license.txt
+*
+*
+*/
+package gov.llnl.iscr.iris;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * 
+ * Collects boost query terms from several topics and merges duplicates, so that each term is emitted once
+ * in the bq param instead of once per topic. The weights of a repeated term are either summed (words shared
+ * by several topics get boosted more) or the largest is kept. Terms keep the order they were first added in.
+ * A leading '-' is dropped when a term is added, so "court" and "-court" are merged as the same term and the
+ * sign is only chosen by {@link BoostQueryBuilder#build(char)}.
+ * Instances are not thread-safe.
+ *
+ */
+public class BoostQueryBuilder {
+	/**
+	 * how the weights of a term added more than once are combined
+	 */
+	public enum Merge { SUM, MAX }
+	
+	private final Merge merge;
+	private final Map<String, Float> terms = new LinkedHashMap<String, Float>();
+	
+	/**
+	 * creates a builder that combines the weights of duplicate terms with the given merge
+	 * @param merge
+	 */
+	public BoostQueryBuilder(Merge merge){
+		this.merge = merge;
+	}
+	
+	/**
+	 * adds a term with the given weight, merging it with an earlier occurrence of the same term; a leading '-' is ignored
+	 * @param term
+	 * @param weight
+	 * @return
+	 */
+	public BoostQueryBuilder add(String term, float weight){
+		if(term == null)
+			return this;
+		term = term.trim();
+		if(term.startsWith("-"))
+			term = term.substring(1).trim();
+		if(term.isEmpty())
+			return this;
+		
+		Float current = terms.get(term);
+		if(current == null)
+			terms.put(term, weight);
+		else if(merge == Merge.SUM)
+			terms.put(term, current + weight);
+		else if(weight > current)
+			terms.put(term, weight);
+		return this;
+	}
+	
+	/**
+	 * adds each of the given terms with the given weight
+	 * @param words
+	 * @param weight
+	 * @return
+	 */
+	public BoostQueryBuilder addAll(Collection<String> words, float weight){
+		for(String word : words)
+			add(word, weight);
+		return this;
+	}
+	
+	/**
+	 * returns the number of distinct terms added
+	 * @return
+	 */
+	public int size(){
+		return terms.size();
+	}
+	
+	/**
+	 * returns the merged terms and weights as a boost query map; with the sign '-' every term is prefixed
+	 * with '-', any other sign gives positive boosts
+	 * @param sign used to distinguish between positive ('+') and "negative" ('-') boosting
+	 * @return
+	 */
+	public Map<String, Float> build(char sign){
+		Map<String, Float> boostQueries = new LinkedHashMap<String, Float>();
+		for(Entry<String, Float> entry : terms.entrySet()){
+			boostQueries.put(sign == '-' ? "-"+entry.getKey() : entry.getKey(), entry.getValue());
+		}
+		return boostQueries;
+	}
+	
+	/**
+	 * returns at most <code>budget</code> terms with the highest merged weights as a boost query map, ordered by weight.
+	 * Weights are scaled so the highest weighted term gets the given boost and the others proportionally less.
+	 * @param sign used to distinguish between positive ('+') and "negative" ('-') boosting
+	 * @param budget the maximum number of terms (clauses) to keep
+	 * @param boost the boost value of the highest weighted term
+	 * @return
+	 */
+	public Map<String, Float> build(char sign, int budget, float boost){
+		TopEntries<String> top = new TopEntries<String>(Math.min(budget, terms.size()));
+		for(Entry<String, Float> entry : terms.entrySet())
+			top.offer(entry.getKey(), entry.getValue());
+		
+		double[] weights = new double[top.size()];
+		List<String> kept = top.sorted(weights);
+		Map<String, Float> boostQueries = new LinkedHashMap<String, Float>();
+		for(int i=0; i<kept.size(); i++){
+			String term = sign == '-' ? "-"+kept.get(i) : kept.get(i);
+			boostQueries.put(term, weights[0] > 0 ? (float)(boost * weights[i] / weights[0]) : boost);
+		}
+		return boostQueries;
+	}
+}
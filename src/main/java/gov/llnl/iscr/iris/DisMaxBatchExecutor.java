@@ -0,0 +1,274 @@
+/**
+* Copyright (c) 2011, Lawrence Livermore National Security, LLC. 
+* Produced at the Lawrence Livermore National Laboratory. 
+* Written by Kevin Lawrence, lawrence22@llnl.gov
+* Under the guidance of: 
+* David Andrzejewski, andrzejewski1@llnl.gov
+* David Buttler, buttler1@llnl.gov 
+* LLNL-CODE-521811 All rights reserved. This file is part of IRIS
+*
+* This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+* License (as published by the Free Software Foundation) version 2, dated June 1991. This program is distributed in the
+* hope that it will be useful, but WITHOUT ANY WARRANTY; without even the IMPLIED WARRANTY OF MERCHANTABILITY or
+* FITNESS FOR A PARTICULAR PURPOSE. See the terms and conditions of the GNU General Public License for more details.
+* You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+* Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA For full text see license.txt
+*
+*
+*/
+package gov.llnl.iscr.iris;
+
+import java.net.MalformedURLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.impl.CommonsHttpSolrServer;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.params.SolrParams;
+
+/**
+ * 
+ * Runs a stream of queries (typically {@link DisMaxQuery} objects) against a Solr server with bounded concurrency,
+ * for offline evaluation and bulk expansion jobs. Queries are pulled from the given iterator only while fewer
+ * than <code>maxInFlight</code> are running, so a lazily generated stream is never read ahead of the server.
+ * Responses are handed to a {@link DisMaxBatchExecutor.Listener} as they complete, on the thread that called
+ * {@link DisMaxBatchExecutor#run(Iterator, Listener)}, so listeners need no synchronization. A query still
+ * running after the timeout is cancelled and reported as failed with a <code>TimeoutException</code>.
+ * Cancelling interrupts the worker thread, but the blocking socket IO of an HTTP server does not respond to
+ * interrupts, so the worker stays busy until the server's own socket timeout fires. Servers from
+ * {@link DisMaxBatchExecutor#pooledServer(String, int, int)} have their connection and socket timeouts set to
+ * the query timeout; any other server should be given the same timeouts, or timed out queries keep holding
+ * worker threads and later queries time out behind them.
+ * <p>A typical invocation sequence is:
+ * <blockquote><pre>
+ * SolrServer server = DisMaxBatchExecutor.pooledServer("http://localhost:8983/solr/", 8, 10000);
+ * DisMaxBatchExecutor executor = new DisMaxBatchExecutor(server, 8, 10000);
+ * DisMaxBatchExecutor.Summary summary = executor.run(queries.iterator(), listener);
+ * executor.shutdown();
+ * </pre></blockquote>
+ *
+ */
+public class DisMaxBatchExecutor {
+	private final SolrServer server;
+	private final ExecutorService pool;
+	private final int maxInFlight;
+	private final long timeoutMillis;
+	
+	/**
+	 * receives the outcome of each query of a batch, in completion order
+	 */
+	public interface Listener {
+		/**
+		 * called with the response of the query at the given position of the stream
+		 */
+		void onResponse(int index, SolrParams query, QueryResponse response);
+		
+		/**
+		 * called when the query at the given position of the stream failed or timed out
+		 */
+		void onError(int index, SolrParams query, Exception e);
+	}
+	
+	/**
+	 * throughput summary of a batch
+	 */
+	public static class Summary {
+		int submitted = 0;
+		int succeeded = 0;
+		int failed = 0;
+		int timedOut = 0;
+		long totalLatencyMillis = 0;
+		long maxLatencyMillis = 0;
+		long elapsedMillis = 0;
+		
+		public int getSubmitted(){ return submitted; }
+		public int getSucceeded(){ return succeeded; }
+		public int getFailed(){ return failed; }
+		public int getTimedOut(){ return timedOut; }
+		public long getElapsedMillis(){ return elapsedMillis; }
+		public long getMaxLatencyMillis(){ return maxLatencyMillis; }
+		
+		/**
+		 * returns the mean latency of the successful queries, in milliseconds
+		 * @return
+		 */
+		public double getMeanLatencyMillis(){
+			return succeeded == 0 ? 0 : (double)totalLatencyMillis / succeeded;
+		}
+		
+		/**
+		 * returns the number of completed queries per second
+		 * @return
+		 */
+		public double getQueriesPerSecond(){
+			return elapsedMillis == 0 ? 0 : 1000.0 * (succeeded + failed) / elapsedMillis;
+		}
+		
+		public String toString(){
+			return String.format("%d queries in %d ms (%.1f/s): %d ok, %d failed (%d timed out), latency mean %.1f ms, max %d ms",
+					submitted, elapsedMillis, getQueriesPerSecond(), succeeded, failed, timedOut, getMeanLatencyMillis(), maxLatencyMillis);
+		}
+	}
+	
+	/**
+	 * a query of the batch that is running
+	 */
+	private static final class InFlight {
+		final int index;
+		final SolrParams query;
+		final long deadline;
+		
+		InFlight(int index, SolrParams query, long deadline){
+			this.index = index;
+			this.query = query;
+			this.deadline = deadline;
+		}
+	}
+	
+	/**
+	 * result of a query task: the response and its latency
+	 */
+	private static final class Timed {
+		final QueryResponse response;
+		final long latencyMillis;
+		
+		Timed(QueryResponse response, long latencyMillis){
+			this.response = response;
+			this.latencyMillis = latencyMillis;
+		}
+	}
+	
+	/**
+	 * creates an executor running at most <code>concurrency</code> queries at once against the given server
+	 * @param server the server to query; must be safe for concurrent use and have a socket timeout
+	 * (see {@link DisMaxBatchExecutor#pooledServer(String, int, int)})
+	 * @param concurrency the number of queries running at once
+	 * @param timeoutMillis the time a query may run before it is cancelled; 0 or less for no timeout
+	 */
+	public DisMaxBatchExecutor(SolrServer server, int concurrency, long timeoutMillis){
+		this.server = server;
+		this.pool = Executors.newFixedThreadPool(concurrency);
+		this.maxInFlight = concurrency;
+		this.timeoutMillis = timeoutMillis;
+	}
+	
+	/**
+	 * returns an HTTP Solr server whose connection pool allows the given number of concurrent connections, and whose
+	 * connection and socket reads give up after the given time so that a timed out query releases its worker thread
+	 * @param url the Solr base URL
+	 * @param connections
+	 * @param timeoutMillis connection and socket timeout, normally the timeout of the executor; 0 for none
+	 * @return
+	 * @throws MalformedURLException
+	 */
+	public static CommonsHttpSolrServer pooledServer(String url, int connections, int timeoutMillis) throws MalformedURLException{
+		CommonsHttpSolrServer server = new CommonsHttpSolrServer(url);
+		server.setMaxTotalConnections(connections);
+		server.setDefaultMaxConnectionsPerHost(connections);
+		server.setConnectionTimeout(timeoutMillis);
+		server.setSoTimeout(timeoutMillis);
+		return server;
+	}
+	
+	/**
+	 * runs every query of the given stream and returns once all of them completed, failed or timed out
+	 * @param queries the stream of queries, read lazily
+	 * @param listener receives the outcome of each query
+	 * @return a throughput summary of the batch
+	 * @throws InterruptedException if the calling thread is interrupted; running queries are cancelled
+	 */
+	public Summary run(Iterator<? extends SolrParams> queries, Listener listener) throws InterruptedException{
+		CompletionService<Timed> completion = new ExecutorCompletionService<Timed>(pool);
+		Map<Future<Timed>, InFlight> inFlight = new LinkedHashMap<Future<Timed>, InFlight>();
+		Summary summary = new Summary();
+		long start = System.currentTimeMillis();
+		
+		try{
+			while(queries.hasNext() || !inFlight.isEmpty()){
+				//-|Submit while there is room: the stream is only read as fast as queries complete
+				if(inFlight.size() < maxInFlight && queries.hasNext()){
+					final SolrParams query = queries.next();
+					Future<Timed> future = completion.submit(new Callable<Timed>(){
+						public Timed call() throws Exception {
+							long begin = System.currentTimeMillis();
+							QueryResponse response = server.query(query);
+							return new Timed(response, System.currentTimeMillis() - begin);
+						}
+					});
+					long deadline = timeoutMillis > 0 ? System.currentTimeMillis() + timeoutMillis : Long.MAX_VALUE;
+					inFlight.put(future, new InFlight(summary.submitted++, query, deadline));
+					continue;
+				}
+				
+				//-|Otherwise wait for the next completion, or the earliest deadline
+				InFlight first = inFlight.values().iterator().next();
+				long wait = first.deadline - System.currentTimeMillis();
+				Future<Timed> done = wait > 0 ? completion.poll(wait, TimeUnit.MILLISECONDS) : completion.poll();
+				if(done != null){
+					InFlight task = inFlight.remove(done);
+					if(task != null)
+						deliver(done, task, summary, listener);
+				}
+				expire(inFlight, summary, listener);
+			}
+		}finally{
+			for(Future<Timed> future : inFlight.keySet())
+				future.cancel(true);
+			summary.elapsedMillis = System.currentTimeMillis() - start;
+		}
+		return summary;
+	}
+	
+	private static void deliver(Future<Timed> done, InFlight task, Summary summary, Listener listener) throws InterruptedException{
+		try{
+			Timed result = done.get();
+			summary.succeeded++;
+			summary.totalLatencyMillis += result.latencyMillis;
+			summary.maxLatencyMillis = Math.max(summary.maxLatencyMillis, result.latencyMillis);
+			listener.onResponse(task.index, task.query, result.response);
+		}catch(ExecutionException e){
+			summary.failed++;
+			listener.onError(task.index, task.query, e.getCause() instanceof Exception ? (Exception)e.getCause() : e);
+		}
+	}
+	
+	/**
+	 * cancels the queries past their deadline that have not completed; queries are in submission order, so deadlines are increasing
+	 */
+	private void expire(Map<Future<Timed>, InFlight> inFlight, Summary summary, Listener listener){
+		long now = System.currentTimeMillis();
+		Iterator<Map.Entry<Future<Timed>, InFlight>> it = inFlight.entrySet().iterator();
+		while(it.hasNext()){
+			Map.Entry<Future<Timed>, InFlight> entry = it.next();
+			InFlight task = entry.getValue();
+			if(task.deadline > now)
+				break;
+			if(entry.getKey().isDone())
+				continue;
+			
+			entry.getKey().cancel(true);
+			it.remove();
+			summary.failed++;
+			summary.timedOut++;
+			listener.onError(task.index, task.query, new TimeoutException("Query did not complete within "+timeoutMillis+" ms"));
+		}
+	}
+	
+	/**
+	 * stops the worker threads; the executor cannot be used afterwards
+	 */
+	public void shutdown(){
+		pool.shutdownNow();
+	}
+}
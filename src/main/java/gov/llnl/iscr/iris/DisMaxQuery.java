@@ -18,14 +18,22 @@
 */
 package gov.llnl.iscr.iris;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeSet;
 
 import org.apache.solr.client.solrj.SolrQuery;
+import org.apache.solr.client.solrj.util.ClientUtils;
+import org.apache.solr.common.params.FacetParams;
+import org.apache.solr.common.params.HighlightParams;
+import org.apache.solr.common.params.ModifiableSolrParams;
 
 /**
  * 
@@ -35,6 +43,9 @@ import org.apache.solr.client.solrj.SolrQuery;
  * "dismax" or "edismax" for Solr 3.1 and above. 
  * 
  * This class is designed for easy integration of Iris with Apache Lucene (Solr) system.
+ * <p>The qf and bq params are serialized from the field and boost maps lazily, on the first read after a change.
+ * That rendering is synchronized on the query, so a fully built query may be read from several threads at once
+ * (for example a cache key computed while SolrJ sends the request). Modifying a query is not thread-safe.
  *
  */
 public class DisMaxQuery extends SolrQuery {
@@ -46,6 +57,11 @@ public class DisMaxQuery extends SolrQuery {
 	
 	private Map<String, Float> queryFields = new LinkedHashMap<String, Float>();
 	private Map<String, Map<String, Float>> boostQuery = new LinkedHashMap<String, Map<String, Float>>();
+	private Map<Integer, Float> topicBoosts = new LinkedHashMap<Integer, Float>();
+	private String topicField = "topics";
+	private boolean qfDirty = false;
+	private boolean bqDirty = false;
+	private boolean shared = false;
 	
 	public DisMaxQuery(){
 		super("");
@@ -56,6 +72,27 @@ public class DisMaxQuery extends SolrQuery {
 		this();
 		this.setQuery(qstr);
 	}
+	
+	/**
+	 * creates a query from the rendered params of the given template. The param values are copied, while the
+	 * field and boost maps are shared with the template until this query first modifies them.
+	 * @param template
+	 * @param qstr
+	 */
+	DisMaxQuery(DisMaxQueryTemplate template, String qstr){
+		super();
+		//getParams copies every value array, so the query never holds an array of the template
+		for(Entry<String, String[]> param : template.getParams().entrySet())
+			super.set(param.getKey(), param.getValue());
+		
+		queryFields = template.getQueryFields();
+		boostQuery = template.getBoostQuery();
+		topicBoosts = template.getTopicBoosts();
+		topicField = template.getTopicField();
+		defaultBoost = template.getDefaultBoost();
+		shared = true;
+		this.setQuery(qstr);
+	}
 	//-|================================
 	//-|Set Query Fields methods
 	//-|================================
@@ -94,8 +131,7 @@ public class DisMaxQuery extends SolrQuery {
 	private void setQF(String field, float boost){
 		queryFields = new LinkedHashMap<String, Float>();
 		queryFields.put(field, boost);
-		
-		this.set(DisMaxParams.QF, field+"^"+boost);
+		qfDirty = true;
 	}
 	
 	/**
@@ -108,13 +144,10 @@ public class DisMaxQuery extends SolrQuery {
 			return this;
 		
 		queryFields = new LinkedHashMap<String, Float>();
-		StringBuffer qfVal = new StringBuffer();
 		for(int i=0; i<fields.length; i++){
 			queryFields.put(fields[i], defaultBoost);
-			qfVal.append(fields[i]+"^"+defaultBoost+" ");
 		}
-		
-		this.set(DisMaxParams.QF, qfVal.toString().trim());
+		qfDirty = true;
 		return this;
 	}
 	
@@ -127,16 +160,8 @@ public class DisMaxQuery extends SolrQuery {
 		if(boostedFields.isEmpty())
 			return this;
 		
-		queryFields = boostedFields;
-		
-		StringBuffer qfVal = new StringBuffer();
-		Iterator<Entry<String, Float>> entrySet = boostedFields.entrySet().iterator();
-		Entry<String, Float> entry;
-		while(entrySet.hasNext()){
-			entry = entrySet.next();
-			qfVal.append(entry.getKey()+"^"+entry.getValue()+" ");
-		}
-		this.set(DisMaxParams.QF, qfVal.toString().trim());
+		queryFields = new LinkedHashMap<String, Float>(boostedFields);
+		qfDirty = true;
 		return this;
 	}
 	
@@ -209,18 +234,11 @@ public class DisMaxQuery extends SolrQuery {
 	private void setBQ(String field, List<String> bqs, float boost){
 		boostQuery = new LinkedHashMap<String, Map<String, Float>>();
 		Map<String,Float> bqTerm = new LinkedHashMap<String, Float>();
-		
-		StringBuffer bqVals = new StringBuffer();
 		for(String bq : bqs){
 			bqTerm.put(bq, boost);
-			bqVals.append(bq+"^"+boost+" ");
 		}
 		boostQuery.put(field, bqTerm);
-		
-		if(field.isEmpty())
-			this.set(DisMaxParams.BQ, bqVals.toString().trim());
-		else
-			this.set(DisMaxParams.BQ, field+":"+bqVals.toString().trim());
+		bqDirty = true;
 	}
 	
 	/**
@@ -273,20 +291,8 @@ public class DisMaxQuery extends SolrQuery {
 	 */
 	private void setBQ(String field, Map<String,Float> boostedQueries){
 		boostQuery = new LinkedHashMap<String, Map<String, Float>>();
-		boostQuery.put(field, boostedQueries);
-		
-		StringBuffer bqVals = new StringBuffer();
-		Iterator<Entry<String, Float>> entrySet = boostedQueries.entrySet().iterator();
-		Entry<String, Float> entry;
-		while(entrySet.hasNext()){
-			entry = entrySet.next();
-			bqVals.append(entry.getKey()+"^"+entry.getValue()+" ");
-		}
-		
-		if(field.isEmpty())
-			this.set(DisMaxParams.BQ, bqVals.toString().trim());
-		else
-			this.set(DisMaxParams.BQ, field+":"+bqVals.toString().trim());
+		boostQuery.put(field, new LinkedHashMap<String, Float>(boostedQueries));
+		bqDirty = true;
 	}
 	//-|================================
 	//-|Add Boost Query methods
@@ -326,6 +332,7 @@ public class DisMaxQuery extends SolrQuery {
 	 * @return
 	 */
 	private Map<String, Map<String, Float>> addBQ(String field, List<String> bqs, float boost){
+		unshare();
 		Map<String,Float> newBq = new LinkedHashMap<String,Float>();
 		if(boostQuery.containsKey(field)){
 			newBq = boostQuery.get(field);
@@ -419,6 +426,7 @@ public class DisMaxQuery extends SolrQuery {
 		if(boostedQueries.isEmpty())
 			return this;
 		
+		unshare();
 		Map<String,Float> newBq;
 		String key = "";
 		if(!boostQuery.isEmpty()){
@@ -431,7 +439,7 @@ public class DisMaxQuery extends SolrQuery {
 			
 		}
 		else{
-			boostQuery.put(key, boostedQueries);
+			boostQuery.put(key, new LinkedHashMap<String, Float>(boostedQueries));
 		}
 		
 		this.modifyBoostQuery(boostQuery);
@@ -448,6 +456,7 @@ public class DisMaxQuery extends SolrQuery {
 		if(boostedQueries.isEmpty())
 			return this;
 		
+		unshare();
 		Map<String,Float> newBq = new LinkedHashMap<String,Float>();
 		if(boostQuery.containsKey(field)){
 			newBq = boostQuery.get(field);
@@ -460,6 +469,114 @@ public class DisMaxQuery extends SolrQuery {
 		return this;
 	}
 	
+	//-|================================
+	//-|Topic Boost methods
+	//-|================================
+	/**
+	 * adds a boost on the given topic to the <code>DisMaxQuery</code> param bq: a single clause on the topic payload field
+	 * (see {@link TopicPayloadQParserPlugin}) that scores documents by their probability for the topic, instead of a clause per expansion word
+	 * @param topic topic ID
+	 * @param boost boost value to associate with the topic
+	 * @return
+	 */
+	public DisMaxQuery addTopicBoost(int topic, float boost){
+		unshare();
+		topicBoosts.put(topic, boost);
+		bqDirty = true;
+		return this;
+	}
+	
+	/**
+	 * adds a boost on each of the given topics with the default boost value
+	 * @param topics topic IDs
+	 * @return
+	 */
+	public DisMaxQuery addTopicBoosts(List<Integer> topics){
+		unshare();
+		for(Integer topic : topics)
+			topicBoosts.put(topic, defaultBoost);
+		bqDirty = true;
+		return this;
+	}
+	
+	/**
+	 * sets the payload field the topic boosts are made on (default "topics")
+	 * @param field
+	 * @return
+	 */
+	public DisMaxQuery setTopicField(String field){
+		topicField = field;
+		bqDirty = true;
+		return this;
+	}
+	
+	/**
+	 * removes all topic boosts
+	 * @return
+	 */
+	public DisMaxQuery clearTopicBoosts(){
+		topicBoosts = new LinkedHashMap<Integer, Float>();
+		bqDirty = true;
+		return this;
+	}
+	
+	//-|================================
+	//-|Exclusion filter methods
+	//-|================================
+	/**
+	 * excludes documents matching any of the given terms with a filter query (fq) instead of negative boost queries.
+	 * The filter is written in a canonical form, <code>-field:(a OR b)</code> with the terms escaped, deduplicated and sorted,
+	 * so that the same exclusion gives the same fq across users and pages and is served from Solr's filterCache.
+	 * @param field name of the field the terms are excluded on; the default search field if empty
+	 * @param terms the terms to exclude
+	 * @return
+	 */
+	public DisMaxQuery addExclusionFilter(String field, Collection<String> terms){
+		String fq = exclusionFilter(field, terms);
+		if(fq == null)
+			return this;
+		
+		String[] fqs = this.getFilterQueries();
+		if(fqs != null && Arrays.asList(fqs).contains(fq))
+			return this;
+		this.addFilterQuery(fq);
+		return this;
+	}
+	
+	/**
+	 * returns the canonical exclusion filter for the given field and terms, or null if there are no terms
+	 * @param field
+	 * @param terms
+	 * @return
+	 */
+	static String exclusionFilter(String field, Collection<String> terms){
+		Set<String> sorted = new TreeSet<String>();
+		for(String term : terms){
+			if(term == null)
+				continue;
+			term = term.trim();
+			if(term.startsWith("-"))
+				term = term.substring(1);
+			if(!term.isEmpty())
+				sorted.add(ClientUtils.escapeQueryChars(term));
+		}
+		if(sorted.isEmpty())
+			return null;
+		
+		StringBuilder fq = new StringBuilder("-");
+		if(field != null && !field.isEmpty())
+			fq.append(field).append(':');
+		fq.append('(');
+		boolean first = true;
+		for(String term : sorted){
+			if(!first)
+				fq.append(" OR ");
+			fq.append(term);
+			first = false;
+		}
+		return fq.append(')').toString();
+	}
+	
 	//-|================================
 	//-|Add Query Fields methods
 	//-|================================
@@ -469,6 +586,7 @@ public class DisMaxQuery extends SolrQuery {
 	 * @return
 	 */
 	public DisMaxQuery addQueryField(String field){
+		unshare();
 		queryFields.put(field, defaultBoost);
 		this.modifyQueryFields(queryFields);
 		return this;
@@ -481,6 +599,7 @@ public class DisMaxQuery extends SolrQuery {
 	 * @return
 	 */
 	public DisMaxQuery addQueryField(String field, float boost){
+		unshare();
 		queryFields.put(field, boost);
 		this.modifyQueryFields(queryFields);
 		return this;
@@ -494,7 +613,8 @@ public class DisMaxQuery extends SolrQuery {
 	public DisMaxQuery addQueryFields(List<String> fields){
 		if(fields == null || fields.size() == 0)
 			return this;
-					
+		
+		unshare();
 		for(String field : fields){
 			queryFields.put(field, defaultBoost);	
 		}
@@ -508,6 +628,7 @@ public class DisMaxQuery extends SolrQuery {
 	 * @return
 	 */
 	public DisMaxQuery addQueryFields(Map<String, Float> boostedFields){
+		unshare();
 		queryFields.putAll(boostedFields);
 		this.modifyQueryFields(queryFields);
 		return this;
@@ -516,48 +637,140 @@ public class DisMaxQuery extends SolrQuery {
 	//-|====================================
 	//-|Private helper for modifying params
 	//-|====================================
+	/**
+	 * marks the bq param stale; the boost maps are only serialized once the params are read
+	 */
 	private DisMaxQuery modifyBoostQuery(Map<String, Map<String,Float>> boostQueries){
-		StringBuffer bqVals = new StringBuffer();
-		
-		Iterator<Entry<String, Map<String, Float>>> entrySet = boostQueries.entrySet().iterator();
-		Entry<String, Map<String, Float>> entry;
-		
-		Iterator<Entry<String, Float>> innerEntrySet;
-		Entry<String, Float> innerEntry;
-		
-		//Constructing the boost boost query string for ModifiableSolrParams set method
-		String key;
-		while(entrySet.hasNext()){
-			entry = entrySet.next();
-			key = entry.getKey();
-			if(!key.isEmpty())
-				bqVals.append(key+":");
-		
-			innerEntrySet = entry.getValue().entrySet().iterator();
-			while(innerEntrySet.hasNext()){
-				innerEntry = innerEntrySet.next();
-				bqVals.append(innerEntry.getKey()+"^"+innerEntry.getValue()+" ");
-			}
-			
-		}
-		this.set(DisMaxParams.BQ, bqVals.toString().trim());
+		boostQuery = boostQueries;
+		bqDirty = true;
 		return this;
 	}
 	
+	/**
+	 * marks the qf param stale; the field map is only serialized once the params are read
+	 */
 	private DisMaxQuery modifyQueryFields(Map<String, Float> qf){
 		if(qf.isEmpty())
 			return this;
 		
-		StringBuffer qfVal = new StringBuffer();
-		Iterator<Entry<String, Float>> entrySet = qf.entrySet().iterator();
-		Entry<String, Float> entry;
-		while(entrySet.hasNext()){
-			entry = entrySet.next();
-			qfVal.append(entry.getKey()+"^"+entry.getValue()+" ");
+		queryFields = qf;
+		qfDirty = true;
+		return this;
+	}
+	
+	/**
+	 * serializes the qf and bq params from the field and boost maps if either changed since it was last rendered;
+	 * synchronized, so that concurrent readers of an unchanged query render it once and then only read the params
+	 */
+	private synchronized void render(){
+		if(qfDirty){
+			qfDirty = false;
+			StringBuilder qfVal = new StringBuilder();
+			appendTerms(qfVal, queryFields);
+			super.set(DisMaxParams.QF, qfVal.toString().trim());
+		}
+		if(!bqDirty)
+			return;
+		bqDirty = false;
+		
+		//Constructing the boost query string, each field prefixing its terms
+		StringBuilder bqVals = new StringBuilder();
+		for(Entry<String, Map<String, Float>> entry : boostQuery.entrySet()){
+			if(!entry.getKey().isEmpty())
+				bqVals.append(entry.getKey()).append(':');
+			appendTerms(bqVals, entry.getValue());
+		}
+		String terms = bqVals.toString().trim();
+		if(topicBoosts.isEmpty()){
+			if(boostQuery.isEmpty())
+				super.remove(DisMaxParams.BQ);
+			else
+				super.set(DisMaxParams.BQ, terms);
+			return;
 		}
 		
-		this.set(DisMaxParams.QF, qfVal.toString().trim());
-		return this;
+		//followed by one value per topic boost
+		List<String> values = new ArrayList<String>();
+		if(!terms.isEmpty())
+			values.add(terms);
+		for(Entry<Integer, Float> entry : topicBoosts.entrySet())
+			values.add("{!"+TopicPayloadQParserPlugin.NAME+" f="+topicField+" b="+entry.getValue()+"}"+entry.getKey());
+		super.set(DisMaxParams.BQ, values.toArray(new String[values.size()]));
+	}
+	
+	/**
+	 * copies the field and boost maps shared with a {@link DisMaxQueryTemplate} before they are first modified
+	 */
+	private void unshare(){
+		if(!shared)
+			return;
+		
+		shared = false;
+		queryFields = new LinkedHashMap<String, Float>(queryFields);
+		Map<String, Map<String, Float>> bq = new LinkedHashMap<String, Map<String, Float>>();
+		for(Entry<String, Map<String, Float>> entry : boostQuery.entrySet())
+			bq.put(entry.getKey(), new LinkedHashMap<String, Float>(entry.getValue()));
+		boostQuery = bq;
+		topicBoosts = new LinkedHashMap<Integer, Float>(topicBoosts);
+	}
+	
+	private static void appendTerms(StringBuilder out, Map<String, Float> terms){
+		for(Entry<String, Float> entry : terms.entrySet())
+			out.append(entry.getKey()).append('^').append(entry.getValue().floatValue()).append(' ');
+	}
+	
+	//-|===============================================
+	//-|Param access, rendering pending qf/bq changes
+	//-|===============================================
+	@Override
+	public String get(String param){
+		render();
+		return super.get(param);
+	}
+	
+	@Override
+	public String[] getParams(String param){
+		render();
+		return super.getParams(param);
+	}
+	
+	@Override
+	public Iterator<String> getParameterNamesIterator(){
+		render();
+		return super.getParameterNamesIterator();
+	}
+	
+	@Override
+	public Set<String> getParameterNames(){
+		render();
+		return super.getParameterNames();
+	}
+	
+	@Override
+	public String toString(){
+		render();
+		return super.toString();
+	}
+	
+	/**
+	 * pending qf/bq changes are rendered before any direct write, so an explicitly set value is not overwritten later
+	 */
+	@Override
+	public ModifiableSolrParams set(String name, String ... val){
+		render();
+		return super.set(name, val);
+	}
+	
+	@Override
+	public ModifiableSolrParams add(String name, String ... val){
+		render();
+		return super.add(name, val);
+	}
+	
+	@Override
+	public String[] remove(String name){
+		render();
+		return super.remove(name);
 	}
 	
 	//-|============================
@@ -595,6 +808,22 @@ public class DisMaxQuery extends SolrQuery {
 		return boostQuery;
 	}
 	
+	/**
+	 * returns a map of the topic boosts that the <code>DisMaxQuery</code> consist of
+	 * @return
+	 */
+	public Map<Integer, Float> getTopicBoosts() {
+		return topicBoosts;
+	}
+	
+	/**
+	 * returns the payload field the topic boosts are made on
+	 * @return
+	 */
+	public String getTopicField() {
+		return topicField;
+	}
+	
 	//-|====================================
 	//-|Set methods for basic common params
 	//-|====================================
@@ -624,6 +853,26 @@ public class DisMaxQuery extends SolrQuery {
 		return this;
 	}
 	
+	/**
+	 * returns a minimal copy of the <code>DisMaxQuery</code> that only retrieves the ids and scores of the top documents:
+	 * same query, fields, boosts and filters, but starting at the first hit, with highlighting and faceting off.
+	 * It is meant to be sent alongside the full query, so topic selection can start before the full response arrives.
+	 * @param rows the number of documents to retrieve
+	 * @return
+	 */
+	public DisMaxQuery toProbeQuery(int rows){
+		DisMaxQuery probe = new DisMaxQueryTemplate(this).newQuery(this.getQuery());
+		probe.setFields("id", "score");
+		probe.setStart(0);
+		probe.setRows(rows);
+		//Clears the highlighting and facet params, then turns both off explicitly in case the request handler defaults them on
+		probe.setHighlight(false);
+		probe.setFacet(false);
+		probe.set(HighlightParams.HIGHLIGHT, false);
+		probe.set(FacetParams.FACET, false);
+		return probe;
+	}
+	
 	//-|============================================================
 	//-|DisMaxParams class; supported as local or as request params
 	//-|============================================================
@@ -0,0 +1,299 @@
+/**
+* Copyright (c) 2011, Lawrence Livermore National Security, LLC. 
+* Produced at the Lawrence Livermore National Laboratory. 
+* Written by Kevin Lawrence, lawrence22@llnl.gov
+* Under the guidance of: 
+* David Andrzejewski, andrzejewski1@llnl.gov
+* David Buttler, buttler1@llnl.gov 
+* LLNL-CODE-521811 All rights reserved. This file is part of IRIS
+*
+* This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+* License (as published by the Free Software Foundation) version 2, dated June 1991. This program is distributed in the
+* hope that it will be useful, but WITHOUT ANY WARRANTY; without even the IMPLIED WARRANTY OF MERCHANTABILITY or
+* FITNESS FOR A PARTICULAR PURPOSE. See the terms and conditions of the GNU General Public License for more details.
+* You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+* Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA For full text see license.txt
+*
+*
+*/
+package gov.llnl.iscr.iris;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.impl.CommonsHttpSolrServer;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.params.SolrParams;
+
+/**
+ * 
+ * Client-side cache of Solr responses for expanded {@link DisMaxQuery} objects, so that paging back and forth
+ * or toggling topics on and off does not send the same request to Solr again. Entries are keyed by the server that
+ * answered (its base URL for HTTP servers, the server instance otherwise) and a canonical rendering of the query params
+ * (see {@link DisMaxQueryCache#key(SolrParams)}), so two cores never share entries. They are evicted least recently used
+ * first once <code>maxEntries</code> is reached, or when older than the time to live. Setting a new index version
+ * drops every entry, since responses from an older index are stale.
+ * <p>Cached responses are not copied: every caller asking for the same query on the same server gets the same
+ * <code>QueryResponse</code>, so callers must treat it and its results (the <code>SolrDocumentList</code> and its
+ * documents) as read-only.
+ * <p>A typical invocation sequence is:
+ * <blockquote><pre>
+ * DisMaxQueryCache cache = new DisMaxQueryCache(500, 5*60*1000);
+ * cache.setIndexVersion(indexVersion);
+ * QueryResponse response = cache.query(server, query);
+ * </pre></blockquote>
+ * Instances are thread-safe.
+ *
+ */
+public class DisMaxQueryCache {
+	private final int maxEntries;
+	private final long ttlMillis;
+	private final Map<String, CachedResponse> entries;
+	private final Map<SolrServer, String> servers = new WeakHashMap<SolrServer, String>();
+	private int serverCount = 0;
+	private long indexVersion = -1;
+	private long hits = 0;
+	private long misses = 0;
+	
+	private static final class CachedResponse {
+		final QueryResponse response;
+		final long created;
+		
+		CachedResponse(QueryResponse response, long created){
+			this.response = response;
+			this.created = created;
+		}
+	}
+	
+	/**
+	 * creates a cache holding at most <code>maxEntries</code> responses, each for at most <code>ttlMillis</code> milliseconds
+	 * @param maxEntries
+	 * @param ttlMillis time to live of an entry; 0 or less keeps entries until they are evicted by size
+	 */
+	public DisMaxQueryCache(final int maxEntries, long ttlMillis){
+		this.maxEntries = maxEntries;
+		this.ttlMillis = ttlMillis;
+		this.entries = new LinkedHashMap<String, CachedResponse>(16, 0.75F, true){
+			private static final long serialVersionUID = 1L;
+			protected boolean removeEldestEntry(Map.Entry<String, CachedResponse> eldest){
+				return size() > maxEntries;
+			}
+		};
+	}
+	
+	/**
+	 * returns the cached response for the given query, or sends it to the server and caches the response;
+	 * the response is shared with every other caller of the same query and must not be modified
+	 * @param server
+	 * @param query
+	 * @return
+	 * @throws SolrServerException
+	 */
+	public QueryResponse query(SolrServer server, SolrParams query) throws SolrServerException{
+		String key = key(server, query);
+		QueryResponse response = get(key);
+		if(response != null)
+			return response;
+		
+		response = server.query(query);
+		put(key, response);
+		return response;
+	}
+	
+	/**
+	 * returns the cached response for the given query on the given server, or null if there is none or it expired;
+	 * the response must not be modified
+	 * @param server
+	 * @param query
+	 * @return
+	 */
+	public QueryResponse get(SolrServer server, SolrParams query){
+		return get(key(server, query));
+	}
+	
+	/**
+	 * caches the response for the given query on the given server
+	 * @param server
+	 * @param query
+	 * @param response
+	 */
+	public void put(SolrServer server, SolrParams query, QueryResponse response){
+		put(key(server, query), response);
+	}
+	
+	private synchronized QueryResponse get(String key){
+		CachedResponse entry = entries.get(key);
+		if(entry != null && ttlMillis > 0 && now() - entry.created > ttlMillis){
+			entries.remove(key);
+			entry = null;
+		}
+		if(entry == null){
+			misses++;
+			return null;
+		}
+		hits++;
+		return entry.response;
+	}
+	
+	private synchronized void put(String key, QueryResponse response){
+		if(maxEntries > 0)
+			entries.put(key, new CachedResponse(response, now()));
+	}
+	
+	/**
+	 * sets the version of the index the cached responses come from; a version different from the current one drops every entry
+	 * @param version
+	 * @return
+	 */
+	public synchronized DisMaxQueryCache setIndexVersion(long version){
+		if(version != indexVersion){
+			entries.clear();
+			indexVersion = version;
+		}
+		return this;
+	}
+	
+	/**
+	 * returns the index version set on the cache, -1 if none was set
+	 * @return
+	 */
+	public synchronized long getIndexVersion(){
+		return indexVersion;
+	}
+	
+	/**
+	 * drops every entry
+	 */
+	public synchronized void clear(){
+		entries.clear();
+	}
+	
+	/**
+	 * returns the number of cached responses
+	 * @return
+	 */
+	public synchronized int size(){
+		return entries.size();
+	}
+	
+	/**
+	 * returns the number of lookups answered from the cache
+	 * @return
+	 */
+	public synchronized long getHits(){
+		return hits;
+	}
+	
+	/**
+	 * returns the number of lookups not answered from the cache
+	 * @return
+	 */
+	public synchronized long getMisses(){
+		return misses;
+	}
+	
+	/**
+	 * returns the current time in milliseconds
+	 * @return
+	 */
+	protected long now(){
+		return System.currentTimeMillis();
+	}
+	
+	/**
+	 * returns a canonical rendering of the given params: params sorted by name, the values of multi-valued params
+	 * (such as several fq or bq) sorted, and the clauses of qf and bq values sorted when they are simple whitespace
+	 * separated terms. Names and values are URL-encoded, as in a request, so a value containing '=' or '&amp;' cannot be
+	 * mistaken for several params. Two queries that differ only in the order of their params or clauses get the same key.
+	 * @param params
+	 * @return
+	 */
+	public static String key(SolrParams params){
+		List<String> names = new ArrayList<String>();
+		Iterator<String> it = params.getParameterNamesIterator();
+		while(it.hasNext())
+			names.add(it.next());
+		Collections.sort(names);
+		
+		StringBuilder key = new StringBuilder();
+		for(String name : names){
+			String[] values = params.getParams(name);
+			if(values == null)
+				continue;
+			values = values.clone();
+			if(name.equals(DisMaxQuery.DisMaxParams.QF) || name.equals(DisMaxQuery.DisMaxParams.BQ)){
+				for(int i=0; i<values.length; i++)
+					values[i] = sortClauses(values[i]);
+			}
+			Arrays.sort(values);
+			for(String value : values)
+				key.append(encode(name)).append('=').append(encode(value)).append('&');
+		}
+		return key.toString();
+	}
+	
+	/**
+	 * returns the key of the given query on the given server
+	 * @param server
+	 * @param query
+	 * @return
+	 */
+	private String key(SolrServer server, SolrParams query){
+		return serverKey(server)+' '+key(query);
+	}
+	
+	/**
+	 * returns the base URL of an HTTP server, so instances pointing at the same core share entries,
+	 * or a name unique to the server instance otherwise
+	 * @param server
+	 * @return
+	 */
+	private synchronized String serverKey(SolrServer server){
+		if(server instanceof CommonsHttpSolrServer)
+			return encode(((CommonsHttpSolrServer)server).getBaseURL());
+		String name = servers.get(server);
+		if(name == null){
+			name = "#"+(serverCount++);
+			servers.put(server, name);
+		}
+		return name;
+	}
+	
+	private static String encode(String value){
+		try{
+			return URLEncoder.encode(value, "UTF-8");
+		}catch(UnsupportedEncodingException e){
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	/**
+	 * sorts the whitespace separated clauses of the given value, unless it has phrases, groups or local params whose order matters
+	 * @param value
+	 * @return
+	 */
+	private static String sortClauses(String value){
+		if(value.indexOf('"') >= 0 || value.indexOf('(') >= 0 || value.indexOf('{') >= 0)
+			return value;
+		
+		String[] clauses = value.trim().split("\\s+");
+		Arrays.sort(clauses);
+		StringBuilder sorted = new StringBuilder();
+		for(String clause : clauses){
+			if(sorted.length() > 0)
+				sorted.append(' ');
+			sorted.append(clause);
+		}
+		return sorted.toString();
+	}
+}
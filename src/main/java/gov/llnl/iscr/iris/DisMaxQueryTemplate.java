@@ -0,0 +1,107 @@
+/**
+* Copyright (c) 2011, Lawrence Livermore National Security, LLC. 
+* Produced at the Lawrence Livermore National Laboratory. 
+* Written by Kevin Lawrence, lawrence22@llnl.gov
+* Under the guidance of: 
+* David Andrzejewski, andrzejewski1@llnl.gov
+* David Buttler, buttler1@llnl.gov 
+* LLNL-CODE-521811 All rights reserved. This file is part of IRIS
+*
+* This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+* License (as published by the Free Software Foundation) version 2, dated June 1991. This program is distributed in the
+* hope that it will be useful, but WITHOUT ANY WARRANTY; without even the IMPLIED WARRANTY OF MERCHANTABILITY or
+* FITNESS FOR A PARTICULAR PURPOSE. See the terms and conditions of the GNU General Public License for more details.
+* You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+* Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA For full text see license.txt
+*
+*
+*/
+package gov.llnl.iscr.iris;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * 
+ * Immutable snapshot of the fixed part of a {@link DisMaxQuery}: query fields, highlighting, default boost queries
+ * and any other params set on the prototype it is made from. The params are rendered once when the template is
+ * created; {@link DisMaxQueryTemplate#newQuery(String)} then derives per-request queries that share the rendered
+ * params and field/boost maps, and only copy the maps once a request adds its own expansion boosts.
+ * Templates are thread-safe and meant to be created once and reused across searches.
+ *
+ */
+public final class DisMaxQueryTemplate {
+	private final Map<String, String[]> params;
+	private final Map<String, Float> queryFields;
+	private final Map<String, Map<String, Float>> boostQuery;
+	private final Map<Integer, Float> topicBoosts;
+	private final String topicField;
+	private final float defaultBoost;
+	
+	/**
+	 * creates a template from the params currently set on the given query; later changes to the prototype do not affect the template
+	 * @param prototype
+	 */
+	public DisMaxQueryTemplate(DisMaxQuery prototype){
+		Map<String, String[]> p = new LinkedHashMap<String, String[]>();
+		Iterator<String> names = prototype.getParameterNamesIterator();
+		String name;
+		while(names.hasNext()){
+			name = names.next();
+			p.put(name, prototype.getParams(name).clone());
+		}
+		params = Collections.unmodifiableMap(p);
+		
+		queryFields = Collections.unmodifiableMap(new LinkedHashMap<String, Float>(prototype.getQueryFields()));
+		Map<String, Map<String, Float>> bq = new LinkedHashMap<String, Map<String, Float>>();
+		for(Entry<String, Map<String, Float>> entry : prototype.getBoostQuery().entrySet())
+			bq.put(entry.getKey(), Collections.unmodifiableMap(new LinkedHashMap<String, Float>(entry.getValue())));
+		boostQuery = Collections.unmodifiableMap(bq);
+		topicBoosts = Collections.unmodifiableMap(new LinkedHashMap<Integer, Float>(prototype.getTopicBoosts()));
+		topicField = prototype.getTopicField();
+		defaultBoost = prototype.getDefaultBoost();
+	}
+	
+	/**
+	 * returns a new <code>DisMaxQuery</code> with the template params and the given query string
+	 * @param qstr the user's query
+	 * @return
+	 */
+	public DisMaxQuery newQuery(String qstr){
+		return new DisMaxQuery(this, qstr);
+	}
+	
+	/**
+	 * returns a copy of the rendered params of the template; changes to it, or to its value arrays, do not affect the template
+	 * @return
+	 */
+	public Map<String, String[]> getParams(){
+		Map<String, String[]> copy = new LinkedHashMap<String, String[]>();
+		for(Entry<String, String[]> param : params.entrySet())
+			copy.put(param.getKey(), param.getValue().clone());
+		return copy;
+	}
+	
+	Map<String, Float> getQueryFields(){
+		return queryFields;
+	}
+	
+	Map<String, Map<String, Float>> getBoostQuery(){
+		return boostQuery;
+	}
+	
+	Map<Integer, Float> getTopicBoosts(){
+		return topicBoosts;
+	}
+	
+	String getTopicField(){
+		return topicField;
+	}
+	
+	float getDefaultBoost(){
+		return defaultBoost;
+	}
+}
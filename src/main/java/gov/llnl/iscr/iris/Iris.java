@@ -22,15 +22,24 @@ import gov.llnl.iscr.iris.LDAHandler;
 import gov.llnl.iscr.iris.DisMaxQuery;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
+import org.apache.solr.client.solrj.SolrServer;
+
+import org.apache.solr.common.SolrDocument;
 import org.apache.solr.common.SolrDocumentList;
 
 import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
 /**
  * 
  * Iris is the driver for the <code>LDAHandler</code>. It demonstrates the intended usage of the 
@@ -67,6 +76,53 @@ public class Iris {
 	LDAHandler lda;
 	List<Integer> latentTopics;
 	Map<Integer, List<BasicDBObject>> latentTopicNgrams;
+	BoostQueryBuilder.Merge boostMerge = BoostQueryBuilder.Merge.MAX;
+	int clauseBudget = 0;
+	boolean negativeAsFilter = false;
+	TermTopicIndex termTopics = null;
+	
+	/**
+	 * receives the latent topics of {@link Iris#streamLatentTopics(SolrDocumentList, ExecutorService, LatentTopicListener)}
+	 * as they are resolved: the enriched topics first, then the related topics, then the labels and expansion words of each topic
+	 * in the order their lookups complete. All calls are made on the thread that started the stream.
+	 */
+	public interface LatentTopicListener {
+		void onEnrichedTopics(List<Integer> topics);
+		
+		void onRelatedTopics(List<Integer> topics);
+		
+		/**
+		 * called with the ngrams and unigrams displayed for a topic, as {@link Iris#getLatentTopicNgrams()} holds them
+		 */
+		void onTopicLabels(Integer topic, List<BasicDBObject> ngrams);
+		
+		void onExpansionWords(Integer topic, List<String> words);
+		
+		/**
+		 * called when the labels of a topic could not be retrieved; the other topics are still resolved
+		 */
+		void onError(Integer topic, Exception e);
+		
+		/**
+		 * called once every topic was resolved or failed
+		 */
+		void onComplete();
+	}
+	
+	/**
+	 * labels and expansion words of a topic, resolved by a worker thread
+	 */
+	private static final class ResolvedTopic {
+		final Integer topic;
+		final List<BasicDBObject> labels;
+		final List<String> words;
+		
+		ResolvedTopic(Integer topic, List<BasicDBObject> labels, List<String> words){
+			this.topic = topic;
+			this.labels = labels;
+			this.words = words;
+		}
+	}
 	
 	/**
 	 * returns a list of topic IDs representing the latent topics to be displayed
@@ -92,6 +148,52 @@ public class Iris {
 		return lda.getAllExpansionWords();
 	}
 	
+	/**
+	 * sets how the boosts of an expansion word shared by several topics are combined: MAX (default) boosts it
+	 * once with the given boost, SUM adds the boost of every topic it appears in
+	 * @param merge
+	 * @return
+	 */
+	public Iris setBoostMerge(BoostQueryBuilder.Merge merge){
+		this.boostMerge = merge;
+		return this;
+	}
+	
+	/**
+	 * sets the maximum number of boost clauses query expansion adds. With a budget, the expansion words of
+	 * all selected topics compete on their topic probability (phi): the most probable words are kept and each
+	 * is boosted in proportion to its probability, the most probable getting the full boost. 0 (default) keeps
+	 * every expansion word with the same boost.
+	 * @param budget
+	 * @return
+	 */
+	public Iris setClauseBudget(int budget){
+		this.clauseBudget = budget;
+		return this;
+	}
+	
+	/**
+	 * sets whether negative ('-') expansion excludes the topics' expansion words with a filter query
+	 * ({@link DisMaxQuery#addExclusionFilter(String, java.util.Collection)}) instead of negated boost queries.
+	 * Filters are not scored and are cached by Solr across requests; default false.
+	 * @param negativeAsFilter
+	 * @return
+	 */
+	public Iris setNegativeAsFilter(boolean negativeAsFilter){
+		this.negativeAsFilter = negativeAsFilter;
+		return this;
+	}
+	
+	/**
+	 * sets the index used to guess the topics of a query from its terms, enabling {@link Iris#prefetch(DisMaxQuery, int, ExecutorService)}
+	 * @param index
+	 * @return
+	 */
+	public Iris setTermTopicIndex(TermTopicIndex index){
+		this.termTopics = index;
+		return this;
+	}
+	
 	/**
 	 * creates an instance of <code>Iris</code> with given <code>LDAHandler</code>
 	 * @param lda the LDAHandler to be used by Iris
@@ -101,21 +203,197 @@ public class Iris {
 	}
 	
 	/**
-	 * sets a compiled list of enriched topics and related topics
+	 * speculatively loads the unigrams and ngrams of the topics the given query is likely about, guessed from its terms
+	 * by the {@link TermTopicIndex}, on the given executor ({@link LDAModel#prefetch(java.util.Collection)}). Called just
+	 * before the query is sent to Solr, the topic data is loaded while the request is in flight, so that
+	 * {@link Iris#setLatentTopicsNgrams()} and the expansion words find most of it already in memory.
+	 * Nothing is loaded if no index was set.
+	 * @param query the user's query
+	 * @param numTopics the number of candidate topics to load
+	 * @param executor runs the prefetch
+	 * @return the candidate topics, once loaded
+	 */
+	public Future<List<Integer>> prefetch(DisMaxQuery query, final int numTopics, ExecutorService executor){
+		final TermTopicIndex index = termTopics;
+		//Read here, so the executor never touches a query the caller may still be modifying
+		final String text = query.getQuery();
+		return executor.submit(new Callable<List<Integer>>(){
+			public List<Integer> call() throws Exception {
+				if(index == null || text == null)
+					return new ArrayList<Integer>();
+				List<Integer> candidates = index.candidates(text, numTopics);
+				lda.getModel().prefetch(candidates);
+				return candidates;
+			}
+		});
+	}
+	
+	/**
+	 * sends a probe of the given query ({@link DisMaxQuery#toProbeQuery(int)}) on the given executor and selects the latent
+	 * topics from its results, as {@link Iris#setLatentTopics(SolrDocumentList)} does. The caller sends the full query meanwhile,
+	 * so topic selection runs while the full response, with its stored fields and highlighting, is retrieved and parsed:
+	 * <blockquote><pre>
+	 * Future&lt;List&lt;Integer&gt;&gt; topics = iris.probeLatentTopics(server, query, 10, executor);
+	 * QueryResponse response = server.query(query);
+	 * iris.setLatentTopicIDs(topics.get());
+	 * iris.setLatentTopicsNgrams();
+	 * </pre></blockquote>
+	 * The probe selects topics with its own {@link LDAHandler#copySettings()} and does not change this Iris, so the Iris
+	 * may be used, or probed again, while the probe runs; the topics are only set when the caller passes them to
+	 * {@link Iris#setLatentTopicIDs(List)}.
+	 * @param server the Solr server to send the probe to
+	 * @param query the user's query
+	 * @param rows the number of document ids to retrieve; more than two allows for results the model has not seen
+	 * @param executor runs the probe
+	 * @return a new list of the latent topics
+	 */
+	public Future<List<Integer>> probeLatentTopics(final SolrServer server, DisMaxQuery query, int rows, ExecutorService executor){
+		final DisMaxQuery probe = query.toProbeQuery(rows);
+		final LDAHandler selection = lda.copySettings();
+		return executor.submit(new Callable<List<Integer>>(){
+			public List<Integer> call() throws Exception {
+				List<Object> docIDs = new ArrayList<Object>();
+				for(SolrDocument doc : server.query(probe).getResults())
+					docIDs.add(doc.get("id"));
+				selection.setEnrichedTopicSet(docIDs);
+				List<Integer> topics = new ArrayList<Integer>(selection.getEnrichedTopicSet());
+				addRelatedTopics(selection, topics);
+				return topics;
+			}
+		});
+	}
+	
+	/**
+	 * sets the latent topics to the given topic IDs, such as those returned by
+	 * {@link Iris#probeLatentTopics(SolrServer, DisMaxQuery, int, ExecutorService)}
+	 * @param topics
+	 */
+	public void setLatentTopicIDs(List<Integer> topics){
+		latentTopics = new ArrayList<Integer>(topics);
+	}
+	
+	/**
+	 * sets the latent topics and their ngrams as {@link Iris#setLatentTopics(SolrDocumentList)} followed by 
+	 * {@link Iris#setLatentTopicsNgrams()} do, but hands each part to the listener as soon as it is known instead of
+	 * returning once everything is resolved: enriched topics, related topics, then the labels and expansion words of 
+	 * each topic, whose lookups run in parallel on the given executor. A client can render the topics progressively 
+	 * rather than wait for the slowest lookup. The getters of Iris hold the full results once the method returns.
 	 * @param results the result list from user query containing documents
+	 * @param executor runs the per-topic lookups
+	 * @param listener receives the results, on the calling thread
+	 * @throws InterruptedException if the calling thread is interrupted; pending lookups are cancelled
 	 */
-	public void setLatentTopics(SolrDocumentList results){
-		
-		lda.setEnrichedTopicSet(Arrays.asList(results.get(0).get("id"), results.get(1).get("id")));
+	public void streamLatentTopics(SolrDocumentList results, ExecutorService executor, LatentTopicListener listener) throws InterruptedException{
+		List<Object> docIDs = new ArrayList<Object>(results.size());
+		for(SolrDocument doc : results)
+			docIDs.add(doc.get("id"));
+		lda.setEnrichedTopicSet(docIDs);
 		latentTopics = new ArrayList<Integer>(lda.getEnrichedTopicSet());
+		listener.onEnrichedTopics(new ArrayList<Integer>(latentTopics));
+		listener.onRelatedTopics(addRelatedTopics(lda, latentTopics));
 		
-		lda.setRelatedTopicSet();
-		List<Integer> temp = lda.getRelatedTopicSet();
-		for(Integer topicID : temp){
-			if(!latentTopics.contains(topicID))
-				latentTopics.add(topicID);
+		//-|Resolves the labels and expansion words of every topic in parallel, delivering them as they complete
+		CompletionService<ResolvedTopic> completion = new ExecutorCompletionService<ResolvedTopic>(executor);
+		Map<Future<ResolvedTopic>, Integer> pending = new LinkedHashMap<Future<ResolvedTopic>, Integer>();
+		for(final Integer topicID : latentTopics){
+			pending.put(completion.submit(new Callable<ResolvedTopic>(){
+				public ResolvedTopic call() throws Exception {
+					List<BasicDBObject> labels = new ArrayList<BasicDBObject>(lda.selectNgrams(topicID));
+					labels.addAll(lda.selectUnigrams(topicID));
+					return new ResolvedTopic(topicID, labels, lda.getTopicExpansionWords(topicID));
+				}
+			}), topicID);
+		}
+		
+		Map<Integer, List<BasicDBObject>> resolved = new LinkedHashMap<Integer, List<BasicDBObject>>();
+		try{
+			while(!pending.isEmpty()){
+				Future<ResolvedTopic> done = completion.take();
+				Integer topicID = pending.remove(done);
+				try{
+					ResolvedTopic topic = done.get();
+					resolved.put(topic.topic, topic.labels);
+					listener.onTopicLabels(topic.topic, topic.labels);
+					listener.onExpansionWords(topic.topic, topic.words);
+				}catch(ExecutionException e){
+					listener.onError(topicID, e.getCause() instanceof Exception ? (Exception)e.getCause() : e);
+				}
+			}
+		}finally{
+			for(Future<ResolvedTopic> future : pending.keySet())
+				future.cancel(true);
+		}
+		
+		latentTopicNgrams = new LinkedHashMap<Integer, List<BasicDBObject>>();
+		for(Integer topicID : latentTopics){
+			if(resolved.containsKey(topicID))
+				latentTopicNgrams.put(topicID, resolved.get(topicID));
+		}
+		listener.onComplete();
+	}
+	
+	/**
+	 * sets a compiled list of enriched topics and related topics; the top two results
+	 * found in the topic model are used, so results the model has not seen are skipped
+	 * @param results the result list from user query containing documents
+	 */
+	public void setLatentTopics(SolrDocumentList results){
+		List<Object> docIDs = new ArrayList<Object>(results.size());
+		for(SolrDocument doc : results)
+			docIDs.add(doc.get("id"));
+		lda.setEnrichedTopicSet(docIDs);
+		latentTopics = new ArrayList<Integer>(lda.getEnrichedTopicSet());
+		addRelatedTopics(lda, latentTopics);
+	}
+	
+	/**
+	 * sets a compiled list of enriched topics and related topics, reading the topics of the result documents
+	 * from the given stored field (see {@link TopicFieldCodec}) instead of theta. Falls back to
+	 * {@link Iris#setLatentTopics(SolrDocumentList)} if no result carries the field.
+	 * @param results the result list from user query containing documents, with the topic field in <code>fl</code>
+	 * @param field name of the stored topic field
+	 */
+	public void setLatentTopicsFromField(SolrDocumentList results, String field){
+		List<List<DBObject>> resultTopics = new ArrayList<List<DBObject>>();
+		for(SolrDocument doc : results){
+			Object value = doc.getFieldValue(field);
+			if(value != null)
+				resultTopics.add(TopicFieldCodec.decode(value.toString()));
+		}
+		if(resultTopics.isEmpty()){
+			setLatentTopics(results);
+			return;
 		}
 		
+		lda.setEnrichedTopicSetFromTopics(resultTopics);
+		latentTopics = new ArrayList<Integer>(lda.getEnrichedTopicSet());
+		addRelatedTopics(lda, latentTopics);
+	}
+	
+	/**
+	 * sets a compiled list of enriched topics and related topics, choosing the enriched topics
+	 * from the top results weighted by their score (see {@link LDAHandler#setEnrichedTopicSet(List, float[], int)}).
+	 * The score weights are used when the results carry a <code>score</code> field (<code>fl=*,score</code>).
+	 * @param results the result list from user query containing documents
+	 * @param numDocs number of top results used for feedback
+	 * @param numTopics maximum number of enriched topics
+	 */
+	public void setLatentTopics(SolrDocumentList results, int numDocs, int numTopics){
+		int n = Math.min(numDocs, results.size());
+		List<Object> docIDs = new ArrayList<Object>(n);
+		float[] scores = new float[n];
+		boolean scored = true;
+		for(int i=0; i<n; i++){
+			docIDs.add(results.get(i).get("id"));
+			Object score = results.get(i).get("score");
+			if(score instanceof Number)
+				scores[i] = ((Number)score).floatValue();
+			else
+				scored = false;
+		}
+		lda.setEnrichedTopicSet(docIDs, scored ? scores : null, numTopics);
+		latentTopics = new ArrayList<Integer>(lda.getEnrichedTopicSet());
+		addRelatedTopics(lda, latentTopics);
 	}
 	
 	/**
@@ -226,7 +504,9 @@ public class Iris {
 	 * @return
 	 */
 	public DisMaxQuery expandBoostQuery(DisMaxQuery query, List<String> topics, char sign){
-		query.addBoostQuery(buildBoostQueryMap(getListOfTerms(topics), query.getDefaultBoost(), sign));
+		if(sign == '-' && negativeAsFilter)
+			return excludeTopics(query, topics, "");
+		query.addBoostQuery(buildBoostQueryMap(topics, query.getDefaultBoost(), sign));
 		return query;
 	}
 	
@@ -241,7 +521,9 @@ public class Iris {
 	 * @return
 	 */
 	public DisMaxQuery expandBoostQuery(DisMaxQuery query, List<String> topics, String field, char sign){
-		query.addBoostQuery(field, buildBoostQueryMap(getListOfTerms(topics), query.getDefaultBoost(), sign));
+		if(sign == '-' && negativeAsFilter)
+			return excludeTopics(query, topics, field);
+		query.addBoostQuery(field, buildBoostQueryMap(topics, query.getDefaultBoost(), sign));
 		return query;
 	}
 	
@@ -257,7 +539,9 @@ public class Iris {
 	 * @return
 	 */
 	public DisMaxQuery expandBoostQuery(DisMaxQuery query, List<String> topics, float boost, char sign){
-		query.addBoostQuery(buildBoostQueryMap(getListOfTerms(topics), boost, sign));
+		if(sign == '-' && negativeAsFilter)
+			return excludeTopics(query, topics, "");
+		query.addBoostQuery(buildBoostQueryMap(topics, boost, sign));
 		return query;
 	}
 	
@@ -274,7 +558,9 @@ public class Iris {
 	 * @return
 	 */
 	public DisMaxQuery expandBoostQuery(DisMaxQuery query, List<String> topics, String field, float boost, char sign){
-		query.addBoostQuery(field, buildBoostQueryMap(getListOfTerms(topics), boost, sign));
+		if(sign == '-' && negativeAsFilter)
+			return excludeTopics(query, topics, field);
+		query.addBoostQuery(field, buildBoostQueryMap(topics, boost, sign));
 		return query;
 	}
 	
@@ -287,7 +573,7 @@ public class Iris {
 	 * @return
 	 */
 	public DisMaxQuery resetBoostQuery(DisMaxQuery query, List<String> topics){
-		query.setBoostQuery(buildBoostQueryMap(getListOfTerms(topics), query.getDefaultBoost(), '+'));
+		query.setBoostQuery(buildBoostQueryMap(topics, query.getDefaultBoost(), '+'));
 		return query;
 	}
 	
@@ -301,7 +587,7 @@ public class Iris {
 	 * @return
 	 */
 	public DisMaxQuery resetBoostQuery(DisMaxQuery query, List<String> topics, String field){
-		query.setBoostQuery(field, buildBoostQueryMap(getListOfTerms(topics), query.getDefaultBoost(), '+'));
+		query.setBoostQuery(field, buildBoostQueryMap(topics, query.getDefaultBoost(), '+'));
 		return query;
 	}
 	
@@ -316,7 +602,7 @@ public class Iris {
 	 * @return
 	 */
 	public DisMaxQuery resetBoostQuery(DisMaxQuery query, List<String> topics, float boost){
-		query.setBoostQuery(buildBoostQueryMap(getListOfTerms(topics), boost, '+'));
+		query.setBoostQuery(buildBoostQueryMap(topics, boost, '+'));
 		return query;
 	}
 	
@@ -332,50 +618,75 @@ public class Iris {
 	 * @return
 	 */
 	public DisMaxQuery resetBoostQuery(DisMaxQuery query, List<String> topics, String field, float boost){
-		query.setBoostQuery(field, buildBoostQueryMap(getListOfTerms(topics), boost, '+'));
+		query.setBoostQuery(field, buildBoostQueryMap(topics, boost, '+'));
 		return query;
 	}
 	
+	/**
+	 * sets the related topics of the enriched set held by the given handler and appends those not already
+	 * in the given topic list to it; shared by every way of setting the latent topics
+	 * @param lda handler holding the enriched topic set
+	 * @param topics the topic list, starting with the enriched topics
+	 * @return the related topics appended, in order
+	 */
+	static List<Integer> addRelatedTopics(LDAHandler lda, List<Integer> topics){
+		lda.setRelatedTopicSet();
+		List<Integer> added = new ArrayList<Integer>();
+		for(Integer topicID : lda.getRelatedTopicSet()){
+			if(!topics.contains(topicID)){
+				topics.add(topicID);
+				added.add(topicID);
+			}
+		}
+		return added;
+	}
+	
 	//-|===============================================
 	//-|Private helper methods used in query expansion
 	//-|===============================================
 	/**
-	 * builds and returns a map that represents the values of a boost query (bq) parameter for a Disjunction Max query.
-	 * It contains the mapping of query terms and associated boost values.
-	 * @param terms represents the query terms to boost
-	 * @param boost the value used to boost the query terms
-	 * @param sign used to distinguish between positive ('+') and "negative" ('-') boosting
+	 * adds a single exclusion filter on the expansion words of all the given topics
+	 * @param query the DisMaxQuery object to be filtered
+	 * @param topics the list of topics whose expansion words are excluded
+	 * @param field represents the indexed field to filter on
 	 * @return
-	 * @see {@link http://wiki.apache.org/solr/DisMaxQParserPlugin}
 	 */
-	private Map<String, Float> buildBoostQueryMap(Iterator<String> terms, float boost, char sign){
-		Map<String,Float> boostQueries = new LinkedHashMap<String, Float>();
-		switch(sign){
-		case '-':
-			while(terms.hasNext()){
-				boostQueries.put("-"+terms.next(), boost);
-			}
-		case '+':
-		default:
-			while(terms.hasNext()){
-				boostQueries.put(terms.next(), boost);
-			}
-			break;
+	private DisMaxQuery excludeTopics(DisMaxQuery query, List<String> topics, String field){
+		List<String> words = new ArrayList<String>();
+		for(String topicID : topics){
+			words.addAll(lda.getTopicExpansionWords(Integer.parseInt(topicID)));
 		}
-		return boostQueries;
+		return query.addExclusionFilter(field, words);
 	}
 	
 	/**
-	 * returns an iterator list of words to be used for query expansion for the given list of topics
+	 * builds and returns a map that represents the values of a boost query (bq) parameter for a Disjunction Max query.
+	 * It contains the mapping of query terms and associated boost values; words shared by several of the topics
+	 * appear once, with their boosts merged according to {@link Iris#setBoostMerge(BoostQueryBuilder.Merge)},
+	 * and at most {@link Iris#setClauseBudget(int)} words are kept.
 	 * @param topics represents the list of topics chosen (topic IDs are accepted as <code>String</code>
+	 * @param boost the value used to boost the query terms
+	 * @param sign used to distinguish between positive ('+') and "negative" ('-') boosting
 	 * @return
+	 * @see {@link http://wiki.apache.org/solr/DisMaxQParserPlugin}
 	 */
-	private Iterator<String> getListOfTerms(List<String> topics){
-		List<String> bqTerms = new ArrayList<String>();
+	private Map<String, Float> buildBoostQueryMap(List<String> topics, float boost, char sign){
+		BoostQueryBuilder builder = new BoostQueryBuilder(boostMerge);
+		if(clauseBudget <= 0){
+			for(String topicID : topics){
+				builder.addAll(lda.getTopicExpansionWords(Integer.parseInt(topicID)), boost);
+			}
+			return builder.build(sign);
+		}
+		
+		List<String> words;
+		float[] weights;
 		for(String topicID : topics){
-			bqTerms.addAll(lda.getTopicExpansionWords(Integer.parseInt(topicID)));
+			words = lda.getTopicExpansionWords(Integer.parseInt(topicID));
+			weights = lda.getTopicExpansionWeights(Integer.parseInt(topicID));
+			for(int i=0; i<words.size(); i++)
+				builder.add(words.get(i), weights == null ? 1.0F : weights[i]);
 		}
-		Iterator<String> it = bqTerms.iterator();
-		return it;
+		return builder.build(sign, clauseBudget, boost);
 	}
 }
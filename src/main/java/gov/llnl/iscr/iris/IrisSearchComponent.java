@@ -0,0 +1,248 @@
+/**
+* Copyright (c) 2011, Lawrence Livermore National Security, LLC. 
+* Produced at the Lawrence Livermore National Laboratory. 
+* Written by Kevin Lawrence, lawrence22@llnl.gov
+* Under the guidance of: 
+* David Andrzejewski, andrzejewski1@llnl.gov
+* David Buttler, buttler1@llnl.gov 
+* LLNL-CODE-521811 All rights reserved. This file is part of IRIS
+*
+* This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+* License (as published by the Free Software Foundation) version 2, dated June 1991. This program is distributed in the
+* hope that it will be useful, but WITHOUT ANY WARRANTY; without even the IMPLIED WARRANTY OF MERCHANTABILITY or
+* FITNESS FOR A PARTICULAR PURPOSE. See the terms and conditions of the GNU General Public License for more details.
+* You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+* Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA For full text see license.txt
+*
+*
+*/
+package gov.llnl.iscr.iris;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.lucene.queryParser.ParseException;
+import org.apache.lucene.search.Query;
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.params.CommonParams;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.common.util.SimpleOrderedMap;
+import org.apache.solr.handler.component.ResponseBuilder;
+import org.apache.solr.handler.component.SearchComponent;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.search.DocIterator;
+import org.apache.solr.search.DocList;
+import org.apache.solr.search.QParser;
+import org.apache.solr.search.QParserPlugin;
+import org.apache.solr.search.QueryParsing;
+import org.apache.solr.search.SolrIndexSearcher;
+
+/**
+ * 
+ * Solr search component that runs the latent topic expansion inside the Solr JVM, so an expanded search
+ * takes one client request instead of a search, a model lookup and a second search.
+ * The LDA model is opened once when the component is initialized; each request that sets <code>iris=true</code> gets its own
+ * {@link LDAHandler}. Before the query component runs, the component:
+ * <ol>
+ * <li>runs a first-pass search for the top <code>iris.docs</code> documents of <code>q</code> (with the request's
+ * <code>defType</code> and <code>fq</code>),</li>
+ * <li>selects enriched and related topics for them as {@link Iris#setLatentTopics(org.apache.solr.common.SolrDocumentList)} does,</li>
+ * <li>adds the expansion words of the topics given in <code>iris.topics</code> (the enriched topics by default)
+ * to the request's <code>bq</code>, as {@link Iris#resetBoostQuery(DisMaxQuery, List, String, float)} builds it.</li>
+ * </ol>
+ * The selected topics are returned in the <code>iris</code> section of the response.
+ * <p>Configuration, with the Iris jar and the Mongo driver in the core's lib directory:
+ * <blockquote><pre>
+ * &lt;searchComponent name="iris" class="gov.llnl.iscr.iris.IrisSearchComponent"&gt;
+ *   &lt;str name="host"&gt;127.0.0.1&lt;/str&gt;
+ *   &lt;str name="db"&gt;topicModel&lt;/str&gt;
+ *   &lt;double name="topicThreshold"&gt;-100.0&lt;/double&gt;
+ * &lt;/searchComponent&gt;
+ * &lt;requestHandler name="/iris" class="solr.SearchHandler"&gt;
+ *   &lt;arr name="first-components"&gt;&lt;str&gt;iris&lt;/str&gt;&lt;/arr&gt;
+ * &lt;/requestHandler&gt;
+ * </pre></blockquote>
+ * Request parameters: <code>iris</code> (on/off), <code>iris.docs</code> (feedback documents, default 2),
+ * <code>iris.topics</code> (comma separated topic IDs to expand with; an ID that is not in the model is rejected as a
+ * bad request), <code>iris.field</code> (field to boost on),
+ * <code>iris.boost</code> (boost value, default 1.0) and <code>iris.clauses</code> (maximum number of expansion
+ * words, chosen by topic probability; unbounded by default).
+ * 
+ */
+public class IrisSearchComponent extends SearchComponent {
+	public static final String COMPONENT_NAME = "iris";
+	public static final String IRIS = "iris";
+	public static final String DOCS = "iris.docs";
+	public static final String TOPICS = "iris.topics";
+	public static final String FIELD = "iris.field";
+	public static final String BOOST = "iris.boost";
+	public static final String CLAUSES = "iris.clauses";
+	
+	private LDAModel model;
+	private double topicThreshold = -100.0;
+	
+	/**
+	 * creates the component; the model is opened by {@link IrisSearchComponent#init(NamedList)}
+	 */
+	public IrisSearchComponent(){
+	}
+	
+	/**
+	 * creates a component that uses the given model instead of opening one
+	 * @param model
+	 */
+	IrisSearchComponent(LDAModel model){
+		this.model = model;
+	}
+	
+	public void init(@SuppressWarnings("rawtypes") NamedList args){
+		super.init(args);
+		String host = args.get("host") != null ? args.get("host").toString() : "127.0.0.1";
+		String db = args.get("db") != null ? args.get("db").toString() : "topicModel";
+		if(args.get("topicThreshold") != null)
+			topicThreshold = ((Number)args.get("topicThreshold")).doubleValue();
+		
+		model = new LDAModel(new MongoInstance(host, db), Boolean.TRUE.equals(args.get("filterTheta")));
+	}
+	
+	public void prepare(ResponseBuilder rb) throws IOException{
+		SolrQueryRequest req = rb.req;
+		SolrParams params = req.getParams();
+		if(!params.getBool(IRIS, false))
+			return;
+		
+		//-|===============================================
+		//-|1. First-pass search for the feedback documents
+		//-|===============================================
+		List<Object> docIDs = new ArrayList<Object>();
+		try{
+			String q = params.get(CommonParams.Q);
+			if(q == null)
+				return;
+			Query query = QParser.getParser(q, params.get(QueryParsing.DEFTYPE, QParserPlugin.DEFAULT_QTYPE), req).getQuery();
+			List<Query> filters = null;
+			String[] fqs = params.getParams(CommonParams.FQ);
+			if(fqs != null){
+				filters = new ArrayList<Query>();
+				for(String fq : fqs){
+					if(fq != null && fq.trim().length() > 0)
+						filters.add(QParser.getParser(fq, null, req).getQuery());
+				}
+			}
+			
+			SolrIndexSearcher searcher = req.getSearcher();
+			DocList docs = searcher.getDocList(query, filters, null, 0, params.getInt(DOCS, 2), 0);
+			DocIterator it = docs.iterator();
+			while(it.hasNext())
+				docIDs.add(req.getSchema().printableUniqueKey(searcher.doc(it.nextDoc())));
+		}catch(ParseException e){
+			throw new SolrException(SolrException.ErrorCode.BAD_REQUEST, e);
+		}
+		rb.rsp.add(COMPONENT_NAME, expand(req, docIDs));
+	}
+	
+	/**
+	 * selects the latent topics of the given feedback documents and adds the expansion words of the requested topics
+	 * to the bq params of the request
+	 * @param req
+	 * @param docIDs the feedback documents
+	 * @return the <code>iris</code> section of the response
+	 */
+	NamedList<Object> expand(SolrQueryRequest req, List<Object> docIDs){
+		SolrParams params = req.getParams();
+		
+		//-|===============================================
+		//-|2. Topic selection, as done by Iris
+		//-|===============================================
+		LDAHandler lda = new LDAHandler(model).setTopicThreshold(topicThreshold);
+		List<Integer> latentTopics = new ArrayList<Integer>();
+		if(!docIDs.isEmpty()){
+			lda.setEnrichedTopicSet(docIDs);
+			latentTopics.addAll(lda.getEnrichedTopicSet());
+			if(!latentTopics.isEmpty())
+				Iris.addRelatedTopics(lda, latentTopics);
+		}
+		
+		List<String> topics = new ArrayList<String>();
+		String chosen = params.get(TOPICS);
+		if(chosen != null){
+			for(String topic : chosen.split(",")){
+				if(topic.trim().length() == 0)
+					continue;
+				try{
+					topics.add(Integer.valueOf(topic.trim()).toString());
+				}catch(NumberFormatException e){
+					throw new SolrException(SolrException.ErrorCode.BAD_REQUEST, "Invalid topic ID in "+TOPICS+": "+topic);
+				}
+			}
+		}
+		else if(lda.getEnrichedTopicSet() != null){
+			for(Integer topic : lda.getEnrichedTopicSet())
+				topics.add(topic.toString());
+		}
+		
+		//-|===============================================
+		//-|3. Boost query expansion
+		//-|===============================================
+		NamedList<Object> section = new SimpleOrderedMap<Object>();
+		section.add("latentTopics", latentTopics);
+		section.add("expansionTopics", topics);
+		if(!topics.isEmpty()){
+			List<Integer> ids = new ArrayList<Integer>();
+			for(String topic : topics)
+				ids.add(Integer.valueOf(topic));
+			model.prefetch(ids);
+			for(Integer id : ids){
+				if(model.getUnigrams(id) == null){
+					if(chosen != null)
+						throw new SolrException(SolrException.ErrorCode.BAD_REQUEST, "Unknown topic ID in "+TOPICS+": "+id);
+					throw new SolrException(SolrException.ErrorCode.SERVER_ERROR, "Enriched topic "+id+" is missing from the model's phi collection");
+				}
+			}
+			for(Integer id : ids)
+				lda.setUnigrams(id);
+			
+			Iris iris = new Iris(lda).setClauseBudget(params.getInt(CLAUSES, 0));
+			DisMaxQuery expansion = new DisMaxQuery();
+			String field = params.get(FIELD);
+			float boost = params.getFloat(BOOST, expansion.getDefaultBoost());
+			if(field != null)
+				iris.resetBoostQuery(expansion, topics, field, boost);
+			else
+				iris.resetBoostQuery(expansion, topics, boost);
+			
+			String[] bqs = expansion.getParams(DisMaxQuery.DisMaxParams.BQ);
+			if(bqs != null){
+				ModifiableSolrParams expanded = new ModifiableSolrParams(params);
+				expanded.add(DisMaxQuery.DisMaxParams.BQ, bqs);
+				req.setParams(expanded);
+				section.add("bq", Arrays.asList(bqs));
+			}
+		}
+		return section;
+	}
+	
+	public void process(ResponseBuilder rb) throws IOException{
+		//The expanded query is run by the query component
+	}
+	
+	public String getDescription(){
+		return "Latent topic query expansion (Iris)";
+	}
+	
+	public String getSourceId(){
+		return "";
+	}
+	
+	public String getSource(){
+		return "";
+	}
+	
+	public String getVersion(){
+		return "1.0";
+	}
+}
@@ -20,6 +20,7 @@ package gov.llnl.iscr.iris;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
@@ -48,11 +49,13 @@ import gov.llnl.iscr.iris.LDAModel;
 public class LDAHandler {
 	private final LDAModel model;
 	private double topicThreshold = -100.0;
+	private boolean aggregateTopics = false;
 	private List<Integer> enrichedSet = null;
 	private List<Integer> relatedSet = null;
 	private List<BasicDBObject> selectedNgrams = null;
 	private List<BasicDBObject> selectedUnigrams = null;
-	private Map<Integer, List<String>> expansionWords = new LinkedHashMap<Integer, List<String>>();
+	private Map<Integer, List<String>> expansionWords = Collections.synchronizedMap(new LinkedHashMap<Integer, List<String>>());
+	private Map<Integer, float[]> expansionWeights = Collections.synchronizedMap(new LinkedHashMap<Integer, float[]>());
 	
 	public static enum TopicType {
 		ENRICHED, RELATED
@@ -92,9 +95,22 @@ public class LDAHandler {
 		return this;
 	}
 	
+	/**
+	 * sets whether document topics are filtered and ranked on the server with a single aggregation
+	 * ({@link LDAModel#getRankedTopics(Object, double)}) rather than fetched from theta and then
+	 * filtered with a separate semco query. The aggregation requires <code>$lookup</code> support on the server.
+	 * @param aggregateTopics
+	 * @return
+	 */
+	public LDAHandler setTopicAggregation(boolean aggregateTopics){
+		this.aggregateTopics = aggregateTopics;
+		return this;
+	}
+	
 	/**
 	 * sets the list of enriched topics for the user query using the results list; 
-	 * call {@link LDAHandler#getRelatedTopicSet()} on the returned
+	 * the first two documents found in theta are used, so documents the model has not seen are skipped.
+	 * Call {@link LDAHandler#getRelatedTopicSet()} on the returned
 	 * LDAHandler to retrieve the list.
 	 * @param results
 	 * @return
@@ -102,17 +118,94 @@ public class LDAHandler {
 	@SuppressWarnings("unchecked")
 	public LDAHandler setEnrichedTopicSet(List<Object> docIDs){
 		enrichedSet = new ArrayList<Integer>();
+		
+		//-|===============================================
+		//-|1. Gets associated topics for given document,
+		//-|	falling back to the next document if it
+		//-|	is not in theta
+		//-|2. Sorts topics by probability, descending
+		//-|3. Filters topics according to threshold value
+		//-|===============================================
+		List<List<Integer>> docTopics = new ArrayList<List<Integer>>();
+		for(int d=0; d<docIDs.size() && docTopics.size()<2; d++){
+			List<Integer> temp = null;
+			if(aggregateTopics){
+				//An empty list is kept, as filterTopics keeps it, so both paths use the same documents
+				List<DBObject> ranked = model.getRankedTopics(docIDs.get(d), topicThreshold);
+				if(ranked != null){
+					temp = new ArrayList<Integer>();
+					for(DBObject topic : ranked)
+						temp.add(((Number)topic.get("topic")).intValue());
+				}
+			}
+			else{
+				DBObject topicsObj = model.getTopics(docIDs.get(d));
+				if(topicsObj != null){
+					List<DBObject> topics = (List<DBObject>) topicsObj.get("topics");
+					Collections.sort(topics, new TopicSortByProb());
+					temp = filterTopics(topics, topicThreshold, TopicType.ENRICHED);
+				}
+			}
+			if(temp != null)
+				docTopics.add(temp);
+		}
+		if(docTopics.isEmpty()){
+			System.err.println("Enriched Topics Set cannot be populated!");
+			System.err.println("None of the result documents were found in theta.");
+			return this;
+		}
+		
+		selectEnrichedTopics(docTopics);
+		return this;
+	}
+	
+	/**
+	 * sets the list of enriched topics for the user query from topics already retrieved with the results,
+	 * such as those decoded by {@link TopicFieldCodec#decode(String)}; the first two non-empty lists are used.
+	 * Topics are filtered against semantic coherence scores held by the model in memory, so no query is made.
+	 * Call {@link LDAHandler#getEnrichedTopicSet()} on the returned LDAHandler to retrieve the list.
+	 * @param resultTopics for each result document, a list of key-value maps (topic: id, prob: value)
+	 * @return
+	 */
+	public LDAHandler setEnrichedTopicSetFromTopics(List<List<DBObject>> resultTopics){
+		enrichedSet = new ArrayList<Integer>();
+		List<List<Integer>> docTopics = new ArrayList<List<Integer>>();
+		for(List<DBObject> topics : resultTopics){
+			if(topics == null || topics.isEmpty())
+				continue;
+			
+			List<DBObject> sorted = new ArrayList<DBObject>(topics);
+			Collections.sort(sorted, new TopicSortByProb());
+			List<Integer> temp = new ArrayList<Integer>();
+			for(DBObject topic : sorted){
+				int id = ((Number)topic.get("topic")).intValue();
+				//Topics without a score are kept, as they are by filterTopics
+				if(!(model.getSemco(id) < topicThreshold))
+					temp.add(id);
+			}
+			docTopics.add(temp);
+			if(docTopics.size() == 2)
+				break;
+		}
+		
+		if(docTopics.isEmpty()){
+			System.err.println("Enriched Topics Set cannot be populated!");
+			System.err.println("None of the result documents carry topics.");
+			return this;
+		}
+		selectEnrichedTopics(docTopics);
+		return this;
+	}
+	
+	/**
+	 * private helper that takes two topics at a time from each document's filtered topic list
+	 * until the enriched set holds four (4) topics
+	 * @param docTopics
+	 */
+	private void selectEnrichedTopics(List<List<Integer>> docTopics){
 		int iterateCount = 0;
-		for(int i=0; i<2; i++){			
-			//-|===============================================
-			//-|1. Gets associated topics for given document
-			//-|2. Sorts topics by probability, descending
-			//-|3. Filters topics according to threshold value
-			//-|===============================================
-
-			List<DBObject> topics = (List<DBObject>) model.getTopics(docIDs.get(i)).get("topics");
-			Collections.sort(topics, new TopicSortByProb());
-			List<Integer> temp = filterTopics(topics, topicThreshold, TopicType.ENRICHED);
+		for(int i=0; i<docTopics.size(); i++){			
+			List<Integer> temp = docTopics.get(i);
 			
 			//-|===============================================
 			//-|Iterates temp to extract enriched topics
@@ -129,7 +222,7 @@ public class LDAHandler {
 				}
 			}
 			//If the enriched set does not contain four (4) topics after searching both topic lists
-			if(i == 1 && enrichedSet.size() < 4){
+			if(i == docTopics.size()-1 && enrichedSet.size() < 4){
 				i = -1;
 				++iterateCount;
 			}
@@ -137,12 +230,66 @@ public class LDAHandler {
 			if(iterateCount == 2)
 				break;
 		}
+	}
+	
+	/**
+	 * sets the list of enriched topics for the user query by pseudo-relevance feedback over the given result documents:
+	 * the topic distributions of all documents are fetched in one query and summed into a dense topic-weight array,
+	 * each document weighted by its retrieval score, and the heaviest topics that pass the topic threshold are kept.
+	 * Call {@link LDAHandler#getEnrichedTopicSet()} on the returned LDAHandler to retrieve the list.
+	 * @param docIDs result document IDs, best first
+	 * @param weights document weights, such as Solr scores, parallel to docIDs; if null, the document at rank r gets weight 1/(r+1)
+	 * @param numTopics maximum number of enriched topics
+	 * @return
+	 */
+	public LDAHandler setEnrichedTopicSet(List<Object> docIDs, float[] weights, int numTopics){
+		enrichedSet = new ArrayList<Integer>();
+		Map<Object, List<DBObject>> docTopics = model.getTopics(docIDs);
 		
+		//-|===============================================
+		//-|1. Accumulates weighted topic probabilities
+		//-|===============================================
+		double[] topicWeights = new double[64];
+		for(int rank=0; rank<docIDs.size(); rank++){
+			List<DBObject> topics = docTopics.get(docIDs.get(rank));
+			if(topics == null)
+				continue;
+			
+			double weight = weights != null ? weights[rank] : 1.0/(rank+1);
+			for(DBObject topic : topics){
+				int id = ((Number)topic.get("topic")).intValue();
+				if(id >= topicWeights.length)
+					topicWeights = Arrays.copyOf(topicWeights, Math.max(topicWeights.length*2, id+1));
+				topicWeights[id] += weight * ((Number)topic.get("prob")).doubleValue();
+			}
+		}
+		
+		//-|===============================================
+		//-|2. Ranks topics by weight and removes topics
+		//-|	below the threshold
+		//-|===============================================
+		int nonzero = 0;
+		for(double w : topicWeights){
+			if(w > 0)
+				++nonzero;
+		}
+		TopEntries<Integer> ranked = new TopEntries<Integer>(nonzero);
+		for(int id=0; id<topicWeights.length; id++){
+			if(topicWeights[id] > 0)
+				ranked.offer(id, topicWeights[id]);
+		}
+		List<DBObject> candidates = new ArrayList<DBObject>(nonzero);
+		for(Integer id : ranked.sorted(null))
+			candidates.add(new BasicDBObject("topic", id));
+		
+		List<Integer> temp = filterTopics(candidates, topicThreshold, TopicType.ENRICHED);
+		enrichedSet.addAll(temp.subList(0, Math.min(numTopics, temp.size())));
 		return this;
 	}
 	
 	/**
-	 * sets the list of topics that are related to the enriched topic list; 
+	 * sets the list of topics that are related to the enriched topic list (up to two co-topics
+	 * per enriched topic, fewer if the threshold leaves fewer); 
 	 * call {@link LDAHandler#getRelatedTopicSet()} on the returned
 	 * LDAHandler to retrieve the list.
 	 * @return
@@ -154,8 +301,8 @@ public class LDAHandler {
 			List<DBCursor> curList = model.getRelatedTopics(enrichedSet);
 			for(DBCursor cur : curList){
 				List<Integer> temp = filterTopics(cur.toArray(), topicThreshold, TopicType.RELATED);
-				relatedSet.add(temp.get(0));
-				relatedSet.add(temp.get(1));
+				for(int i = 0; i < 2 && i < temp.size(); i++)
+					relatedSet.add(temp.get(i));
 			}
 		}
 		else{
@@ -165,6 +312,26 @@ public class LDAHandler {
 		return this;	
 	}
 	
+	/**
+	 * sets the list of topics related to the enriched topic list by walking the given topic graph
+	 * up to <code>depth</code> co-topic hops, best covarying paths first, skipping topics below the topic threshold;
+	 * call {@link LDAHandler#getRelatedTopicSet()} on the returned LDAHandler to retrieve the list.
+	 * @param graph topic graph loaded from the model's related collection
+	 * @param depth maximum number of hops from an enriched topic
+	 * @param limit maximum number of related topics
+	 * @return
+	 */
+	public LDAHandler setRelatedTopicSet(TopicGraph graph, int depth, int limit){
+		relatedSet = new ArrayList<Integer>();
+		if(enrichedSet != null)
+			relatedSet = graph.expand(enrichedSet, depth, limit, topicThreshold);
+		else{
+			System.err.println("Related Topics Set cannot be populated!");
+			System.err.println("Ensure enriched topic set has been established.");
+		}
+		return this;
+	}
+	
 	/**
 	 * sets the ngrams for the given topic; 
 	 * call {@link LDAHandler#getSelectedNgrams()} on the returned
@@ -173,6 +340,17 @@ public class LDAHandler {
 	 * @return
 	 */
 	public LDAHandler setNgrams(Object selectedTopic){
+		selectedNgrams = selectNgrams(selectedTopic);
+		return this;
+	}
+	
+	/**
+	 * returns the ngrams displayed for the given topic (the top trigram and top two bigrams) without
+	 * changing the state of the LDAHandler, so topics may be resolved from several threads at once
+	 * @param selectedTopic
+	 * @return
+	 */
+	public List<BasicDBObject> selectNgrams(Object selectedTopic){
 		//-|==================================================
 		//-|1. Instantiate multicomparator for sorting ngrams
 		//-|	by size and score
@@ -185,7 +363,10 @@ public class LDAHandler {
 		
 		@SuppressWarnings("unchecked")
 		List<BasicDBObject> topicNgrams = (List<BasicDBObject>) model.getNgrams(selectedTopic).get("ngrams");
-		Collections.sort(topicNgrams, multiComp);
+		if(topicNgrams instanceof PackedNgramList)
+			((PackedNgramList)topicNgrams).sortBySizeAndScore();
+		else
+			Collections.sort(topicNgrams, multiComp);
 		List<BasicDBObject> allNgrams = topicNgrams;
 		
 		
@@ -195,20 +376,20 @@ public class LDAHandler {
 		//-|=====================================
 		boolean tri = true;
 		int biCount = 0;
-		selectedNgrams = new ArrayList<BasicDBObject>();		
+		List<BasicDBObject> selected = new ArrayList<BasicDBObject>();		
 		for(int i=0; i<allNgrams.size(); i++){
 			if(tri && (Integer)allNgrams.get(i).get("size") == 3){
 				tri = false;
-				selectedNgrams.add(allNgrams.get(i));
+				selected.add(allNgrams.get(i));
 			}else if(biCount<2){
 				if((Integer)allNgrams.get(i).get("size") == 2){
-					selectedNgrams.add(allNgrams.get(i));
+					selected.add(allNgrams.get(i));
 					++biCount;
 				}
 			}else break;
 					
 		}
-		return this;
+		return selected;
 	}
 	
 	/**
@@ -219,13 +400,29 @@ public class LDAHandler {
 	 * @return
 	 */
 	public LDAHandler setUnigrams(Object selectedTopic){
+		selectedUnigrams = selectUnigrams(selectedTopic);
+		return this;
+	}
+	
+	/**
+	 * returns the unigrams displayed for the given topic and records its expansion words (see 
+	 * {@link LDAHandler#getTopicExpansionWords(Integer)}) without changing any other state of the LDAHandler,
+	 * so topics may be resolved from several threads at once
+	 * @param selectedTopic
+	 * @return
+	 */
+	public List<BasicDBObject> selectUnigrams(Object selectedTopic){
 		//-|===================================================
 		//-|1. Get unigrams (probable words) for selected topic
 		//-|2. Sort unigrams by probability
 		//-|===================================================
+		Object unigrams = model.getUnigrams(selectedTopic).get("words");
 		@SuppressWarnings("unchecked")
-		List<DBObject> topicUnigrams = (List<DBObject>) model.getUnigrams(selectedTopic).get("words");
-		Collections.sort(topicUnigrams, new TopicSortByProb());
+		List<DBObject> topicUnigrams = (List<DBObject>) unigrams;
+		if(unigrams instanceof PackedWordList)
+			((PackedWordList)unigrams).sortByProb();
+		else
+			Collections.sort(topicUnigrams, new TopicSortByProb());
 		List<DBObject> allUnigrams = topicUnigrams;
 		
 		//-|==============================
@@ -233,22 +430,26 @@ public class LDAHandler {
 		//-|display and query expansion
 		//-|==============================
 		List<String> words = new ArrayList<String>(); //Store words for expansion
+		float[] weights = new float[5]; //and their probabilities
 		DBObject obj;
-		selectedUnigrams = new ArrayList<BasicDBObject>();
+		List<BasicDBObject> selected = new ArrayList<BasicDBObject>();
 		for(int i=0; i<4; i++){
 			obj = allUnigrams.get(i);
-			selectedUnigrams.add((BasicDBObject)obj);
+			selected.add((BasicDBObject)obj);
 			words.add(obj.get("word").toString());
+			weights[i] = ((Number)obj.get("prob")).floatValue();
 		}
 		try{
 			obj = allUnigrams.get(4);
 			words.add(obj.get("word").toString());
+			weights[4] = ((Number)obj.get("prob")).floatValue();
 		}catch(Exception e){
 			System.err.println("Could NOT add the last (5th) term to the query expansion word list:");
 			System.err.println("Only four (4) words will be used for query expansion.");
 		}
 		expansionWords.put((Integer)selectedTopic, words);
-		return this;
+		expansionWeights.put((Integer)selectedTopic, weights);
+		return selected;
 	}
 	
 	/**
@@ -260,7 +461,8 @@ public class LDAHandler {
 	}
 	
 	/**
-	 * returns the a map of topics and associated expansion words
+	 * returns the a map of topics and associated expansion words; the map is synchronized, 
+	 * iterating over it while topics are being resolved requires holding its lock
 	 * @return
 	 */
 	public Map<Integer, List<String>> getAllExpansionWords(){
@@ -276,6 +478,15 @@ public class LDAHandler {
 		return expansionWords.get(topicID);
 	}
 	
+	/**
+	 * returns the probabilities (phi) of the expansion words for the given topic, in the order of {@link LDAHandler#getTopicExpansionWords(Integer)}
+	 * @param topicID
+	 * @return
+	 */
+	public float[] getTopicExpansionWeights(Integer topicID){
+		return expansionWeights.get(topicID);
+	}
+	
 	/**
 	 * returns a list of related topics
 	 * @return
@@ -316,6 +527,15 @@ public class LDAHandler {
 		return model;
 	}
 	
+	/**
+	 * returns a new LDAHandler on the same model with the same topic threshold and aggregation setting but no selected
+	 * topics, so topics can be selected on another thread without touching the state of this handler
+	 * @return
+	 */
+	public LDAHandler copySettings(){
+		return new LDAHandler(model).setTopicThreshold(topicThreshold).setTopicAggregation(aggregateTopics);
+	}
+	
 	/**
 	 * filter the list of given topics by removing those that are less than the provided threshold
 	 * @param topics the list of topic objects which consist of a key-value map (topic: id, prob: value)
@@ -21,13 +21,22 @@ package gov.llnl.iscr.iris;
 import gov.llnl.iscr.iris.MongoInstance;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+
 import org.apache.solr.common.SolrDocument;
 
 import com.mongodb.BasicDBObject;
+import com.mongodb.CommandResult;
 import com.mongodb.DBCollection;
 import com.mongodb.DBCursor;
 import com.mongodb.DBObject;
+import com.mongodb.MongoException;
 /**
  * 
  * This class provides connections to the various collections that
@@ -54,12 +63,43 @@ public class LDAModel {
 	private final DBCollection semco;
 	private final DBCollection ngram;
 	private final DBCollection related;
+	private final ThetaFilter thetaFilter;
+	private volatile double[] semcoTable = null;
+	private volatile int prefetchCapacity = 256;
+	private final Map<Object, DBObject> prefetchedUnigrams = Collections.synchronizedMap(new PrefetchCache());
+	private final Map<Object, DBObject> prefetchedNgrams = Collections.synchronizedMap(new PrefetchCache());
+	
+	/**
+	 * topic documents loaded ahead of use, dropping the least recently used beyond the prefetch capacity
+	 */
+	private class PrefetchCache extends LinkedHashMap<Object, DBObject> {
+		private static final long serialVersionUID = 1L;
+		
+		PrefetchCache(){
+			super(16, 0.75F, true);
+		}
+		
+		protected boolean removeEldestEntry(Map.Entry<Object, DBObject> eldest){
+			return size() > prefetchCapacity;
+		}
+	}
 	
 	/**
 	 * creates an instance of LDAModel and initialize the required collections used by the model
 	 * @param mongoInstance object that provides the connection to the necessary database
 	 */
 	public LDAModel(MongoInstance mongoInstance){
+		this(mongoInstance, false);
+	}
+	
+	/**
+	 * creates an instance of LDAModel and initialize the required collections used by the model;
+	 * optionally loads a {@link ThetaFilter} of the documents in theta, so that lookups of documents
+	 * missing from theta are answered without querying the database
+	 * @param mongoInstance object that provides the connection to the necessary database
+	 * @param filterTheta true to build the theta document filter
+	 */
+	public LDAModel(MongoInstance mongoInstance, boolean filterTheta){
 		if(mongoInstance.getDB().collectionExists("phi"))
 			phi = mongoInstance.useCollection("phi");
 		else{
@@ -94,6 +134,38 @@ public class LDAModel {
 			System.out.println("ngram set to NULL!\n Check database for required LDA model collections.");
 			related=null;
 		}
+		
+		if(filterTheta && theta != null){
+			BasicDBObject query = new BasicDBObject("_id", 0).append("document", 1);
+			DBCursor cur = theta.find(new BasicDBObject(), query).batchSize(10000);
+			thetaFilter = ThetaFilter.build(cur, (int)theta.count(), 0.01);
+			cur.close();
+		}
+		else
+			thetaFilter = null;
+	}
+	
+	/**
+	 * creates a model without database collections, answering {@link LDAModel#getUnigrams(Object)} and
+	 * {@link LDAModel#getNgrams(Object)} from the topics given to {@link LDAModel#cacheUnigrams(DBObject)} and
+	 * {@link LDAModel#cacheNgrams(DBObject)} only
+	 */
+	LDAModel(){
+		phi = null;
+		theta = null;
+		semco = null;
+		ngram = null;
+		related = null;
+		thetaFilter = null;
+	}
+	
+	/**
+	 * returns false if the given document is certainly not in theta; always true when the model has no theta filter
+	 * @param docid
+	 * @return
+	 */
+	public boolean inTheta(Object docid){
+		return thetaFilter == null || thetaFilter.mightContain(docid);
 	}
 	
 	/**
@@ -145,13 +217,43 @@ public class LDAModel {
 		return semcoCur;
 		
 	}
+	/**
+	 * returns the semantic coherence score of the given topic, or NaN if the topic has none. All scores are
+	 * read from semco on the first call and served from memory afterwards; semco is small and does not change
+	 * while a model is served.
+	 * @param topic
+	 * @return
+	 */
+	public double getSemco(int topic){
+		double[] table = semcoTable;
+		if(table == null){
+			table = new double[0];
+			DBCursor cur = getTopicSemcoValues();
+			while(cur.hasNext()){
+				DBObject obj = cur.next();
+				int id = ((Number)obj.get("topic")).intValue();
+				if(id >= table.length){
+					int length = table.length;
+					table = Arrays.copyOf(table, Math.max(length*2, id+1));
+					Arrays.fill(table, length, table.length, Double.NaN);
+				}
+				table[id] = ((Number)obj.get("semco")).doubleValue();
+			}
+			semcoTable = table;
+		}
+		return topic >= 0 && topic < table.length ? table[topic] : Double.NaN;
+	}
+	
 	/**
 	 * returns all topics associated with given document in a {@link DBObject} that contains key-value maps of topics and probabilities.
 	 * @param doc a single document taken from query results
-	 * @return
+	 * @return null if the document is not in theta
 	 */
 	//@SuppressWarnings("unchecked")
 	public DBObject getTopics(Object docid){
+		if(!inTheta(docid))
+			return null;
+		
 		BasicDBObject query = new BasicDBObject();
 		query.put("document", docid);
 		BasicDBObject query2 = new BasicDBObject();
@@ -162,6 +264,148 @@ public class LDAModel {
 		return topicsObj;
 	}
 	
+	/**
+	 * returns the topics of every given document, fetched from theta with a single query,
+	 * as a map of document IDs to the list of key-value maps (topic: id, prob: value).
+	 * Documents not found in theta are absent from the map.
+	 * @param docids document IDs used in theta
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	public Map<Object, List<DBObject>> getTopics(List<Object> docids){
+		List<Object> present = new ArrayList<Object>(docids.size());
+		for(Object docid : docids){
+			if(inTheta(docid))
+				present.add(docid);
+		}
+		Map<Object, List<DBObject>> docTopics = new HashMap<Object, List<DBObject>>();
+		if(present.isEmpty())
+			return docTopics;
+		
+		BasicDBObject query = new BasicDBObject("document", new BasicDBObject("$in", present));
+		BasicDBObject query2 = new BasicDBObject();
+		query2.put("_id", 0);
+		query2.put("document", 1);
+		query2.put("topics", 1);
+		
+		DBCursor cur = theta.find(query, query2).batchSize(present.size());
+		try{
+			while(cur.hasNext()){
+				DBObject obj = cur.next();
+				docTopics.put(obj.get("document"), (List<DBObject>) obj.get("topics"));
+			}
+		}finally{
+			cur.close();
+		}
+		return docTopics;
+	}
+	
+	/**
+	 * returns an iterator object over every document of theta, used to build a {@link TopicSimilarityIndex}
+	 * @return
+	 */
+	public DBCursor getThetaEntries(){
+		BasicDBObject query = new BasicDBObject("_id", 0);
+		return theta.find(new BasicDBObject(), query).batchSize(10000);
+	}
+	
+	/**
+	 * returns the topics of the given document, ranked by probability (descending), with "junk" topics
+	 * (semantic coherence below the given threshold) removed. The filtering and ranking is done by a single
+	 * server-side aggregation over theta joined against semco, so the result is equivalent to calling
+	 * {@link LDAModel#getTopics(Object)} followed by {@link LDAHandler#filterTopics(List, double, LDAHandler.TopicType)}
+	 * but takes one round trip. Topics without a semco entry are kept, as they are by <code>filterTopics</code>.
+	 * Requires a server that supports the <code>$lookup</code> aggregation stage.
+	 * @param docid the document ID used in theta
+	 * @param threshold semantic coherence value below which topics are removed
+	 * @return a list of key-value maps (topic: id, prob: value); empty if every topic of the document was filtered out,
+	 * null if the document is not in theta
+	 * @throws MongoException if the aggregation fails
+	 */
+	public List<DBObject> getRankedTopics(Object docid, double threshold){
+		if(!inTheta(docid))
+			return null;
+		
+		List<DBObject> pipeline = new ArrayList<DBObject>();
+		pipeline.add(new BasicDBObject("$match", new BasicDBObject("document", docid)));
+		pipeline.add(new BasicDBObject("$unwind", new BasicDBObject("path", "$topics").append("includeArrayIndex", "index")));
+		
+		BasicDBObject lookup = new BasicDBObject("from", semco.getName());
+		lookup.append("localField", "topics.topic").append("foreignField", "topic").append("as", "coherence");
+		pipeline.add(new BasicDBObject("$lookup", lookup));
+		pipeline.add(new BasicDBObject("$unwind", new BasicDBObject("path", "$coherence").append("preserveNullAndEmptyArrays", true)));
+		
+		//Keeps topics whose semco is missing or not less than threshold
+		pipeline.add(new BasicDBObject("$match", new BasicDBObject("coherence.semco", 
+				new BasicDBObject("$not", new BasicDBObject("$lt", threshold)))));
+		pipeline.add(new BasicDBObject("$sort", new BasicDBObject("topics.prob", -1).append("index", 1)));
+		pipeline.add(new BasicDBObject("$project", new BasicDBObject("_id", 0).append("topic", "$topics.topic").append("prob", "$topics.prob")));
+		
+		BasicDBObject command = new BasicDBObject("aggregate", theta.getName());
+		command.append("pipeline", pipeline).append("cursor", new BasicDBObject());
+		CommandResult result = theta.getDB().command(command);
+		
+		if(!result.ok())
+			throw new MongoException("Could NOT aggregate topics for document "+docid+": "+result.getErrorMessage());
+		
+		List<DBObject> topics = readCursor(result, theta.getName(), new CommandRunner(){
+			public DBObject run(DBObject command){
+				return theta.getDB().command(command);
+			}
+		});
+		
+		//No rows either way: tell a document whose topics were all filtered from one missing from theta
+		if(topics.isEmpty() && theta.findOne(new BasicDBObject("document", docid), new BasicDBObject("_id", 1)) == null)
+			return null;
+		return topics;
+	}
+	
+	/**
+	 * runs a database command; lets the cursor handling of command results be used without a server
+	 */
+	interface CommandRunner {
+		DBObject run(DBObject command);
+	}
+	
+	/**
+	 * returns every document of the cursor of the given command result: the first batch, then the batches
+	 * fetched with getMore until the cursor is exhausted. Results of servers without command cursors are read
+	 * from the <code>result</code> field.
+	 * @param result the result of the command that opened the cursor
+	 * @param collection the collection the cursor is on
+	 * @param runner runs the getMore commands
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	static List<DBObject> readCursor(DBObject result, String collection, CommandRunner runner){
+		List<DBObject> docs = new ArrayList<DBObject>();
+		DBObject cursor = (DBObject) result.get("cursor");
+		if(cursor == null){
+			List<DBObject> all = (List<DBObject>) result.get("result");
+			if(all != null)
+				docs.addAll(all);
+			return docs;
+		}
+		
+		List<DBObject> batch = (List<DBObject>) cursor.get("firstBatch");
+		while(true){
+			if(batch != null)
+				docs.addAll(batch);
+			Object id = cursor.get("id");
+			if(id == null || ((Number)id).longValue() == 0)
+				return docs;
+			
+			DBObject more = runner.run(new BasicDBObject("getMore", ((Number)id).longValue()).append("collection", collection));
+			Object ok = more.get("ok");
+			if(!(ok instanceof Number) || ((Number)ok).doubleValue() != 1.0 || more.get("cursor") == null){
+				System.err.println("Could NOT read the rest of the cursor on "+collection+": "+more.get("errmsg"));
+				return docs;
+			}
+			cursor = (DBObject) more.get("cursor");
+			batch = (List<DBObject>) cursor.get("nextBatch");
+		}
+	}
+	
 	/**
 	 * returns a list of iterator objects containing key-value maps of the related topics and probabilities for each topic in the given list 
 	 * @param enrichedSet
@@ -180,12 +424,121 @@ public class LDAModel {
 		return relatedTopicsCursors;
 	}
 	
+	/**
+	 * returns an iterator object over every co-topic entry of the related collection, used to load a {@link TopicGraph}
+	 * @return
+	 */
+	public DBCursor getRelatedEdges(){
+		BasicDBObject query = new BasicDBObject("_id", 0);
+		return related.find(new BasicDBObject(), query).batchSize(10000);
+	}
+	
+	/**
+	 * returns an iterator object over every topic of phi, used to build a {@link TermTopicIndex}
+	 * @return
+	 */
+	public DBCursor getPhiEntries(){
+		BasicDBObject query = new BasicDBObject("_id", 0);
+		return phi.find(new BasicDBObject(), query).batchSize(100);
+	}
+	
+	/**
+	 * loads the unigrams and ngrams of the given topics ahead of use, each with a single query, so that later calls to
+	 * {@link LDAModel#getUnigrams(Object)} and {@link LDAModel#getNgrams(Object)} for them are answered without a database
+	 * round trip. Topics already loaded are skipped. Safe to call from a background thread while the model is in use.
+	 * @param topics topic IDs
+	 */
+	public void prefetch(Collection<Integer> topics){
+		List<Integer> missing = new ArrayList<Integer>();
+		for(Integer topic : topics){
+			if(!prefetchedUnigrams.containsKey(topic))
+				missing.add(topic);
+		}
+		if(phi != null && !missing.isEmpty()){
+			BasicDBObject query = new BasicDBObject("topic", new BasicDBObject("$in", missing));
+			DBCursor cur = phi.find(query, new BasicDBObject("_id", 0)).batchSize(missing.size());
+			try{
+				while(cur.hasNext())
+					cacheUnigrams(cur.next());
+			}finally{
+				cur.close();
+			}
+		}
+		
+		missing.clear();
+		for(Integer topic : topics){
+			if(!prefetchedNgrams.containsKey(topic))
+				missing.add(topic);
+		}
+		if(ngram != null && !missing.isEmpty()){
+			BasicDBObject query = new BasicDBObject("topic", new BasicDBObject("$in", missing));
+			BasicDBObject query2 = new BasicDBObject("_id", 0).append("ngrams.count", 0);
+			DBCursor cur = ngram.find(query, query2).batchSize(missing.size());
+			try{
+				while(cur.hasNext())
+					cacheNgrams(cur.next());
+			}finally{
+				cur.close();
+			}
+		}
+	}
+	
+	/**
+	 * sets the number of topics whose unigrams and ngrams are kept once prefetched (default 256)
+	 * @param capacity
+	 * @return
+	 */
+	public LDAModel setPrefetchCapacity(int capacity){
+		this.prefetchCapacity = capacity;
+		return this;
+	}
+	
+	/**
+	 * keeps the given phi document <code>{topic: id, words: [...]}</code> as a prefetched topic
+	 * @param phiObj
+	 */
+	void cacheUnigrams(DBObject phiObj){
+		Object words = phiObj.get("words");
+		if(words instanceof PackedWordList)
+			((PackedWordList)words).sortByProb();	//Sorted once here, so later sorts of the shared list are no-ops
+		prefetchedUnigrams.put(phiObj.removeField("topic"), phiObj);
+	}
+	
+	/**
+	 * keeps the given ngram document <code>{topic: id, ngrams: [...]}</code> as a prefetched topic
+	 * @param ngramObj
+	 */
+	void cacheNgrams(DBObject ngramObj){
+		Object ngrams = ngramObj.get("ngrams");
+		if(ngrams instanceof PackedNgramList)
+			((PackedNgramList)ngrams).sortBySizeAndScore();
+		prefetchedNgrams.put(ngramObj.removeField("topic"), ngramObj);
+	}
+	
+	/**
+	 * returns a copy of the given prefetched document that callers may modify: its list field is copied,
+	 * unless it is a packed list, which is sorted when prefetched and otherwise read-only
+	 */
+	private static DBObject copyOf(DBObject cached, String listField){
+		BasicDBObject copy = new BasicDBObject(cached.toMap());
+		Object list = copy.get(listField);
+		if(list instanceof List && !(list instanceof PackedList))
+			copy.put(listField, new ArrayList<Object>((List<?>)list));
+		return copy;
+	}
+	
 	/**
 	 * returns all the ngrams for the given topic
 	 * @param selectedTopic
-	 * @return
+	 * @return null if the topic is not in the model
 	 */
 	public DBObject getNgrams(Object selectedTopic){
+		DBObject cached = prefetchedNgrams.get(selectedTopic);
+		if(cached != null)
+			return copyOf(cached, "ngrams");
+		if(ngram == null)
+			return null;
+		
 		BasicDBObject query = new BasicDBObject();
 		query.put("topic", selectedTopic);
 		BasicDBObject query2 = new BasicDBObject();
@@ -200,9 +553,15 @@ public class LDAModel {
 	/**
 	 * returns all the unigrams for the given topic
 	 * @param selectedTopic
-	 * @return
+	 * @return null if the topic is not in the model
 	 */
 	public DBObject getUnigrams(Object selectedTopic){
+		DBObject cached = prefetchedUnigrams.get(selectedTopic);
+		if(cached != null)
+			return copyOf(cached, "words");
+		if(phi == null)
+			return null;
+		
 		BasicDBObject query = new BasicDBObject();
 		query.put("topic", selectedTopic);
 		BasicDBObject query2 = new BasicDBObject();
@@ -0,0 +1,505 @@
+/**
+* Copyright (c) 2011, Lawrence Livermore National Security, LLC. 
+* Produced at the Lawrence Livermore National Laboratory. 
+* Written by Kevin Lawrence, lawrence22@llnl.gov
+* Under the guidance of: 
+* David Andrzejewski, andrzejewski1@llnl.gov
+* David Buttler, buttler1@llnl.gov 
+* LLNL-CODE-521811 All rights reserved. This file is part of IRIS
+*
+* This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+* License (as published by the Free Software Foundation) version 2, dated June 1991. This program is distributed in the
+* hope that it will be useful, but WITHOUT ANY WARRANTY; without even the IMPLIED WARRANTY OF MERCHANTABILITY or
+* FITNESS FOR A PARTICULAR PURPOSE. See the terms and conditions of the GNU General Public License for more details.
+* You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+* Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA For full text see license.txt
+*
+*
+*/
+package gov.llnl.iscr.iris;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DB;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.WriteConcern;
+
+/**
+ *
+ * Bulk loader that builds the theta, phi and ngram collections read by {@link LDAModel}
+ * from the output files of a topic model trainer. Input files are streamed in chunks of lines
+ * that are parsed on a pool of worker threads and written with large batched inserts.
+ * Per-document and per-topic arrays are written pre-sorted (topics and words by prob, ngrams
+ * by score), and the indexes queried by <code>LDAModel</code> are built once loading is done.
+ * <p>Supported formats (whitespace separated; lines starting with '#' are skipped; files ending in .gz are decompressed):
+ * <ul>
+ * <li>doc-topic, in one of the layouts of {@link LDAModelLoader.DocTopicsFormat}: <code>docid topic prob [topic prob ...]</code>,
+ * the same preceded by a document index (MALLET's <code>--output-doc-topics</code> before 2.0.8, detected from its
+ * <code>#doc name topic proportion</code> header), or <code>index docid prob prob ...</code> with one prob per topic
+ * (MALLET 2.0.8 and later), which must be selected with {@link LDAModelLoader#setDocTopicsFormat(DocTopicsFormat)}</li>
+ * <li>topic-word: <code>topic word prob</code> (as written by MALLET's <code>--topic-word-weights-file</code>)</li>
+ * <li>ngram: <code>topic&lt;TAB&gt;ngram&lt;TAB&gt;score[&lt;TAB&gt;count]</code>, where the ngram words are separated by spaces</li>
+ * </ul>
+ * <p>A typical invocation sequence is:
+ * <blockquote><pre>
+ * LDAModelLoader loader = new LDAModelLoader(new MongoInstance("127.0.0.1", "topicModel"));
+ * loader.loadTheta(new File("doc-topics.txt"));
+ * loader.loadPhi(new File("topic-word-weights.txt"));
+ * loader.loadNgrams(new File("topic-ngrams.txt"));
+ * loader.ensureIndexes();
+ * loader.shutdown();
+ * </pre></blockquote>
+ *
+ */
+public class LDAModelLoader {
+	private final DB db;
+	private final ThreadPoolExecutor pool;
+	private int batchSize = 5000;
+	private int wordsPerTopic = 100;
+	private int ngramsPerTopic = 100;
+	private double minTopicProb = 0.0;
+	private boolean dropExisting = true;
+	private DocTopicsFormat docTopicsFormat = null;
+	private final List<String> loaded = new ArrayList<String>();
+
+	/**
+	 * creates a loader writing to the database of the given instance, parsing on one thread per core
+	 * @param mongoInstance object that provides the connection to the target database
+	 */
+	public LDAModelLoader(MongoInstance mongoInstance){
+		this(mongoInstance, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * creates a loader writing to the database of the given instance, parsing on the given number of threads
+	 * @param mongoInstance object that provides the connection to the target database
+	 * @param threads
+	 */
+	public LDAModelLoader(MongoInstance mongoInstance, int threads){
+		this.db = mongoInstance.getDB();
+		//Bounded queue: the reading thread parses chunks itself when workers fall behind
+		this.pool = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(threads*2), new ThreadPoolExecutor.CallerRunsPolicy());
+	}
+
+	/**
+	 * layouts of a doc-topic file
+	 */
+	public static enum DocTopicsFormat {
+		/** <code>docid topic prob [topic prob ...]</code> */
+		SPARSE,
+		/** <code>index docid topic prob [topic prob ...]</code>, MALLET before 2.0.8 */
+		INDEXED_SPARSE,
+		/** <code>index docid prob prob ...</code>, one prob per topic in topic order, MALLET 2.0.8 and later */
+		DENSE
+	}
+	
+	//-|================================
+	//-|Loading methods
+	//-|================================
+	/**
+	 * loads the theta collection from a doc-topic file; each document is written as
+	 * <code>{document: id, topics: [{topic: id, prob: value}, ...]}</code> with topics sorted by prob, descending
+	 * @param docTopics
+	 * @return the number of documents written
+	 * @throws IOException
+	 */
+	public long loadTheta(File docTopics) throws IOException{
+		final DBCollection theta = prepare("theta");
+		final AtomicLong written = new AtomicLong();
+		final DocTopicsFormat format = docTopicsFormat != null ? docTopicsFormat : detectDocTopicsFormat(docTopics);
+
+		streamChunks(docTopics, new ChunkHandler(){
+			public void handle(List<String> lines){
+				List<DBObject> batch = new ArrayList<DBObject>(lines.size());
+				for(String line : lines){
+					DBObject doc = parseDocTopics(line, format, minTopicProb);
+					if(doc != null)
+						batch.add(doc);
+				}
+				insert(theta, batch);
+				written.addAndGet(batch.size());
+			}
+		});
+		return written.get();
+	}
+
+	/**
+	 * loads the phi collection from a topic-word file; each topic is written as
+	 * <code>{topic: id, words: [{word: w, prob: value}, ...]}</code> keeping the most probable words, sorted by prob, descending
+	 * @param topicWords
+	 * @return the number of topics written
+	 * @throws IOException
+	 */
+	public long loadPhi(File topicWords) throws IOException{
+		final ConcurrentMap<Integer, TopEntries<String>> topics = new ConcurrentHashMap<Integer, TopEntries<String>>();
+
+		streamChunks(topicWords, new ChunkHandler(){
+			public void handle(List<String> lines){
+				for(String line : lines){
+					String[] fields = line.trim().split("\\s+");
+					if(fields.length < 3)
+						continue;
+
+					offer(topics, Integer.parseInt(fields[0]), fields[1], Double.parseDouble(fields[2]), wordsPerTopic);
+				}
+			}
+		});
+
+		DBCollection phi = prepare("phi");
+		List<DBObject> batch = new ArrayList<DBObject>();
+		for(Map.Entry<Integer, TopEntries<String>> entry : topics.entrySet()){
+			double[] probs = new double[entry.getValue().size()];
+			List<String> words = entry.getValue().sorted(probs);
+			List<DBObject> wordList = new ArrayList<DBObject>(words.size());
+			for(int i=0; i<words.size(); i++)
+				wordList.add(new BasicDBObject("word", words.get(i)).append("prob", probs[i]));
+
+			batch.add(new BasicDBObject("topic", entry.getKey()).append("words", wordList));
+			if(batch.size() == batchSize){
+				insert(phi, batch);
+				batch = new ArrayList<DBObject>();
+			}
+		}
+		insert(phi, batch);
+		return topics.size();
+	}
+
+	/**
+	 * loads the ngram collection from an ngram file; each topic is written as
+	 * <code>{topic: id, ngrams: [{ngram: n, size: words, score: value, count: value}, ...]}</code>
+	 * keeping the highest scoring ngrams, sorted by score, descending
+	 * @param topicNgrams
+	 * @return the number of topics written
+	 * @throws IOException
+	 */
+	public long loadNgrams(File topicNgrams) throws IOException{
+		final ConcurrentMap<Integer, TopEntries<BasicDBObject>> topics = new ConcurrentHashMap<Integer, TopEntries<BasicDBObject>>();
+
+		streamChunks(topicNgrams, new ChunkHandler(){
+			public void handle(List<String> lines){
+				for(String line : lines){
+					String[] fields = line.split("\t");
+					if(fields.length < 3)
+						continue;
+
+					String ngram = fields[1].trim();
+					double score = Double.parseDouble(fields[2]);
+					BasicDBObject obj = new BasicDBObject("ngram", ngram);
+					obj.append("size", ngram.split("\\s+").length).append("score", score);
+					if(fields.length > 3)
+						obj.append("count", Integer.parseInt(fields[3].trim()));
+
+					offer(topics, Integer.parseInt(fields[0].trim()), obj, score, ngramsPerTopic);
+				}
+			}
+		});
+
+		DBCollection ngram = prepare("ngram");
+		List<DBObject> batch = new ArrayList<DBObject>();
+		for(Map.Entry<Integer, TopEntries<BasicDBObject>> entry : topics.entrySet()){
+			batch.add(new BasicDBObject("topic", entry.getKey()).append("ngrams", entry.getValue().sorted(null)));
+			if(batch.size() == batchSize){
+				insert(ngram, batch);
+				batch = new ArrayList<DBObject>();
+			}
+		}
+		insert(ngram, batch);
+		return topics.size();
+	}
+
+	/**
+	 * builds the indexes used by the {@link LDAModel} queries on the collections loaded by this instance
+	 */
+	public void ensureIndexes(){
+		for(String name : loaded){
+			DBCollection coll = db.getCollection(name);
+			if(name.equals("theta"))
+				coll.ensureIndex(new BasicDBObject("document", 1), "document_1", true);
+			else
+				coll.ensureIndex(new BasicDBObject("topic", 1), "topic_1", true);
+		}
+	}
+
+	/**
+	 * stops the parsing threads; the loader cannot be used afterwards
+	 */
+	public void shutdown(){
+		pool.shutdown();
+	}
+
+	//-|================================
+	//-|Set methods for loader options
+	//-|================================
+	/**
+	 * sets the number of lines parsed per task and documents written per insert
+	 * @param batchSize
+	 * @return
+	 */
+	public LDAModelLoader setBatchSize(int batchSize){
+		this.batchSize = batchSize;
+		return this;
+	}
+
+	/**
+	 * sets the number of most probable words kept per topic in phi
+	 * @param wordsPerTopic
+	 * @return
+	 */
+	public LDAModelLoader setWordsPerTopic(int wordsPerTopic){
+		this.wordsPerTopic = wordsPerTopic;
+		return this;
+	}
+
+	/**
+	 * sets the number of highest scoring ngrams kept per topic
+	 * @param ngramsPerTopic
+	 * @return
+	 */
+	public LDAModelLoader setNgramsPerTopic(int ngramsPerTopic){
+		this.ngramsPerTopic = ngramsPerTopic;
+		return this;
+	}
+
+	/**
+	 * sets the probability at or below which document topics are not written to theta
+	 * @param minTopicProb
+	 * @return
+	 */
+	public LDAModelLoader setMinTopicProb(double minTopicProb){
+		this.minTopicProb = minTopicProb;
+		return this;
+	}
+
+	/**
+	 * sets the layout of the doc-topic file; by default it is detected from the file header
+	 * (see {@link LDAModelLoader#detectDocTopicsFormat(File)})
+	 * @param format
+	 * @return
+	 */
+	public LDAModelLoader setDocTopicsFormat(DocTopicsFormat format){
+		this.docTopicsFormat = format;
+		return this;
+	}
+	
+	/**
+	 * sets whether a collection is dropped before being loaded (default true)
+	 * @param dropExisting
+	 * @return
+	 */
+	public LDAModelLoader setDropExisting(boolean dropExisting){
+		this.dropExisting = dropExisting;
+		return this;
+	}
+
+	//-|================================
+	//-|Private helper methods
+	//-|================================
+	/**
+	 * returns the layout of the given doc-topic file: INDEXED_SPARSE if it starts with MALLET's
+	 * <code>#doc name topic proportion</code> header, otherwise SPARSE. MALLET's dense files have no header
+	 * and cannot be told apart from sparse ones by their lines, so DENSE is never detected.
+	 * @param docTopics
+	 * @return
+	 * @throws IOException
+	 */
+	static DocTopicsFormat detectDocTopicsFormat(File docTopics) throws IOException{
+		InputStream in = new FileInputStream(docTopics);
+		if(docTopics.getName().endsWith(".gz"))
+			in = new GZIPInputStream(in);
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+		try{
+			String line = reader.readLine();
+			if(line != null && line.startsWith("#doc") && line.contains("topic") && line.contains("proportion"))
+				return DocTopicsFormat.INDEXED_SPARSE;
+			return DocTopicsFormat.SPARSE;
+		}finally{
+			reader.close();
+		}
+	}
+	
+	/**
+	 * parses a doc-topic line of the given layout into a theta document; returns null for lines without topics
+	 * @param line
+	 * @param format
+	 * @param minTopicProb the probability at or below which topics are left out
+	 * @return
+	 */
+	static DBObject parseDocTopics(String line, DocTopicsFormat format, double minTopicProb){
+		String[] fields = line.trim().split("\\s+");
+		int start = format == DocTopicsFormat.SPARSE ? 0 : 1;
+		if(fields.length - start < (format == DocTopicsFormat.DENSE ? 2 : 3))
+			return null;
+
+		int[] topicIDs;
+		double[] probs;
+		int count = 0;
+		if(format == DocTopicsFormat.DENSE){
+			//One prob per topic, the topic ID being its position
+			topicIDs = new int[fields.length - start - 1];
+			probs = new double[topicIDs.length];
+			for(int i=start+1; i<fields.length; i++){
+				double prob = Double.parseDouble(fields[i]);
+				if(prob > minTopicProb){
+					topicIDs[count] = i - start - 1;
+					probs[count++] = prob;
+				}
+			}
+		}
+		else{
+			int pairs = (fields.length - start - 1) / 2;
+			topicIDs = new int[pairs];
+			probs = new double[pairs];
+			for(int i=start+1; i+1<fields.length; i+=2){
+				double prob = Double.parseDouble(fields[i+1]);
+				if(prob > minTopicProb){
+					topicIDs[count] = Integer.parseInt(fields[i]);
+					probs[count++] = prob;
+				}
+			}
+		}
+
+		TopEntries<Integer> ranked = new TopEntries<Integer>(count);
+		for(int i=0; i<count; i++)
+			ranked.offer(topicIDs[i], probs[i]);
+
+		double[] sortedProbs = new double[count];
+		List<Integer> sortedTopics = ranked.sorted(sortedProbs);
+		List<DBObject> topics = new ArrayList<DBObject>(count);
+		for(int i=0; i<count; i++)
+			topics.add(new BasicDBObject("topic", sortedTopics.get(i)).append("prob", sortedProbs[i]));
+
+		return new BasicDBObject("document", fields[start]).append("topics", topics);
+	}
+
+	private static <T> void offer(ConcurrentMap<Integer, TopEntries<T>> topics, Integer topicID, T item, double score, int limit){
+		TopEntries<T> top = topics.get(topicID);
+		if(top == null){
+			TopEntries<T> created = new TopEntries<T>(limit);
+			top = topics.putIfAbsent(topicID, created);
+			if(top == null)
+				top = created;
+		}
+		synchronized(top){
+			top.offer(item, score);
+		}
+	}
+
+	private DBCollection prepare(String name){
+		DBCollection coll = db.getCollection(name);
+		if(dropExisting)
+			coll.drop();
+		if(!loaded.contains(name))
+			loaded.add(name);
+
+		return coll;
+	}
+
+	private void insert(DBCollection coll, List<DBObject> batch){
+		if(!batch.isEmpty())
+			coll.insert(batch, WriteConcern.SAFE);	//Waits for the server to acknowledge, so failed writes surface as exceptions
+	}
+
+	/**
+	 * reads the given file and hands chunks of non-comment lines to the pool; returns once every chunk has been handled
+	 */
+	private void streamChunks(File file, final ChunkHandler handler) throws IOException{
+		InputStream in = new FileInputStream(file);
+		if(file.getName().endsWith(".gz"))
+			in = new GZIPInputStream(in, 1 << 16);
+
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"), 1 << 16);
+		List<Future<?>> pending = new ArrayList<Future<?>>();
+		try{
+			List<String> chunk = new ArrayList<String>(batchSize);
+			String line;
+			while((line = reader.readLine()) != null){
+				if(line.length() == 0 || line.charAt(0) == '#')
+					continue;
+
+				chunk.add(line);
+				if(chunk.size() == batchSize){
+					pending.add(submit(handler, chunk));
+					chunk = new ArrayList<String>(batchSize);
+				}
+				if(pending.size() > 1024)
+					awaitDone(pending);
+			}
+			pending.add(submit(handler, chunk));
+			awaitDone(pending);
+		}finally{
+			reader.close();
+		}
+	}
+
+	private Future<?> submit(final ChunkHandler handler, final List<String> chunk){
+		return pool.submit(new Runnable(){
+			public void run(){
+				handler.handle(chunk);
+			}
+		});
+	}
+
+	private void awaitDone(List<Future<?>> pending) throws IOException{
+		try{
+			for(Future<?> future : pending)
+				future.get();
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while loading model: "+e);
+		}catch(ExecutionException e){
+			throw new IOException("Could NOT load model chunk: "+e.getCause());
+		}finally{
+			pending.clear();
+		}
+	}
+
+	/**
+	 * Callback used to process a chunk of lines on a worker thread
+	 */
+	private static interface ChunkHandler{
+		void handle(List<String> lines);
+	}
+
+	/**
+	 * loads a model from the command line:
+	 * <code>LDAModelLoader host dbname doc-topics topic-words [ngrams]</code>
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException{
+		if(args.length < 4){
+			System.err.println("Usage: LDAModelLoader host dbname doc-topics topic-words [ngrams]");
+			return;
+		}
+		LDAModelLoader loader = new LDAModelLoader(new MongoInstance(args[0], args[1]));
+		long start = System.currentTimeMillis();
+		System.out.println("theta: "+loader.loadTheta(new File(args[2]))+" documents");
+		System.out.println("phi: "+loader.loadPhi(new File(args[3]))+" topics");
+		if(args.length > 4)
+			System.out.println("ngram: "+loader.loadNgrams(new File(args[4]))+" topics");
+
+		loader.ensureIndexes();
+		loader.shutdown();
+		System.out.println("Loaded in "+(System.currentTimeMillis()-start)/1000+"s");
+	}
+}
@@ -0,0 +1,236 @@
+/**
+* Copyright (c) 2011, Lawrence Livermore National Security, LLC. 
+* Produced at the Lawrence Livermore National Laboratory. 
+* Written by Kevin Lawrence, lawrence22@llnl.gov
+* Under the guidance of: 
+* David Andrzejewski, andrzejewski1@llnl.gov
+* David Buttler, buttler1@llnl.gov 
+* LLNL-CODE-521811 All rights reserved. This file is part of IRIS
+*
+* This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+* License (as published by the Free Software Foundation) version 2, dated June 1991. This program is distributed in the
+* hope that it will be useful, but WITHOUT ANY WARRANTY; without even the IMPLIED WARRANTY OF MERCHANTABILITY or
+* FITNESS FOR A PARTICULAR PURPOSE. See the terms and conditions of the GNU General Public License for more details.
+* You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+* Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA For full text see license.txt
+*
+*
+*/
+package gov.llnl.iscr.iris;
+
+import com.mongodb.DBCallback;
+import com.mongodb.DBCallbackFactory;
+import com.mongodb.DBCollection;
+import com.mongodb.DefaultDBCallback;
+
+/**
+ *
+ * Decoding callback for the large model collections (<code>phi</code> and <code>ngram</code>).
+ * The default driver callback builds a <code>BasicDBObject</code> for every word or ngram entry
+ * of a topic document, although {@link LDAHandler} only reads the first few entries once sorted.
+ * This callback decodes the top-level entry array of those documents straight into the parallel
+ * primitive arrays of a {@link PackedWordList} or {@link PackedNgramList}; every other field, and
+ * every other collection, is decoded by {@link DefaultDBCallback} as before.
+ * <p>The callback is installed per connection through the driver options:
+ * <blockquote><pre>
+ * MongoURI uri = new MongoURI("mongodb://127.0.0.1");
+ * uri.getOptions().dbCallbackFactory = ModelDBCallback.FACTORY;
+ * </pre></blockquote>
+ * {@link MongoInstance} does this for every connection it creates. To decode phi probabilities with a
+ * {@link ProbQuantizer} encoding, install the factory for that encoding instead:
+ * <blockquote><pre>
+ * uri.getOptions().dbCallbackFactory = ModelDBCallback.factory(ProbQuantizer.Mode.LOG8);
+ * </pre></blockquote>
+ *
+ */
+public class ModelDBCallback extends DefaultDBCallback {
+	public static final DBCallbackFactory FACTORY = new ModelDBCallbackFactory(ProbQuantizer.Mode.NONE);
+
+	private final String packedField;
+	private final boolean ngrams;
+	private final ProbQuantizer.Mode quantization;
+	private int depth = 0;
+	private boolean packing = false;
+	private PackedWordList wordList = null;
+	private PackedNgramList ngramList = null;
+
+	/**
+	 * creates a callback that packs the entries of the given top-level array field
+	 * @param collection the collection documents are being decoded for
+	 * @param packedField name of the top-level array to pack ("words" for phi, "ngrams" for ngram)
+	 */
+	public ModelDBCallback(DBCollection collection, String packedField){
+		this(collection, packedField, ProbQuantizer.Mode.NONE);
+	}
+
+	/**
+	 * creates a callback that packs the entries of the given top-level array field and encodes packed word
+	 * probabilities with the given mode; {@link ProbQuantizer.Mode#NONE} keeps full precision
+	 * @param collection the collection documents are being decoded for
+	 * @param packedField name of the top-level array to pack ("words" for phi, "ngrams" for ngram)
+	 * @param quantization
+	 */
+	public ModelDBCallback(DBCollection collection, String packedField, ProbQuantizer.Mode quantization){
+		super(collection);
+		this.packedField = packedField;
+		this.ngrams = packedField.equals("ngrams");
+		this.quantization = quantization;
+	}
+
+	/**
+	 * returns a callback factory, like {@link ModelDBCallback#FACTORY}, whose callbacks encode the word probabilities
+	 * of phi documents with the given mode
+	 * @param quantization
+	 * @return
+	 */
+	public static DBCallbackFactory factory(ProbQuantizer.Mode quantization){
+		return new ModelDBCallbackFactory(quantization);
+	}
+	
+	//-|=============================================
+	//-|Tracking of document depth and packed arrays
+	//-|=============================================
+	public void objectStart(boolean array){
+		depth = 1;
+		super.objectStart(array);
+	}
+
+	public void objectStart(boolean array, String name){
+		if(packing){
+			//Each element of the packed array starts a new entry
+			if(depth == 2){
+				if(ngrams)
+					ngramList.addEntry();
+				else
+					wordList.add(null, 0.0);
+			}
+			++depth;
+			return;
+		}
+
+		if(array && depth == 1 && packedField.equals(name)){
+			packing = true;
+			if(ngrams)
+				ngramList = new PackedNgramList();
+			else
+				wordList = new PackedWordList();
+			++depth;
+			return;
+		}
+
+		++depth;
+		super.objectStart(array, name);
+	}
+
+	public Object objectDone(){
+		--depth;
+		if(packing){
+			if(depth > 1)
+				return null;
+
+			packing = false;
+			if(!ngrams)
+				wordList.quantize(quantization);
+			Object packed = ngrams ? ngramList : wordList;
+			wordList = null;
+			ngramList = null;
+			_put(packedField, packed);
+			return packed;
+		}
+		return super.objectDone();
+	}
+
+	public void reset(){
+		depth = 0;
+		packing = false;
+		wordList = null;
+		ngramList = null;
+		super.reset();
+	}
+
+	//-|=============================================
+	//-|Values of packed entries
+	//-|=============================================
+	public void gotString(String name, String value){
+		if(!packing){
+			super.gotString(name, value);
+			return;
+		}
+		if(depth != 3)
+			return;
+
+		if(ngrams){
+			if(name.equals("ngram"))
+				ngramList.setLastNgram(value);
+		}
+		else if(name.equals("word"))
+			wordList.setLastWord(value);
+	}
+
+	public void gotDouble(String name, double value){
+		if(!packing){
+			super.gotDouble(name, value);
+			return;
+		}
+		setNumber(name, value);
+	}
+
+	public void gotInt(String name, int value){
+		if(!packing){
+			super.gotInt(name, value);
+			return;
+		}
+		setNumber(name, value);
+	}
+
+	public void gotLong(String name, long value){
+		if(!packing){
+			super.gotLong(name, value);
+			return;
+		}
+		setNumber(name, value);
+	}
+
+	/**
+	 * private helper that stores a numeric value of the current packed entry
+	 * @param name field name within the entry
+	 * @param value
+	 */
+	private void setNumber(String name, double value){
+		if(depth != 3)
+			return;
+
+		if(ngrams){
+			if(name.equals("score"))
+				ngramList.setLastScore(value);
+			else if(name.equals("size"))
+				ngramList.setLastSize((int)value);
+			else if(name.equals("count"))
+				ngramList.setLastCount((int)value);
+		}
+		else if(name.equals("prob"))
+			wordList.setLastProb(value);
+	}
+
+	/**
+	 * Factory that hands out a packing callback for the phi and ngram collections
+	 * and the driver's default callback for all other collections
+	 */
+	private static class ModelDBCallbackFactory implements DBCallbackFactory{
+		private final ProbQuantizer.Mode quantization;
+		
+		ModelDBCallbackFactory(ProbQuantizer.Mode quantization){
+			this.quantization = quantization;
+		}
+		
+		public DBCallback create(DBCollection collection){
+			if(collection != null){
+				if(collection.getName().equals("phi"))
+					return new ModelDBCallback(collection, "words", quantization);
+				if(collection.getName().equals("ngram"))
+					return new ModelDBCallback(collection, "ngrams");
+			}
+			return new DefaultDBCallback(collection);
+		}
+	}
+}
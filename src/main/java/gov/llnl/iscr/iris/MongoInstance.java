@@ -62,6 +62,9 @@ import com.mongodb.ServerAddress;
  * MongoInstance wraps a single instance of Mongo and uses
  * Mongo.Holder as a static place to hold that instance. 
  * 
+ * Connections are created with {@link ModelDBCallback#FACTORY} so that the large
+ * topic arrays of the phi and ngram collections are decoded into packed lists.
+ * 
  * MongoInstance also wraps a DB and DBCollection instance.
  * You may switch both databases and collections once connected to server.
  * 
@@ -160,6 +163,7 @@ public class MongoInstance{
 		 if ( mongo == null ) { 
 			 try { 
 				 MongoURI mongoURI = new MongoURI(host);
+				 mongoURI.getOptions().dbCallbackFactory = ModelDBCallback.FACTORY;
 				 mongo = holder.connect(mongoURI);
 			 } catch ( UnknownHostException e ) { 
 				 System.err.println("Database host cannot be resolved: "+ e); 
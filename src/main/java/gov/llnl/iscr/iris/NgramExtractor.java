@@ -0,0 +1,551 @@
+/**
+* Copyright (c) 2011, Lawrence Livermore National Security, LLC. 
+* Produced at the Lawrence Livermore National Laboratory. 
+* Written by Kevin Lawrence, lawrence22@llnl.gov
+* Under the guidance of: 
+* David Andrzejewski, andrzejewski1@llnl.gov
+* David Buttler, buttler1@llnl.gov 
+* LLNL-CODE-521811 All rights reserved. This file is part of IRIS
+*
+* This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+* License (as published by the Free Software Foundation) version 2, dated June 1991. This program is distributed in the
+* hope that it will be useful, but WITHOUT ANY WARRANTY; without even the IMPLIED WARRANTY OF MERCHANTABILITY or
+* FITNESS FOR A PARTICULAR PURPOSE. See the terms and conditions of the GNU General Public License for more details.
+* You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+* Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA For full text see license.txt
+*
+*
+*/
+package gov.llnl.iscr.iris;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.zip.GZIPInputStream;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.WriteConcern;
+
+/**
+ * 
+ * Extracts topic-conditioned bigrams and trigrams from a corpus annotated with per-token topic assignments
+ * and writes the ngram collection read by {@link LDAModel#getNgrams(Object)} and {@link LDAHandler#setNgrams(Object)}.
+ * <p>The input is a Gibbs sampling state file as written by MALLET's <code>--output-state</code>
+ * (optionally gzipped), one token per line:
+ * <blockquote><pre>
+ * #doc source pos typeindex type topic
+ * 0 NA 0 12 environmental 134
+ * 0 NA 1 40 policy 134
+ * </pre></blockquote>
+ * A bigram (trigram) is counted for a topic when two (three) consecutive tokens of a document are all assigned to that topic.
+ * Counts are kept in a primitive open-addressing hash keyed by (topic, word ids); when the table reaches its entry
+ * limit it is sorted and spilled to a temporary run file, and the runs are merged once the input is exhausted,
+ * so memory stays bounded however large the corpus is.
+ * <p>Each ngram is scored by its count-weighted pointwise mutual information within the topic,
+ * <code>c * log(c * N<sub>t</sub><sup>n-1</sup> / (c<sub>1</sub> ... c<sub>n</sub>))</code>, where N<sub>t</sub> is the number
+ * of tokens assigned to the topic and c<sub>i</sub> the topic counts of the ngram's words. Only the best scoring
+ * trigrams and bigrams of each topic are kept and written, trigrams first, each by score descending.
+ * 
+ */
+public class NgramExtractor {
+	private static final long NO_WORD = 0xffffffffL;
+	private int maxEntries = 1 << 20;
+	private int minCount = 5;
+	private int ngramsPerTopic = 50;
+	private File tempDir = new File(System.getProperty("java.io.tmpdir"));
+	
+	/**
+	 * sets the number of distinct ngrams held in memory before the counts are spilled to disk, 1M by default.
+	 * The table takes 20 bytes a slot, with at least 1.43 slots an entry rounded up to a power of two, and a spill
+	 * copies the entries out at another 20 bytes each, so memory peaks at 50 to 80 bytes an entry: about 60MB for the default.
+	 * @param maxEntries
+	 * @return
+	 */
+	public NgramExtractor setMaxEntries(int maxEntries){
+		this.maxEntries = maxEntries;
+		return this;
+	}
+	
+	/**
+	 * sets the minimum count an ngram needs within a topic to be scored
+	 * @param minCount
+	 * @return
+	 */
+	public NgramExtractor setMinCount(int minCount){
+		this.minCount = minCount;
+		return this;
+	}
+	
+	/**
+	 * sets the number of trigrams, and of bigrams, kept per topic
+	 * @param ngramsPerTopic
+	 * @return
+	 */
+	public NgramExtractor setNgramsPerTopic(int ngramsPerTopic){
+		this.ngramsPerTopic = ngramsPerTopic;
+		return this;
+	}
+	
+	/**
+	 * sets the directory where spilled runs are written
+	 * @param tempDir
+	 * @return
+	 */
+	public NgramExtractor setTempDir(File tempDir){
+		this.tempDir = tempDir;
+		return this;
+	}
+	
+	/**
+	 * returns the selected ngrams of every topic found in the given state file
+	 * @param state
+	 * @return map of topic IDs to ngram objects <code>{ngram: n, size: words, score: value, count: value}</code>
+	 * @throws IOException
+	 */
+	public Map<Integer, List<BasicDBObject>> extract(File state) throws IOException{
+		InputStream in = new FileInputStream(state);
+		if(state.getName().endsWith(".gz"))
+			in = new GZIPInputStream(in, 1 << 16);
+		
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"), 1 << 16);
+		try{
+			return extract(reader);
+		}finally{
+			reader.close();
+		}
+	}
+	
+	/**
+	 * returns the selected ngrams of every topic found in the given state
+	 * @param state reader positioned at the start of a sampling state
+	 * @return map of topic IDs to ngram objects <code>{ngram: n, size: words, score: value, count: value}</code>
+	 * @throws IOException
+	 */
+	public Map<Integer, List<BasicDBObject>> extract(BufferedReader state) throws IOException{
+		final List<String> vocabulary = new ArrayList<String>();
+		final NgramTable unigrams = new NgramTable(1 << 16);
+		final long[][] topicTokens = { new long[64] };
+		NgramTable ngrams = new NgramTable(Math.min(maxEntries, 1 << 20));
+		List<File> runs = new ArrayList<File>();
+		
+		//-|=======================================
+		//-|1. Stream tokens, counting ngrams whose
+		//-|	words share a topic
+		//-|=======================================
+		try{
+			String prevDoc = null;
+			int prevPos = -2, prev2Pos = -2;
+			int prevWord = -1, prev2Word = -1;
+			int prevTopic = -1, prev2Topic = -1;
+			String line;
+			while((line = state.readLine()) != null){
+				if(line.length() == 0 || line.charAt(0) == '#')
+					continue;
+				
+				String[] fields = line.split(" ");
+				if(fields.length < 6)
+					continue;
+				
+				String doc = fields[0];
+				int pos = Integer.parseInt(fields[2]);
+				int word = Integer.parseInt(fields[3]);
+				int topic = Integer.parseInt(fields[5]);
+				while(vocabulary.size() <= word)
+					vocabulary.add(null);
+				if(vocabulary.get(word) == null)
+					vocabulary.set(word, fields[4]);
+				
+				if(topic >= topicTokens[0].length){
+					long[] grown = new long[Math.max(topicTokens[0].length*2, topic+1)];
+					System.arraycopy(topicTokens[0], 0, grown, 0, topicTokens[0].length);
+					topicTokens[0] = grown;
+				}
+				++topicTokens[0][topic];
+				unigrams.increment(key1(topic, word), 0L, 1);
+				
+				if(!doc.equals(prevDoc)){
+					prevPos = -2;
+					prev2Pos = -2;
+				}
+				if(prevPos == pos-1 && prevTopic == topic){
+					ngrams.increment(key1(topic, prevWord), key2(word, NO_WORD), 1);
+					if(prev2Pos == pos-2 && prev2Topic == topic)
+						ngrams.increment(key1(topic, prev2Word), key2(prevWord, word), 1);
+				}
+				if(ngrams.size() >= maxEntries){
+					runs.add(ngrams.spill(tempDir));
+					ngrams.clear();
+				}
+				
+				prevDoc = doc;
+				prev2Pos = prevPos; prev2Word = prevWord; prev2Topic = prevTopic;
+				prevPos = pos; prevWord = word; prevTopic = topic;
+			}
+			
+			//-|=======================================
+			//-|2. Score the (merged) counts and keep
+			//-|	the best ngrams of each topic
+			//-|=======================================
+			final Map<Integer, TopEntries<BasicDBObject>> trigrams = new TreeMap<Integer, TopEntries<BasicDBObject>>();
+			final Map<Integer, TopEntries<BasicDBObject>> bigrams = new TreeMap<Integer, TopEntries<BasicDBObject>>();
+			CountHandler scorer = new CountHandler(){
+				public void handle(long k1, long k2, int count){
+					if(count < minCount)
+						return;
+					
+					int topic = (int)(k1 >>> 32);
+					int w1 = (int)k1;
+					int w2 = (int)(k2 >>> 32);
+					boolean trigram = (k2 & NO_WORD) != NO_WORD;
+					int w3 = (int)k2;
+					
+					double n = topicTokens[0][topic];
+					double expected = unigrams.get(key1(topic, w1), 0L) * (double)unigrams.get(key1(topic, w2), 0L) / n;
+					String ngram = vocabulary.get(w1)+" "+vocabulary.get(w2);
+					if(trigram){
+						expected = expected * unigrams.get(key1(topic, w3), 0L) / n;
+						ngram = ngram+" "+vocabulary.get(w3);
+					}
+					double score = count * Math.log(count / expected);
+					
+					Map<Integer, TopEntries<BasicDBObject>> selected = trigram ? trigrams : bigrams;
+					TopEntries<BasicDBObject> top = selected.get(topic);
+					if(top == null){
+						top = new TopEntries<BasicDBObject>(ngramsPerTopic);
+						selected.put(topic, top);
+					}
+					if(score > top.minScore()){
+						BasicDBObject obj = new BasicDBObject("ngram", ngram);
+						obj.append("size", trigram ? 3 : 2).append("score", score).append("count", count);
+						top.offer(obj, score);
+					}
+				}
+			};
+			
+			if(runs.isEmpty())
+				ngrams.forEach(scorer);
+			else{
+				runs.add(ngrams.spill(tempDir));
+				ngrams.clear();
+				merge(runs, scorer);
+			}
+			
+			Map<Integer, List<BasicDBObject>> result = new LinkedHashMap<Integer, List<BasicDBObject>>();
+			for(int topic=0; topic<topicTokens[0].length; topic++){
+				List<BasicDBObject> topicNgrams = new ArrayList<BasicDBObject>();
+				if(trigrams.containsKey(topic))
+					topicNgrams.addAll(trigrams.get(topic).sorted(null));
+				if(bigrams.containsKey(topic))
+					topicNgrams.addAll(bigrams.get(topic).sorted(null));
+				if(!topicNgrams.isEmpty())
+					result.put(topic, topicNgrams);
+			}
+			return result;
+		}finally{
+			for(File run : runs)
+				run.delete();
+		}
+	}
+	
+	/**
+	 * replaces the contents of the given ngram collection with the given ngrams,
+	 * as <code>{topic: id, ngrams: [...]}</code>, and indexes it for the LDAModel queries
+	 * @param ngram
+	 * @param topicNgrams
+	 */
+	public static void write(DBCollection ngram, Map<Integer, List<BasicDBObject>> topicNgrams){
+		ngram.drop();
+		List<DBObject> batch = new ArrayList<DBObject>();
+		for(Map.Entry<Integer, List<BasicDBObject>> entry : topicNgrams.entrySet())
+			batch.add(new BasicDBObject("topic", entry.getKey()).append("ngrams", entry.getValue()));
+		
+		if(!batch.isEmpty())
+			ngram.insert(batch, WriteConcern.SAFE);
+		ngram.ensureIndex(new BasicDBObject("topic", 1), "topic_1", true);
+	}
+	
+	//-|================================
+	//-|Private helper methods
+	//-|================================
+	private static long key1(int topic, int word){
+		return ((long)topic << 32) | (word & NO_WORD);
+	}
+	
+	private static long key2(long word2, long word3){
+		return ((word2 & NO_WORD) << 32) | (word3 & NO_WORD);
+	}
+	
+	/**
+	 * k-way merge of the sorted runs, summing the counts of equal keys
+	 */
+	private static void merge(List<File> runs, CountHandler handler) throws IOException{
+		PriorityQueue<RunReader> queue = new PriorityQueue<RunReader>(runs.size(), new Comparator<RunReader>(){
+			public int compare(RunReader r1, RunReader r2){
+				return compareKeys(r1.k1, r1.k2, r2.k1, r2.k2);
+			}
+		});
+		List<RunReader> readers = new ArrayList<RunReader>();
+		try{
+			for(File run : runs){
+				RunReader reader = new RunReader(run);
+				readers.add(reader);
+				if(reader.next())
+					queue.add(reader);
+			}
+			
+			while(!queue.isEmpty()){
+				RunReader reader = queue.poll();
+				long k1 = reader.k1, k2 = reader.k2;
+				int count = reader.count;
+				if(reader.next())
+					queue.add(reader);
+				
+				while(!queue.isEmpty() && queue.peek().k1 == k1 && queue.peek().k2 == k2){
+					RunReader same = queue.poll();
+					count += same.count;
+					if(same.next())
+						queue.add(same);
+				}
+				handler.handle(k1, k2, count);
+			}
+		}finally{
+			for(RunReader reader : readers)
+				reader.close();
+		}
+	}
+	
+	private static int compareKeys(long a1, long a2, long b1, long b2){
+		if(a1 != b1)
+			return a1 < b1 ? -1 : 1;
+		if(a2 != b2)
+			return a2 < b2 ? -1 : 1;
+		return 0;
+	}
+	
+	/**
+	 * Callback receiving an ngram key and its count
+	 */
+	private static interface CountHandler{
+		void handle(long k1, long k2, int count);
+	}
+	
+	/**
+	 * Sequential reader over a spilled run of (k1, k2, count) records sorted by key
+	 */
+	private static class RunReader{
+		private final DataInputStream in;
+		long k1, k2;
+		int count;
+		
+		RunReader(File run) throws IOException{
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(run), 1 << 16));
+		}
+		
+		boolean next() throws IOException{
+			try{
+				k1 = in.readLong();
+				k2 = in.readLong();
+				count = in.readInt();
+				return true;
+			}catch(EOFException e){
+				return false;
+			}
+		}
+		
+		void close() throws IOException{
+			in.close();
+		}
+	}
+	
+	/**
+	 * Open-addressing hash of (k1, k2) keys to counts held in parallel primitive arrays
+	 */
+	static class NgramTable{
+		private long[] keys1;
+		private long[] keys2;
+		private int[] counts;
+		private int size = 0;
+		private int mask;
+		
+		NgramTable(int capacity){
+			int c = Integer.highestOneBit(Math.max(16, capacity-1)) << 1;
+			allocate(c);
+		}
+		
+		int size(){
+			return size;
+		}
+		
+		void increment(long k1, long k2, int delta){
+			int slot = find(k1, k2);
+			if(counts[slot] == 0){
+				keys1[slot] = k1;
+				keys2[slot] = k2;
+				if(++size > counts.length * 0.7){
+					counts[slot] = delta;
+					rehash(counts.length << 1);
+					return;
+				}
+			}
+			counts[slot] += delta;
+		}
+		
+		int get(long k1, long k2){
+			return counts[find(k1, k2)];
+		}
+		
+		/**
+		 * empties the table in place, keeping its capacity; keys of empty slots are never read, so only the counts are reset
+		 */
+		void clear(){
+			Arrays.fill(counts, 0);
+			size = 0;
+		}
+		
+		void forEach(CountHandler handler){
+			for(int i=0; i<counts.length; i++){
+				if(counts[i] != 0)
+					handler.handle(keys1[i], keys2[i], counts[i]);
+			}
+		}
+		
+		/**
+		 * writes the entries, sorted by key, to a new temporary file
+		 */
+		File spill(File dir) throws IOException{
+			long[] k1 = new long[size];
+			long[] k2 = new long[size];
+			int[] c = new int[size];
+			int n = 0;
+			for(int i=0; i<counts.length; i++){
+				if(counts[i] != 0){
+					k1[n] = keys1[i];
+					k2[n] = keys2[i];
+					c[n++] = counts[i];
+				}
+			}
+			sort(k1, k2, c, 0, n-1);
+			
+			File run = File.createTempFile("ngrams", ".run", dir);
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), 1 << 16));
+			try{
+				for(int i=0; i<n; i++){
+					out.writeLong(k1[i]);
+					out.writeLong(k2[i]);
+					out.writeInt(c[i]);
+				}
+			}finally{
+				out.close();
+			}
+			return run;
+		}
+		
+		private int find(long k1, long k2){
+			int slot = hash(k1, k2) & mask;
+			while(counts[slot] != 0 && (keys1[slot] != k1 || keys2[slot] != k2))
+				slot = (slot + 1) & mask;
+			
+			return slot;
+		}
+		
+		private static int hash(long k1, long k2){
+			long h = k1 * 0x9E3779B97F4A7C15L + k2;
+			h ^= h >>> 33;
+			h *= 0xff51afd7ed558ccdL;
+			h ^= h >>> 33;
+			return (int)h;
+		}
+		
+		private void allocate(int capacity){
+			keys1 = new long[capacity];
+			keys2 = new long[capacity];
+			counts = new int[capacity];
+			mask = capacity - 1;
+		}
+		
+		private void rehash(int capacity){
+			long[] oldKeys1 = keys1, oldKeys2 = keys2;
+			int[] oldCounts = counts;
+			allocate(capacity);
+			for(int i=0; i<oldCounts.length; i++){
+				if(oldCounts[i] != 0){
+					int slot = find(oldKeys1[i], oldKeys2[i]);
+					keys1[slot] = oldKeys1[i];
+					keys2[slot] = oldKeys2[i];
+					counts[slot] = oldCounts[i];
+				}
+			}
+		}
+		
+		/**
+		 * quicksort of the parallel arrays by (k1, k2)
+		 */
+		private static void sort(long[] k1, long[] k2, int[] c, int lo, int hi){
+			while(lo < hi){
+				int mid = (lo + hi) >>> 1;
+				long p1 = k1[mid], p2 = k2[mid];
+				int i = lo, j = hi;
+				while(i <= j){
+					while(compareKeys(k1[i], k2[i], p1, p2) < 0) i++;
+					while(compareKeys(k1[j], k2[j], p1, p2) > 0) j--;
+					if(i <= j){
+						long t1 = k1[i]; k1[i] = k1[j]; k1[j] = t1;
+						long t2 = k2[i]; k2[i] = k2[j]; k2[j] = t2;
+						int tc = c[i]; c[i] = c[j]; c[j] = tc;
+						i++;
+						j--;
+					}
+				}
+				//Recurse into the smaller side to bound the stack depth
+				if(j - lo < hi - i){
+					sort(k1, k2, c, lo, j);
+					lo = i;
+				}else{
+					sort(k1, k2, c, i, hi);
+					hi = j;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * extracts and writes the ngram collection from the command line:
+	 * <code>NgramExtractor host dbname state-file [ngramsPerTopic]</code>
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException{
+		if(args.length < 3){
+			System.err.println("Usage: NgramExtractor host dbname state-file [ngramsPerTopic]");
+			return;
+		}
+		NgramExtractor extractor = new NgramExtractor();
+		if(args.length > 3)
+			extractor.setNgramsPerTopic(Integer.parseInt(args[3]));
+		
+		long start = System.currentTimeMillis();
+		Map<Integer, List<BasicDBObject>> topicNgrams = extractor.extract(new File(args[2]));
+		MongoInstance mongo = new MongoInstance(args[0], args[1]);
+		write(mongo.useCollection("ngram"), topicNgrams);
+		System.out.println("ngram: "+topicNgrams.size()+" topics in "+(System.currentTimeMillis()-start)/1000+"s");
+	}
+}
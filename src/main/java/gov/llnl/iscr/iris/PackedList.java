@@ -0,0 +1,143 @@
+/**
+* Copyright (c) 2011, Lawrence Livermore National Security, LLC. 
+* Produced at the Lawrence Livermore National Laboratory. 
+* Written by Kevin Lawrence, lawrence22@llnl.gov
+* Under the guidance of: 
+* David Andrzejewski, andrzejewski1@llnl.gov
+* David Buttler, buttler1@llnl.gov 
+* LLNL-CODE-521811 All rights reserved. This file is part of IRIS
+*
+* This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+* License (as published by the Free Software Foundation) version 2, dated June 1991. This program is distributed in the
+* hope that it will be useful, but WITHOUT ANY WARRANTY; without even the IMPLIED WARRANTY OF MERCHANTABILITY or
+* FITNESS FOR A PARTICULAR PURPOSE. See the terms and conditions of the GNU General Public License for more details.
+* You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+* Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA For full text see license.txt
+*
+*
+*/
+package gov.llnl.iscr.iris;
+
+import java.util.AbstractList;
+
+import com.mongodb.BasicDBObject;
+
+/**
+ *
+ * Base class for the read-only lists produced by {@link ModelDBCallback}. Entries of a model
+ * array are held in parallel primitive arrays and a {@link BasicDBObject} is only built when
+ * an element is requested through {@link PackedList#get(int)}, so callers that read a handful
+ * of entries out of a large array do not pay for the rest of it.
+ *
+ * Subclasses define the field layout and the sort order; this class provides a stable
+ * sort over the primitive arrays that yields the same order as <code>Collections.sort</code>.
+ *
+ */
+public abstract class PackedList extends AbstractList<BasicDBObject> {
+	protected int size = 0;
+	private boolean sorted = false;
+
+	/**
+	 * returns the number of entries in the list
+	 */
+	public int size(){
+		return size;
+	}
+
+	/**
+	 * builds and returns a <code>BasicDBObject</code> for the entry at the given index
+	 * @param index
+	 * @return
+	 */
+	public BasicDBObject get(int index){
+		if(index < 0 || index >= size)
+			throw new IndexOutOfBoundsException("Index: "+index+", Size: "+size);
+
+		return materialize(index);
+	}
+
+	/**
+	 * sorts the entries of the list in place using the order defined by {@link PackedList#compareEntries(int, int)}.
+	 * Lists that are already in order (such as those written by a loader that pre-sorts its arrays) are only scanned.
+	 */
+	public synchronized void sort(){
+		if(sorted)
+			return;
+
+		boolean inOrder = true;
+		for(int i=1; i<size && inOrder; i++){
+			if(compareEntries(i-1, i) > 0)
+				inOrder = false;
+		}
+
+		if(!inOrder){
+			int[] order = new int[size];
+			for(int i=0; i<size; i++)
+				order[i] = i;
+
+			mergeSort(order, new int[size], 0, size);
+			permute(order);
+			++modCount;
+		}
+		sorted = true;
+	}
+
+	/**
+	 * returns the amount of capacity to grow to when holding the given number of entries
+	 * @param capacity the current capacity
+	 * @param required the number of entries that must fit
+	 * @return
+	 */
+	protected static int grow(int capacity, int required){
+		int newCapacity = capacity < 8 ? 8 : capacity + (capacity >> 1);
+		return newCapacity < required ? required : newCapacity;
+	}
+
+	/**
+	 * returns a negative value if the entry at i comes before the entry at j, a positive value if after, otherwise zero
+	 * @param i
+	 * @param j
+	 * @return
+	 */
+	protected abstract int compareEntries(int i, int j);
+
+	/**
+	 * rearranges the backing arrays so that position k holds the entry previously at order[k]
+	 * @param order
+	 */
+	protected abstract void permute(int[] order);
+
+	/**
+	 * builds the object representation of the entry at the given index
+	 * @param index
+	 * @return
+	 */
+	protected abstract BasicDBObject materialize(int index);
+
+	/**
+	 * stable top-down merge sort of entry indices
+	 */
+	private void mergeSort(int[] order, int[] buffer, int from, int to){
+		if(to - from < 2)
+			return;
+
+		int mid = (from + to) >>> 1;
+		mergeSort(order, buffer, from, mid);
+		mergeSort(order, buffer, mid, to);
+		if(compareEntries(order[mid-1], order[mid]) <= 0)
+			return;
+
+		System.arraycopy(order, from, buffer, from, to - from);
+		int left = from, right = mid, out = from;
+		while(left < mid && right < to){
+			if(compareEntries(buffer[right], buffer[left]) < 0)
+				order[out++] = buffer[right++];
+			else
+				order[out++] = buffer[left++];
+		}
+		while(left < mid)
+			order[out++] = buffer[left++];
+		while(right < to)
+			order[out++] = buffer[right++];
+	}
+}
@@ -0,0 +1,153 @@
+/**
+* Copyright (c) 2011, Lawrence Livermore National Security, LLC. 
+* Produced at the Lawrence Livermore National Laboratory. 
+* Written by Kevin Lawrence, lawrence22@llnl.gov
+* Under the guidance of: 
+* David Andrzejewski, andrzejewski1@llnl.gov
+* David Buttler, buttler1@llnl.gov 
+* LLNL-CODE-521811 All rights reserved. This file is part of IRIS
+*
+* This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+* License (as published by the Free Software Foundation) version 2, dated June 1991. This program is distributed in the
+* hope that it will be useful, but WITHOUT ANY WARRANTY; without even the IMPLIED WARRANTY OF MERCHANTABILITY or
+* FITNESS FOR A PARTICULAR PURPOSE. See the terms and conditions of the GNU General Public License for more details.
+* You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+* Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA For full text see license.txt
+*
+*
+*/
+package gov.llnl.iscr.iris;
+
+import java.util.Arrays;
+
+import com.mongodb.BasicDBObject;
+
+/**
+ *
+ * Packed representation of the <code>ngrams</code> array of an <code>ngram</code> document.
+ * Each entry is an ngram with its size, score and (when present) count; entries are materialized as
+ * <code>{ngram: ..., size: ..., score: ...}</code> objects only when read.
+ *
+ */
+public class PackedNgramList extends PackedList {
+	private static final int NO_COUNT = -1;
+	private String[] ngrams = new String[0];
+	private int[] sizes = new int[0];
+	private double[] scores = new double[0];
+	private int[] counts = new int[0];
+
+	/**
+	 * appends an empty entry to the list; used while decoding
+	 */
+	void addEntry(){
+		ensureCapacity(size+1);
+		counts[size] = NO_COUNT;
+		++size;
+	}
+
+	/**
+	 * appends an entry to the list
+	 * @param ngram
+	 * @param ngramSize
+	 * @param score
+	 */
+	void add(String ngram, int ngramSize, double score){
+		addEntry();
+		ngrams[size-1] = ngram;
+		sizes[size-1] = ngramSize;
+		scores[size-1] = score;
+	}
+
+	void setLastNgram(String ngram){
+		ngrams[size-1] = ngram;
+	}
+
+	void setLastSize(int ngramSize){
+		sizes[size-1] = ngramSize;
+	}
+
+	void setLastScore(double score){
+		scores[size-1] = score;
+	}
+
+	void setLastCount(int count){
+		counts[size-1] = count;
+	}
+
+	/**
+	 * returns the ngram at the given index without building an object for the entry
+	 * @param index
+	 * @return
+	 */
+	public String getNgram(int index){
+		return ngrams[index];
+	}
+
+	/**
+	 * returns the size (number of words) of the ngram at the given index
+	 * @param index
+	 * @return
+	 */
+	public int getSize(int index){
+		return sizes[index];
+	}
+
+	/**
+	 * returns the score of the ngram at the given index
+	 * @param index
+	 * @return
+	 */
+	public double getScore(int index){
+		return scores[index];
+	}
+
+	/**
+	 * sorts the ngrams by size, descending, then by score, descending
+	 */
+	public void sortBySizeAndScore(){
+		sort();
+	}
+
+	protected int compareEntries(int i, int j){
+		if(sizes[i] != sizes[j])
+			return sizes[i] > sizes[j] ? -1 : 1;
+
+		return Double.compare(scores[j], scores[i]);
+	}
+
+	protected void permute(int[] order){
+		String[] n = new String[ngrams.length];
+		int[] s = new int[sizes.length];
+		double[] sc = new double[scores.length];
+		int[] c = new int[counts.length];
+		for(int i=0; i<size; i++){
+			n[i] = ngrams[order[i]];
+			s[i] = sizes[order[i]];
+			sc[i] = scores[order[i]];
+			c[i] = counts[order[i]];
+		}
+		ngrams = n;
+		sizes = s;
+		scores = sc;
+		counts = c;
+	}
+
+	protected BasicDBObject materialize(int index){
+		BasicDBObject obj = new BasicDBObject("ngram", ngrams[index]);
+		obj.append("size", sizes[index]).append("score", scores[index]);
+		if(counts[index] != NO_COUNT)
+			obj.append("count", counts[index]);
+
+		return obj;
+	}
+
+	private void ensureCapacity(int required){
+		if(required > ngrams.length){
+			int capacity = grow(ngrams.length, required);
+			ngrams = Arrays.copyOf(ngrams, capacity);
+			sizes = Arrays.copyOf(sizes, capacity);
+			scores = Arrays.copyOf(scores, capacity);
+			counts = Arrays.copyOf(counts, capacity);
+		}
+	}
+}
@@ -0,0 +1,168 @@
+/**
+* Copyright (c) 2011, Lawrence Livermore National Security, LLC. 
+* Produced at the Lawrence Livermore National Laboratory. 
+* Written by Kevin Lawrence, lawrence22@llnl.gov
+* Under the guidance of: 
+* David Andrzejewski, andrzejewski1@llnl.gov
+* David Buttler, buttler1@llnl.gov 
+* LLNL-CODE-521811 All rights reserved. This file is part of IRIS
+*
+* This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+* License (as published by the Free Software Foundation) version 2, dated June 1991. This program is distributed in the
+* hope that it will be useful, but WITHOUT ANY WARRANTY; without even the IMPLIED WARRANTY OF MERCHANTABILITY or
+* FITNESS FOR A PARTICULAR PURPOSE. See the terms and conditions of the GNU General Public License for more details.
+* You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+* Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA For full text see license.txt
+*
+*
+*/
+package gov.llnl.iscr.iris;
+
+import java.util.Arrays;
+
+import com.mongodb.BasicDBObject;
+
+/**
+ *
+ * Packed representation of the <code>words</code> array of a <code>phi</code> document.
+ * Each entry is a word and its probability; entries are materialized as
+ * <code>{word: ..., prob: ...}</code> objects only when read.
+ * Once decoded, the probabilities may be quantized (see {@link ProbQuantizer}) to shrink the list;
+ * the order of the entries by probability is kept, up to ties between values that share a code.
+ *
+ */
+public class PackedWordList extends PackedList {
+	private String[] words = new String[0];
+	private double[] probs = new double[0];
+	private ProbQuantizer quantizer = null;
+	private byte[] codes = null;
+
+	/**
+	 * appends an entry to the list; used while decoding
+	 * @param word
+	 * @param prob
+	 */
+	void add(String word, double prob){
+		ensureCapacity(size+1);
+		words[size] = word;
+		probs[size] = prob;
+		++size;
+	}
+
+	/**
+	 * sets the word of the last entry added; used while decoding
+	 * @param word
+	 */
+	void setLastWord(String word){
+		words[size-1] = word;
+	}
+
+	/**
+	 * sets the probability of the last entry added; used while decoding
+	 * @param prob
+	 */
+	void setLastProb(double prob){
+		probs[size-1] = prob;
+	}
+
+	/**
+	 * returns the word at the given index without building an object for the entry
+	 * @param index
+	 * @return
+	 */
+	public String getWord(int index){
+		return words[index];
+	}
+
+	/**
+	 * returns the probability at the given index without building an object for the entry
+	 * @param index
+	 * @return
+	 */
+	public double getProb(int index){
+		return probs != null ? probs[index] : quantizer.decode(code(index));
+	}
+	
+	/**
+	 * replaces the full precision probabilities with codes of the given encoding;
+	 * no entries may be added afterwards
+	 * @param mode
+	 */
+	public synchronized void quantize(ProbQuantizer.Mode mode){
+		if(mode == ProbQuantizer.Mode.NONE || probs == null)
+			return;
+		
+		quantizer = ProbQuantizer.forValues(mode, probs, 0, size);
+		int width = quantizer.width();
+		codes = new byte[size*width];
+		for(int i=0; i<size; i++){
+			int code = quantizer.encode(probs[i]);
+			if(width == 2){
+				codes[2*i] = (byte)(code >>> 8);
+				codes[2*i+1] = (byte)code;
+			}else
+				codes[i] = (byte)code;
+		}
+		probs = null;
+		words = Arrays.copyOf(words, size);
+	}
+	
+	/**
+	 * returns the encoding of the probabilities, or null if they are held at full precision
+	 * @return
+	 */
+	public ProbQuantizer getQuantizer(){
+		return quantizer;
+	}
+
+	/**
+	 * sorts the words by probability, descending
+	 */
+	public void sortByProb(){
+		sort();
+	}
+
+	protected int compareEntries(int i, int j){
+		if(probs == null)
+			return code(j) - code(i);	//Codes are ordered like the values
+		return Double.compare(probs[j], probs[i]);
+	}
+
+	protected void permute(int[] order){
+		String[] w = new String[words.length];
+		for(int i=0; i<size; i++)
+			w[i] = words[order[i]];
+		words = w;
+		
+		if(probs != null){
+			double[] p = new double[probs.length];
+			for(int i=0; i<size; i++)
+				p[i] = probs[order[i]];
+			probs = p;
+		}else{
+			int width = quantizer.width();
+			byte[] c = new byte[codes.length];
+			for(int i=0; i<size; i++)
+				System.arraycopy(codes, order[i]*width, c, i*width, width);
+			codes = c;
+		}
+	}
+
+	protected BasicDBObject materialize(int index){
+		return new BasicDBObject("word", words[index]).append("prob", getProb(index));
+	}
+	
+	private int code(int index){
+		if(quantizer.width() == 2)
+			return ((codes[2*index] & 0xff) << 8) | (codes[2*index+1] & 0xff);
+		return codes[index] & 0xff;
+	}
+
+	private void ensureCapacity(int required){
+		if(required > words.length){
+			int capacity = grow(words.length, required);
+			words = Arrays.copyOf(words, capacity);
+			probs = Arrays.copyOf(probs, capacity);
+		}
+	}
+}
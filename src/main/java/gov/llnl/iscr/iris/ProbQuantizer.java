@@ -0,0 +1,185 @@
+/**
+* Copyright (c) 2011, Lawrence Livermore National Security, LLC. 
+* Produced at the Lawrence Livermore National Laboratory. 
+* Written by Kevin Lawrence, lawrence22@llnl.gov
+* Under the guidance of: 
+* David Andrzejewski, andrzejewski1@llnl.gov
+* David Buttler, buttler1@llnl.gov 
+* LLNL-CODE-521811 All rights reserved. This file is part of IRIS
+*
+* This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+* License (as published by the Free Software Foundation) version 2, dated June 1991. This program is distributed in the
+* hope that it will be useful, but WITHOUT ANY WARRANTY; without even the IMPLIED WARRANTY OF MERCHANTABILITY or
+* FITNESS FOR A PARTICULAR PURPOSE. See the terms and conditions of the GNU General Public License for more details.
+* You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+* Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA For full text see license.txt
+*
+*
+*/
+package gov.llnl.iscr.iris;
+
+/**
+ * 
+ * Lossy, order-preserving encodings of topic-word and document-topic probabilities, used where the values
+ * only serve to rank entries. Two encodings are provided:
+ * <ul>
+ * <li>{@link Mode#HALF}: IEEE 754 half precision (2 bytes) of the value divided by the largest value of its list,
+ * so counts and probabilities alike fall in [0, 1] and keep about three significant digits;</li>
+ * <li>{@link Mode#LOG8}: one of 255 logarithmically spaced buckets (1 byte) between the smallest and largest
+ * positive value of its list; code 0 holds zero.</li>
+ * </ul>
+ * A quantizer is built for one list from its range and encodes values to unsigned integer codes whose order
+ * matches the order of the values, so entries can be compared on their codes.
+ * 
+ */
+public class ProbQuantizer {
+	public static enum Mode {
+		NONE, HALF, LOG8
+	}
+	
+	private final Mode mode;
+	private final double min;
+	private final double max;
+	private final double logMin;
+	private final double step;
+	
+	/**
+	 * creates a quantizer for values between the given bounds
+	 * @param mode
+	 * @param min smallest positive value to encode (used by LOG8)
+	 * @param max largest value to encode
+	 */
+	public ProbQuantizer(Mode mode, double min, double max){
+		this.mode = mode;
+		this.min = min;
+		this.max = max;
+		this.logMin = Math.log(min > 0 ? min : Double.MIN_NORMAL);
+		this.step = max > min && min > 0 ? (Math.log(max) - logMin) / 254 : 0;
+	}
+	
+	/**
+	 * returns a quantizer covering the range of the given values
+	 * @param mode
+	 * @param values
+	 * @param from first index, inclusive
+	 * @param to last index, exclusive
+	 * @return
+	 */
+	public static ProbQuantizer forValues(Mode mode, double[] values, int from, int to){
+		double min = Double.MAX_VALUE, max = 0;
+		for(int i=from; i<to; i++){
+			if(values[i] > 0){
+				min = Math.min(min, values[i]);
+				max = Math.max(max, values[i]);
+			}
+		}
+		if(max == 0)
+			min = 0;
+		return new ProbQuantizer(mode, min, max);
+	}
+	
+	/**
+	 * returns the encoding used
+	 * @return
+	 */
+	public Mode getMode(){
+		return mode;
+	}
+	
+	/**
+	 * returns the smallest positive value covered
+	 * @return
+	 */
+	public double getMin(){
+		return min;
+	}
+	
+	/**
+	 * returns the largest value covered
+	 * @return
+	 */
+	public double getMax(){
+		return max;
+	}
+	
+	/**
+	 * returns the number of bytes a code takes
+	 * @return
+	 */
+	public int width(){
+		return mode == Mode.LOG8 ? 1 : 2;
+	}
+	
+	/**
+	 * returns the code of the given value
+	 * @param value
+	 * @return
+	 */
+	public int encode(double value){
+		if(value <= 0)
+			return 0;
+		if(mode == Mode.LOG8){
+			long bucket = Math.round((Math.log(value) - logMin) / (step > 0 ? step : 1));
+			return 1 + (int)Math.max(0, Math.min(254, bucket));
+		}
+		return toHalf((float)(value / (max > 0 ? max : 1))) & 0xffff;
+	}
+	
+	/**
+	 * returns the value represented by the given code
+	 * @param code
+	 * @return
+	 */
+	public double decode(int code){
+		if(code == 0)
+			return 0.0;
+		if(mode == Mode.LOG8)
+			return Math.exp(logMin + (code-1)*step);
+		return fromHalf((short)code) * (max > 0 ? max : 1);
+	}
+	
+	/**
+	 * returns the half precision bits of the given float, rounded to nearest
+	 * @param value
+	 * @return
+	 */
+	public static short toHalf(float value){
+		int bits = Float.floatToIntBits(value);
+		int sign = (bits >>> 16) & 0x8000;
+		int abs = bits & 0x7fffffff;
+		if(abs >= 0x7f800000)	//Infinity or NaN
+			return (short)(sign | 0x7c00 | (abs > 0x7f800000 ? 0x200 : 0));
+		
+		int rounded = abs + 0x1000;
+		if(rounded >= 0x47800000)	//Too large: infinity
+			return (short)(sign | 0x7c00);
+		if(rounded >= 0x38800000)	//Normal half
+			return (short)(sign | ((rounded - 0x38000000) >>> 13));
+		if(abs < 0x33000000)	//Too small: zero
+			return (short)sign;
+		
+		//Subnormal half: shift the mantissa, with its implicit bit, into place
+		int exponent = abs >>> 23;
+		int mantissa = (abs & 0x7fffff) | 0x800000;
+		return (short)(sign | ((mantissa + (0x800000 >>> (exponent - 102))) >>> (126 - exponent)));
+	}
+	
+	/**
+	 * returns the float value of the given half precision bits
+	 * @param half
+	 * @return
+	 */
+	public static float fromHalf(short half){
+		int bits = half & 0xffff;
+		int sign = (bits & 0x8000) << 16;
+		int exponent = (bits >>> 10) & 0x1f;
+		int mantissa = bits & 0x3ff;
+		if(exponent == 0){
+			float value = mantissa / (float)(1 << 24);
+			return sign != 0 ? -value : value;
+		}
+		if(exponent == 31)
+			return Float.intBitsToFloat(sign | 0x7f800000 | (mantissa << 13));
+		return Float.intBitsToFloat(sign | ((exponent + 112) << 23) | (mantissa << 13));
+	}
+}
@@ -0,0 +1,170 @@
+/**
+* Copyright (c) 2011, Lawrence Livermore National Security, LLC. 
+* Produced at the Lawrence Livermore National Laboratory. 
+* Written by Kevin Lawrence, lawrence22@llnl.gov
+* Under the guidance of: 
+* David Andrzejewski, andrzejewski1@llnl.gov
+* David Buttler, buttler1@llnl.gov 
+* LLNL-CODE-521811 All rights reserved. This file is part of IRIS
+*
+* This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+* License (as published by the Free Software Foundation) version 2, dated June 1991. This program is distributed in the
+* hope that it will be useful, but WITHOUT ANY WARRANTY; without even the IMPLIED WARRANTY OF MERCHANTABILITY or
+* FITNESS FOR A PARTICULAR PURPOSE. See the terms and conditions of the GNU General Public License for more details.
+* You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+* Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA For full text see license.txt
+*
+*
+*/
+package gov.llnl.iscr.iris;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+
+/**
+ * 
+ * Command line tool that reports how quantizing model probabilities (see {@link ProbQuantizer}) changes the rankings
+ * the LDAHandler relies on: the order of the top words of every phi topic and the order of the top topics of theta documents.
+ * <blockquote><pre>
+ * QuantizationReport host dbname HALF|LOG8 [topN] [maxDocs]
+ * </pre></blockquote>
+ * A list is counted as changed when any of its first <code>topN</code> entries differs from the full precision ranking.
+ * 
+ */
+public class QuantizationReport {
+	private final ProbQuantizer.Mode mode;
+	private final int topN;
+	private int lists = 0;
+	private int changed = 0;
+	private long entries = 0;
+	private long fullBytes = 0;
+	private long quantizedBytes = 0;
+	
+	/**
+	 * creates a report for the given encoding
+	 * @param mode
+	 * @param topN number of leading entries compared per list
+	 */
+	public QuantizationReport(ProbQuantizer.Mode mode, int topN){
+		this.mode = mode;
+		this.topN = topN;
+	}
+	
+	/**
+	 * compares the ranking of the given words at full precision and quantized, returning true if the top entries differ
+	 * @param full words and probabilities decoded at full precision
+	 * @return
+	 */
+	public boolean compare(PackedWordList full){
+		PackedWordList quantized = new PackedWordList();
+		for(int i=0; i<full.size(); i++)
+			quantized.add(full.getWord(i), full.getProb(i));
+		quantized.quantize(mode);
+		
+		full.sortByProb();
+		quantized.sortByProb();
+		boolean differs = false;
+		for(int i=0; i<Math.min(topN, full.size()); i++){
+			if(!full.getWord(i).equals(quantized.getWord(i))){
+				differs = true;
+				break;
+			}
+		}
+		
+		++lists;
+		if(differs)
+			++changed;
+		entries += full.size();
+		fullBytes += full.size()*8L;
+		quantizedBytes += full.size()*(long)(quantized.getQuantizer() != null ? quantized.getQuantizer().width() : 8);
+		return differs;
+	}
+	
+	/**
+	 * compares the ranking of the given topics, a list of key-value maps (topic: id, prob: value)
+	 * @param topics
+	 * @return
+	 */
+	public boolean compare(List<DBObject> topics){
+		PackedWordList full = new PackedWordList();
+		for(DBObject topic : topics)
+			full.add(String.valueOf(topic.get("topic")), ((Number)topic.get("prob")).doubleValue());
+		return compare(full);
+	}
+	
+	/**
+	 * returns the number of lists compared
+	 * @return
+	 */
+	public int getLists(){
+		return lists;
+	}
+	
+	/**
+	 * returns the number of lists whose top entries changed
+	 * @return
+	 */
+	public int getChanged(){
+		return changed;
+	}
+	
+	/**
+	 * returns a one line summary of the comparisons
+	 * @return
+	 */
+	public String toString(){
+		return mode+": "+changed+" of "+lists+" lists changed in the top "+topN+"; "+entries+" probabilities, "+
+				fullBytes+" bytes at full precision, "+quantizedBytes+" quantized";
+	}
+	
+	/**
+	 * reports ranking changes of phi and theta for the model on the command line:
+	 * <code>QuantizationReport host dbname HALF|LOG8 [topN] [maxDocs]</code>
+	 * @param args
+	 */
+	@SuppressWarnings("unchecked")
+	public static void main(String[] args){
+		if(args.length < 3){
+			System.err.println("Usage: QuantizationReport host dbname HALF|LOG8 [topN] [maxDocs]");
+			return;
+		}
+		ProbQuantizer.Mode mode = ProbQuantizer.Mode.valueOf(args[2]);
+		int topN = args.length > 3 ? Integer.parseInt(args[3]) : 4;
+		int maxDocs = args.length > 4 ? Integer.parseInt(args[4]) : 100000;
+		MongoInstance mongo = new MongoInstance(args[0], args[1]);
+		
+		//Phi is decoded into packed lists at full precision by MongoInstance and quantized here
+		QuantizationReport phiReport = new QuantizationReport(mode, topN);
+		DBCursor phi = mongo.useCollection("phi").find(new BasicDBObject(), new BasicDBObject("_id", 0));
+		while(phi.hasNext()){
+			DBObject obj = phi.next();
+			Object words = obj.get("words");
+			boolean differs = words instanceof PackedWordList ? phiReport.compare((PackedWordList)words)
+					: phiReport.compare(toTopicList((List<DBObject>)words));
+			if(differs)
+				System.out.println("phi topic "+obj.get("topic")+" ranking changed");
+		}
+		
+		QuantizationReport thetaReport = new QuantizationReport(mode, topN);
+		DBCursor theta = mongo.useCollection("theta").find(new BasicDBObject(), new BasicDBObject("_id", 0)).limit(maxDocs);
+		while(theta.hasNext())
+			thetaReport.compare((List<DBObject>)theta.next().get("topics"));
+		
+		System.out.println("phi   "+phiReport);
+		System.out.println("theta "+thetaReport);
+	}
+	
+	/**
+	 * private helper that maps word objects to new objects of the (topic, prob) form accepted by {@link QuantizationReport#compare(List)}
+	 */
+	private static List<DBObject> toTopicList(List<DBObject> words){
+		List<DBObject> topics = new ArrayList<DBObject>(words.size());
+		for(DBObject word : words)
+			topics.add(new BasicDBObject("topic", word.get("word")).append("prob", word.get("prob")));
+		return topics;
+	}
+}
@@ -0,0 +1,400 @@
+/**
+* Copyright (c) 2011, Lawrence Livermore National Security, LLC. 
+* Produced at the Lawrence Livermore National Laboratory. 
+* Written by Kevin Lawrence, lawrence22@llnl.gov
+* Under the guidance of: 
+* David Andrzejewski, andrzejewski1@llnl.gov
+* David Buttler, buttler1@llnl.gov 
+* LLNL-CODE-521811 All rights reserved. This file is part of IRIS
+*
+* This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+* License (as published by the Free Software Foundation) version 2, dated June 1991. This program is distributed in the
+* hope that it will be useful, but WITHOUT ANY WARRANTY; without even the IMPLIED WARRANTY OF MERCHANTABILITY or
+* FITNESS FOR A PARTICULAR PURPOSE. See the terms and conditions of the GNU General Public License for more details.
+* You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+* Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA For full text see license.txt
+*
+*
+*/
+package gov.llnl.iscr.iris;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.zip.GZIPInputStream;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import com.mongodb.WriteConcern;
+
+/**
+ *
+ * Computes the semantic coherence (semco) of every topic in the model and writes the semco collection
+ * read by {@link LDAModel} and used by {@link LDAHandler#setTopicThreshold(float)} and {@link LDAHandler#filterTopics}.
+ * The score is the UMass coherence of a topic's top words:
+ * <blockquote><pre>
+ * semco(t) = sum over m=2..M, l=1..m-1 of log((D(w_m, w_l) + 1) / D(w_l))
+ * </pre></blockquote>
+ * where the words are ordered by probability and D counts the documents containing the word(s).
+ * <p>The corpus is streamed once, in blocks of lines (one document per line, whitespace separated tokens,
+ * optionally gzipped). Each block is split across a fork-join pool; every task counts document and
+ * co-document frequencies into primitive arrays covering only the word pairs within a topic, and the
+ * partial counts are summed as the tasks join.
+ * <p>A typical invocation sequence is:
+ * <blockquote><pre>
+ * MongoInstance mongo = new MongoInstance("127.0.0.1", "topicModel");
+ * SemcoEngine engine = new SemcoEngine(20);
+ * Map&lt;Integer, List&lt;String&gt;&gt; topWords = SemcoEngine.readTopWords(mongo.useCollection("phi"), 20);
+ * Map&lt;Integer, Double&gt; semco = engine.compute(topWords, new File("corpus.txt"));
+ * SemcoEngine.write(mongo.useCollection("semco"), semco, topWords);
+ * </pre></blockquote>
+ *
+ */
+public class SemcoEngine {
+	private final int wordsPerTopic;
+	private final ForkJoinPool pool;
+	private int blockSize = 100000;
+	private int leafSize = 2000;
+	private boolean lowercase = true;
+
+	/**
+	 * creates an engine scoring the given number of top words per topic, using one thread per core
+	 * @param wordsPerTopic
+	 */
+	public SemcoEngine(int wordsPerTopic){
+		this(wordsPerTopic, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * creates an engine scoring the given number of top words per topic, using the given number of threads
+	 * @param wordsPerTopic
+	 * @param threads
+	 */
+	public SemcoEngine(int wordsPerTopic, int threads){
+		this.wordsPerTopic = wordsPerTopic;
+		this.pool = new ForkJoinPool(threads);
+	}
+
+	/**
+	 * returns the semantic coherence score of each topic, computed over the given corpus
+	 * @param topWords map of topic IDs to their words ordered by probability, descending
+	 * @param corpus file with one document per line
+	 * @return map of topic IDs to semco values, in the iteration order of topWords
+	 * @throws IOException
+	 */
+	public Map<Integer, Double> compute(Map<Integer, List<String>> topWords, File corpus) throws IOException{
+		InputStream in = new FileInputStream(corpus);
+		if(corpus.getName().endsWith(".gz"))
+			in = new GZIPInputStream(in, 1 << 16);
+
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"), 1 << 16);
+		try{
+			return compute(topWords, reader);
+		}finally{
+			reader.close();
+		}
+	}
+
+	/**
+	 * returns the semantic coherence score of each topic, computed over the documents read from the given reader
+	 * @param topWords map of topic IDs to their words ordered by probability, descending
+	 * @param corpus reader with one document per line
+	 * @return map of topic IDs to semco values, in the iteration order of topWords
+	 * @throws IOException
+	 */
+	public Map<Integer, Double> compute(Map<Integer, List<String>> topWords, BufferedReader corpus) throws IOException{
+		WordSlots slots = new WordSlots(topWords, wordsPerTopic);
+		long[] totals = new long[slots.counterSize()];
+
+		List<String> block = new ArrayList<String>(blockSize);
+		String line;
+		while((line = corpus.readLine()) != null){
+			block.add(line);
+			if(block.size() == blockSize){
+				add(totals, pool.invoke(new CountTask(slots, block, 0, block.size())));
+				block.clear();
+			}
+		}
+		if(!block.isEmpty())
+			add(totals, pool.invoke(new CountTask(slots, block, 0, block.size())));
+
+		return slots.score(totals);
+	}
+
+	/**
+	 * stops the worker threads; the engine cannot be used afterwards
+	 */
+	public void shutdown(){
+		pool.shutdown();
+	}
+
+	/**
+	 * sets the number of lines read from the corpus before they are counted in parallel
+	 * @param blockSize
+	 * @return
+	 */
+	public SemcoEngine setBlockSize(int blockSize){
+		this.blockSize = blockSize;
+		return this;
+	}
+
+	/**
+	 * sets the number of lines at or below which a task counts its lines itself instead of forking
+	 * @param leafSize
+	 * @return
+	 */
+	public SemcoEngine setLeafSize(int leafSize){
+		this.leafSize = leafSize;
+		return this;
+	}
+
+	/**
+	 * sets whether corpus tokens are lowercased before matching topic words (default true)
+	 * @param lowercase
+	 * @return
+	 */
+	public SemcoEngine setLowercase(boolean lowercase){
+		this.lowercase = lowercase;
+		return this;
+	}
+
+	//-|================================
+	//-|Reading and writing the model
+	//-|================================
+	/**
+	 * returns the most probable words of every topic in the given phi collection
+	 * @param phi
+	 * @param wordsPerTopic
+	 * @return map of topic IDs to words ordered by probability, descending
+	 */
+	@SuppressWarnings("unchecked")
+	public static Map<Integer, List<String>> readTopWords(DBCollection phi, int wordsPerTopic){
+		Map<Integer, List<String>> topWords = new LinkedHashMap<Integer, List<String>>();
+		DBCursor cur = phi.find(new BasicDBObject(), new BasicDBObject("_id", 0)).sort(new BasicDBObject("topic", 1));
+		while(cur.hasNext()){
+			DBObject obj = cur.next();
+			Object words = obj.get("words");
+			List<String> top = new ArrayList<String>();
+			if(words instanceof PackedWordList){
+				PackedWordList packed = (PackedWordList) words;
+				packed.sortByProb();
+				for(int i=0; i<packed.size() && i<wordsPerTopic; i++)
+					top.add(packed.getWord(i));
+			}
+			else{
+				TopEntries<String> best = new TopEntries<String>(wordsPerTopic);
+				for(DBObject word : (List<DBObject>) words)
+					best.offer(word.get("word").toString(), ((Number)word.get("prob")).doubleValue());
+				top = best.sorted(null);
+			}
+			topWords.put((Integer)obj.get("topic"), top);
+		}
+		return topWords;
+	}
+
+	/**
+	 * replaces the contents of the given semco collection with the given scores,
+	 * as <code>{topic: id, semco: value, words: [...]}</code>, and indexes it for the LDAModel queries
+	 * @param semco
+	 * @param scores map of topic IDs to semco values
+	 * @param topWords the words the scores were computed from
+	 */
+	public static void write(DBCollection semco, Map<Integer, Double> scores, Map<Integer, List<String>> topWords){
+		semco.drop();
+		List<DBObject> batch = new ArrayList<DBObject>(scores.size());
+		for(Map.Entry<Integer, Double> entry : scores.entrySet()){
+			BasicDBObject obj = new BasicDBObject("topic", entry.getKey()).append("semco", entry.getValue());
+			obj.append("words", topWords.get(entry.getKey()));
+			batch.add(obj);
+		}
+		semco.insert(batch, WriteConcern.SAFE);
+		semco.ensureIndex(new BasicDBObject("topic", 1), "topic_1", true);
+		semco.ensureIndex(new BasicDBObject("semco", 1));
+	}
+
+	//-|================================
+	//-|Private helper classes
+	//-|================================
+	private static void add(long[] totals, int[] counts){
+		for(int i=0; i<counts.length; i++)
+			totals[i] += counts[i];
+	}
+
+	/**
+	 * Maps each distinct top word to the (topic, rank) slots it occupies and lays out the counters:
+	 * for every topic, M document frequencies followed by M*M co-document frequencies (only l &lt; m is used)
+	 */
+	private class WordSlots{
+		private final Map<String, Integer> wordIDs = new HashMap<String, Integer>();
+		private final int[][] wordSlots;
+		private final Integer[] topics;
+		private final int stride;
+		private final int m;
+
+		WordSlots(Map<Integer, List<String>> topWords, int m){
+			this.m = m;
+			this.stride = m + m*m;
+			this.topics = topWords.keySet().toArray(new Integer[topWords.size()]);
+
+			Map<Integer, List<Integer>> slots = new HashMap<Integer, List<Integer>>();
+			for(int t=0; t<topics.length; t++){
+				List<String> words = topWords.get(topics[t]);
+				for(int rank=0; rank<words.size() && rank<m; rank++){
+					String word = lowercase ? words.get(rank).toLowerCase() : words.get(rank);
+					Integer id = wordIDs.get(word);
+					if(id == null){
+						id = wordIDs.size();
+						wordIDs.put(word, id);
+						slots.put(id, new ArrayList<Integer>());
+					}
+					slots.get(id).add(t*m + rank);
+				}
+			}
+
+			wordSlots = new int[wordIDs.size()][];
+			for(Map.Entry<Integer, List<Integer>> entry : slots.entrySet()){
+				int[] s = new int[entry.getValue().size()];
+				for(int i=0; i<s.length; i++)
+					s[i] = entry.getValue().get(i);
+				wordSlots[entry.getKey()] = s;
+			}
+		}
+
+		int counterSize(){
+			return topics.length * stride;
+		}
+
+		/**
+		 * counts the documents in the given lines
+		 */
+		int[] count(List<String> lines, int from, int to){
+			int[] counts = new int[counterSize()];
+			int[] seen = new int[wordSlots.length];
+			int[] present = new int[64];
+			int doc = 0;
+			for(int i=from; i<to; i++){
+				++doc;
+				int numPresent = 0;
+				for(String token : lines.get(i).split("\\s+")){
+					Integer id = wordIDs.get(lowercase ? token.toLowerCase() : token);
+					if(id == null || seen[id] == doc)
+						continue;
+
+					seen[id] = doc;
+					for(int slot : wordSlots[id]){
+						if(numPresent == present.length)
+							present = Arrays.copyOf(present, numPresent*2);
+						present[numPresent++] = slot;
+					}
+				}
+
+				//Slots sorted by topic, then rank: pairs within a topic are adjacent
+				Arrays.sort(present, 0, numPresent);
+				for(int a=0; a<numPresent; a++){
+					int topic = present[a] / m;
+					int rankA = present[a] % m;
+					int base = topic * stride;
+					++counts[base + rankA];
+					for(int b=a+1; b<numPresent && present[b] / m == topic; b++){
+						int rankB = present[b] % m;
+						++counts[base + m + rankB*m + rankA];
+					}
+				}
+			}
+			return counts;
+		}
+
+		/**
+		 * computes the UMass coherence of every topic from the summed counts
+		 */
+		Map<Integer, Double> score(long[] totals){
+			Map<Integer, Double> scores = new LinkedHashMap<Integer, Double>();
+			for(int t=0; t<topics.length; t++){
+				int base = t * stride;
+				double semco = 0.0;
+				for(int rankM=1; rankM<m; rankM++){
+					for(int rankL=0; rankL<rankM; rankL++){
+						long docFreq = totals[base + rankL];
+						if(docFreq == 0)
+							continue;
+
+						long coDocFreq = totals[base + m + rankM*m + rankL];
+						semco += Math.log((coDocFreq + 1.0) / docFreq);
+					}
+				}
+				scores.put(topics[t], semco);
+			}
+			return scores;
+		}
+	}
+
+	/**
+	 * Fork-join task that splits a block of lines until it is small enough to count directly
+	 */
+	private class CountTask extends RecursiveTask<int[]>{
+		private static final long serialVersionUID = 1L;
+		private final WordSlots slots;
+		private final List<String> lines;
+		private final int from;
+		private final int to;
+
+		CountTask(WordSlots slots, List<String> lines, int from, int to){
+			this.slots = slots;
+			this.lines = lines;
+			this.from = from;
+			this.to = to;
+		}
+
+		protected int[] compute(){
+			if(to - from <= leafSize)
+				return slots.count(lines, from, to);
+
+			int mid = (from + to) >>> 1;
+			CountTask left = new CountTask(slots, lines, from, mid);
+			left.fork();
+			int[] right = new CountTask(slots, lines, mid, to).compute();
+			int[] counts = left.join();
+			for(int i=0; i<counts.length; i++)
+				counts[i] += right[i];
+
+			return counts;
+		}
+	}
+
+	/**
+	 * computes and writes the semco collection from the command line:
+	 * <code>SemcoEngine host dbname corpus [wordsPerTopic]</code>
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException{
+		if(args.length < 3){
+			System.err.println("Usage: SemcoEngine host dbname corpus [wordsPerTopic]");
+			return;
+		}
+		int wordsPerTopic = args.length > 3 ? Integer.parseInt(args[3]) : 20;
+		MongoInstance mongo = new MongoInstance(args[0], args[1]);
+		Map<Integer, List<String>> topWords = readTopWords(mongo.useCollection("phi"), wordsPerTopic);
+
+		SemcoEngine engine = new SemcoEngine(wordsPerTopic);
+		long start = System.currentTimeMillis();
+		Map<Integer, Double> scores = engine.compute(topWords, new File(args[2]));
+		engine.shutdown();
+
+		write(mongo.useCollection("semco"), scores, topWords);
+		System.out.println("semco: "+scores.size()+" topics in "+(System.currentTimeMillis()-start)/1000+"s");
+	}
+}
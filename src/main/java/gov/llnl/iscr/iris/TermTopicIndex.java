@@ -0,0 +1,131 @@
+/**
+* Copyright (c) 2011, Lawrence Livermore National Security, LLC. 
+* Produced at the Lawrence Livermore National Laboratory. 
+* Written by Kevin Lawrence, lawrence22@llnl.gov
+* Under the guidance of: 
+* David Andrzejewski, andrzejewski1@llnl.gov
+* David Buttler, buttler1@llnl.gov 
+* LLNL-CODE-521811 All rights reserved. This file is part of IRIS
+*
+* This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+* License (as published by the Free Software Foundation) version 2, dated June 1991. This program is distributed in the
+* hope that it will be useful, but WITHOUT ANY WARRANTY; without even the IMPLIED WARRANTY OF MERCHANTABILITY or
+* FITNESS FOR A PARTICULAR PURPOSE. See the terms and conditions of the GNU General Public License for more details.
+* You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+* Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA For full text see license.txt
+*
+*
+*/
+package gov.llnl.iscr.iris;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import com.mongodb.DBObject;
+
+/**
+ * 
+ * In-memory map from each word of the model to the topics it is most probable in, built from the phi collection.
+ * It gives the topics a query is likely to be about from its terms alone, before any document is retrieved,
+ * which {@link Iris#prefetch(DisMaxQuery, int, java.util.concurrent.ExecutorService)} uses to load topic data
+ * while the Solr request is in flight. Instances are immutable once built and thread-safe.
+ *
+ */
+public class TermTopicIndex {
+	private final Map<String, int[]> topics;
+	private final Map<String, float[]> probs;
+	
+	private TermTopicIndex(Map<String, int[]> topics, Map<String, float[]> probs){
+		this.topics = topics;
+		this.probs = probs;
+	}
+	
+	/**
+	 * builds the index from the given phi documents (topic: id, words: [{word, prob}]), keeping for each word
+	 * the <code>topicsPerTerm</code> topics in which it is most probable
+	 * @param phiEntries
+	 * @param topicsPerTerm
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	public static TermTopicIndex build(Iterator<DBObject> phiEntries, int topicsPerTerm){
+		Map<String, TopEntries<Integer>> heaps = new HashMap<String, TopEntries<Integer>>();
+		DBObject entry;
+		while(phiEntries.hasNext()){
+			entry = phiEntries.next();
+			Integer topic = ((Number)entry.get("topic")).intValue();
+			Object words = entry.get("words");
+			if(words instanceof PackedWordList){
+				PackedWordList packed = (PackedWordList)words;
+				for(int i=0; i<packed.size(); i++)
+					offer(heaps, packed.getWord(i), topic, packed.getProb(i), topicsPerTerm);
+			}else{
+				for(DBObject word : (List<DBObject>) words)
+					offer(heaps, word.get("word").toString(), topic, ((Number)word.get("prob")).doubleValue(), topicsPerTerm);
+			}
+		}
+		
+		Map<String, int[]> topics = new HashMap<String, int[]>(heaps.size()*2);
+		Map<String, float[]> probs = new HashMap<String, float[]>(heaps.size()*2);
+		for(Map.Entry<String, TopEntries<Integer>> heap : heaps.entrySet()){
+			double[] scores = new double[heap.getValue().size()];
+			List<Integer> sorted = heap.getValue().sorted(scores);
+			int[] t = new int[scores.length];
+			float[] p = new float[scores.length];
+			for(int i=0; i<t.length; i++){
+				t[i] = sorted.get(i);
+				p[i] = (float)scores[i];
+			}
+			topics.put(heap.getKey(), t);
+			probs.put(heap.getKey(), p);
+		}
+		return new TermTopicIndex(topics, probs);
+	}
+	
+	private static void offer(Map<String, TopEntries<Integer>> heaps, String word, Integer topic, double prob, int topicsPerTerm){
+		word = word.toLowerCase(Locale.ROOT);
+		TopEntries<Integer> heap = heaps.get(word);
+		if(heap == null){
+			heap = new TopEntries<Integer>(topicsPerTerm);
+			heaps.put(word, heap);
+		}
+		heap.offer(topic, prob);
+	}
+	
+	/**
+	 * returns the topics the given query text is most likely about, at most <code>limit</code>, best first.
+	 * Each topic is scored by the sum of the probabilities of the query terms in the topic.
+	 * @param text the query text
+	 * @param limit
+	 * @return
+	 */
+	public List<Integer> candidates(String text, int limit){
+		Map<Integer, Double> scores = new HashMap<Integer, Double>();
+		for(String term : text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")){
+			int[] t = topics.get(term);
+			if(t == null)
+				continue;
+			float[] p = probs.get(term);
+			for(int i=0; i<t.length; i++){
+				Double score = scores.get(t[i]);
+				scores.put(t[i], score == null ? p[i] : score + p[i]);
+			}
+		}
+		
+		TopEntries<Integer> top = new TopEntries<Integer>(limit);
+		for(Map.Entry<Integer, Double> score : scores.entrySet())
+			top.offer(score.getKey(), score.getValue());
+		return top.sorted(null);
+	}
+	
+	/**
+	 * returns the number of words in the index
+	 * @return
+	 */
+	public int size(){
+		return topics.size();
+	}
+}
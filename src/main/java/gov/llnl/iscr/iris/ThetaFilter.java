@@ -0,0 +1,126 @@
+/**
+* Copyright (c) 2011, Lawrence Livermore National Security, LLC. 
+* Produced at the Lawrence Livermore National Laboratory. 
+* Written by Kevin Lawrence, lawrence22@llnl.gov
+* Under the guidance of: 
+* David Andrzejewski, andrzejewski1@llnl.gov
+* David Buttler, buttler1@llnl.gov 
+* LLNL-CODE-521811 All rights reserved. This file is part of IRIS
+*
+* This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+* License (as published by the Free Software Foundation) version 2, dated June 1991. This program is distributed in the
+* hope that it will be useful, but WITHOUT ANY WARRANTY; without even the IMPLIED WARRANTY OF MERCHANTABILITY or
+* FITNESS FOR A PARTICULAR PURPOSE. See the terms and conditions of the GNU General Public License for more details.
+* You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+* Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA For full text see license.txt
+*
+*
+*/
+package gov.llnl.iscr.iris;
+
+import java.util.Iterator;
+
+import com.mongodb.DBObject;
+
+/**
+ * 
+ * Bloom filter over the document IDs present in theta. A document the filter rejects is certainly not in theta,
+ * so {@link LDAModel} can answer lookups for documents the model has never seen (such as newly indexed ones)
+ * without a round trip; a document it accepts is in theta except for a small, configurable, false positive rate.
+ * <p>The filter is filled once while the model is loaded and only read afterwards, so it can be shared between threads.
+ * 
+ */
+public class ThetaFilter {
+	private final long[] bits;
+	private final long numBits;
+	private final int numHashes;
+	private int size = 0;
+	
+	/**
+	 * creates an empty filter sized for the given number of documents
+	 * @param expected number of documents that will be added
+	 * @param falsePositiveRate rate at which absent documents are accepted once the expected number are added
+	 */
+	public ThetaFilter(int expected, double falsePositiveRate){
+		long m = (long)Math.ceil(-Math.max(1, expected) * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+		bits = new long[(int)Math.max(1, (m + 63) >>> 6)];
+		numBits = bits.length * 64L;
+		numHashes = (int)Math.max(1, Math.round((double)numBits / Math.max(1, expected) * Math.log(2)));
+	}
+	
+	/**
+	 * returns a filter holding the documents of the given theta objects
+	 * @param theta objects with a <code>document</code> field
+	 * @param expected number of documents
+	 * @param falsePositiveRate
+	 * @return
+	 */
+	public static ThetaFilter build(Iterator<DBObject> theta, int expected, double falsePositiveRate){
+		ThetaFilter filter = new ThetaFilter(expected, falsePositiveRate);
+		while(theta.hasNext())
+			filter.add(theta.next().get("document"));
+		return filter;
+	}
+	
+	/**
+	 * adds a document ID to the filter
+	 * @param docid
+	 */
+	public void add(Object docid){
+		long hash = hash(docid);
+		long h1 = hash >>> 32, h2 = hash & 0xffffffffL;
+		for(int i=0; i<numHashes; i++){
+			long bit = (h1 + i*h2) % numBits;
+			bits[(int)(bit >>> 6)] |= 1L << bit;
+		}
+		++size;
+	}
+	
+	/**
+	 * returns false if the given document ID is certainly not in theta
+	 * @param docid
+	 * @return
+	 */
+	public boolean mightContain(Object docid){
+		long hash = hash(docid);
+		long h1 = hash >>> 32, h2 = hash & 0xffffffffL;
+		for(int i=0; i<numHashes; i++){
+			long bit = (h1 + i*h2) % numBits;
+			if((bits[(int)(bit >>> 6)] & (1L << bit)) == 0)
+				return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * returns the number of documents added
+	 * @return
+	 */
+	public int size(){
+		return size;
+	}
+	
+	/**
+	 * returns the number of bytes held by the filter
+	 * @return
+	 */
+	public long sizeInBytes(){
+		return bits.length * 8L;
+	}
+	
+	/**
+	 * 64-bit hash of the string form of the document ID, so IDs taken from Solr and from theta agree
+	 */
+	private static long hash(Object docid){
+		String id = String.valueOf(docid);
+		long h = 0xcbf29ce484222325L;
+		for(int i=0; i<id.length(); i++){
+			h ^= id.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		return h;
+	}
+}
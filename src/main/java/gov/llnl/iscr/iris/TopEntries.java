@@ -0,0 +1,149 @@
+/**
+* Copyright (c) 2011, Lawrence Livermore National Security, LLC. 
+* Produced at the Lawrence Livermore National Laboratory. 
+* Written by Kevin Lawrence, lawrence22@llnl.gov
+* Under the guidance of: 
+* David Andrzejewski, andrzejewski1@llnl.gov
+* David Buttler, buttler1@llnl.gov 
+* LLNL-CODE-521811 All rights reserved. This file is part of IRIS
+*
+* This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+* License (as published by the Free Software Foundation) version 2, dated June 1991. This program is distributed in the
+* hope that it will be useful, but WITHOUT ANY WARRANTY; without even the IMPLIED WARRANTY OF MERCHANTABILITY or
+* FITNESS FOR A PARTICULAR PURPOSE. See the terms and conditions of the GNU General Public License for more details.
+* You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+* Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA For full text see license.txt
+*
+*
+*/
+package gov.llnl.iscr.iris;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ *
+ * Keeps the entries with the highest scores out of a stream, using a bounded min-heap
+ * over a primitive score array. Used by the model building jobs to keep the top words,
+ * ngrams or co-topics of a topic without holding every candidate in memory.
+ * Instances are not thread-safe; callers accumulating from several threads synchronize on the instance.
+ *
+ * @param <T> the type of the entries kept
+ */
+public class TopEntries<T> {
+	private final int capacity;
+	private final double[] scores;
+	private final Object[] items;
+	private int size = 0;
+
+	/**
+	 * creates an instance that keeps at most the given number of entries
+	 * @param capacity
+	 */
+	public TopEntries(int capacity){
+		this.capacity = capacity;
+		this.scores = new double[capacity];
+		this.items = new Object[capacity];
+	}
+
+	/**
+	 * offers an entry; it is kept if fewer than capacity entries are held or its score beats the lowest kept score
+	 * @param item
+	 * @param score
+	 * @return true if the entry was kept
+	 */
+	public boolean offer(T item, double score){
+		if(capacity == 0)
+			return false;
+
+		if(size < capacity){
+			scores[size] = score;
+			items[size] = item;
+			siftUp(size++);
+			return true;
+		}
+		if(score <= scores[0])
+			return false;
+
+		scores[0] = score;
+		items[0] = item;
+		siftDown(0);
+		return true;
+	}
+
+	/**
+	 * returns the lowest score currently kept, or negative infinity while the heap is not full (or has no capacity)
+	 * @return
+	 */
+	public double minScore(){
+		return size < capacity || capacity == 0 ? Double.NEGATIVE_INFINITY : scores[0];
+	}
+
+	/**
+	 * returns the number of entries kept
+	 * @return
+	 */
+	public int size(){
+		return size;
+	}
+
+	/**
+	 * returns the kept entries sorted by score, descending. Scores are written
+	 * to the given array (in the same order) if it is not null.
+	 * @param sortedScores optional array of at least {@link TopEntries#size()} elements
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	public List<T> sorted(double[] sortedScores){
+		double[] s = new double[size];
+		Object[] it = new Object[size];
+		System.arraycopy(scores, 0, s, 0, size);
+		System.arraycopy(items, 0, it, 0, size);
+
+		//Heap sort on the copy: repeatedly move the minimum to the end
+		for(int end=size-1; end>0; end--){
+			swap(s, it, 0, end);
+			siftDown(s, it, 0, end);
+		}
+
+		List<T> result = new ArrayList<T>(size);
+		for(int i=0; i<size; i++){
+			result.add((T)it[i]);
+			if(sortedScores != null)
+				sortedScores[i] = s[i];
+		}
+		return result;
+	}
+
+	private void siftUp(int i){
+		while(i > 0){
+			int parent = (i-1) >>> 1;
+			if(scores[parent] <= scores[i])
+				break;
+			swap(scores, items, parent, i);
+			i = parent;
+		}
+	}
+
+	private void siftDown(int i){
+		siftDown(scores, items, i, size);
+	}
+
+	private static void siftDown(double[] s, Object[] it, int i, int n){
+		while(true){
+			int left = 2*i+1;
+			if(left >= n)
+				break;
+			int child = left+1 < n && s[left+1] < s[left] ? left+1 : left;
+			if(s[i] <= s[child])
+				break;
+			swap(s, it, i, child);
+			i = child;
+		}
+	}
+
+	private static void swap(double[] s, Object[] it, int i, int j){
+		double ts = s[i]; s[i] = s[j]; s[j] = ts;
+		Object ti = it[i]; it[i] = it[j]; it[j] = ti;
+	}
+}
@@ -0,0 +1,317 @@
+/**
+* Copyright (c) 2011, Lawrence Livermore National Security, LLC. 
+* Produced at the Lawrence Livermore National Laboratory. 
+* Written by Kevin Lawrence, lawrence22@llnl.gov
+* Under the guidance of: 
+* David Andrzejewski, andrzejewski1@llnl.gov
+* David Buttler, buttler1@llnl.gov 
+* LLNL-CODE-521811 All rights reserved. This file is part of IRIS
+*
+* This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+* License (as published by the Free Software Foundation) version 2, dated June 1991. This program is distributed in the
+* hope that it will be useful, but WITHOUT ANY WARRANTY; without even the IMPLIED WARRANTY OF MERCHANTABILITY or
+* FITNESS FOR A PARTICULAR PURPOSE. See the terms and conditions of the GNU General Public License for more details.
+* You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+* Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA For full text see license.txt
+*
+*
+*/
+package gov.llnl.iscr.iris;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import com.mongodb.WriteConcern;
+
+/**
+ * 
+ * Computes the topic-topic covariance of the document-topic distributions in theta and writes
+ * the related collection read by {@link LDAModel#getRelatedTopics(List)}.
+ * <p>Documents are streamed from theta in blocks of sparse topic vectors. Worker threads take
+ * blocks from a bounded queue and accumulate per-thread partial sums (a K vector and a K&times;K
+ * upper triangle of products, in primitive arrays); the partials are summed once the stream ends.
+ * Memory therefore depends on the number of topics, threads and the block size, not on the number of documents.
+ * Topics absent from a document's topic list count as zero probability.
+ * <p>A typical invocation sequence is:
+ * <blockquote><pre>
+ * MongoInstance mongo = new MongoInstance("127.0.0.1", "topicModel");
+ * TopicCovariance covariance = new TopicCovariance(500);
+ * double[][] covar = covariance.compute(mongo.useCollection("theta"));
+ * TopicCovariance.writeRelated(mongo.useCollection("related"), covar, 10);
+ * </pre></blockquote>
+ * 
+ */
+public class TopicCovariance {
+	private final int numTopics;
+	private final int threads;
+	private int blockSize = 10000;
+	
+	/**
+	 * creates an instance for a model with the given number of topics (IDs 0 to numTopics-1), using one thread per core
+	 * @param numTopics
+	 */
+	public TopicCovariance(int numTopics){
+		this(numTopics, Runtime.getRuntime().availableProcessors());
+	}
+	
+	/**
+	 * creates an instance for a model with the given number of topics (IDs 0 to numTopics-1), using the given number of threads
+	 * @param numTopics
+	 * @param threads
+	 */
+	public TopicCovariance(int numTopics, int threads){
+		this.numTopics = numTopics;
+		this.threads = threads;
+	}
+	
+	/**
+	 * sets the number of documents handed to a worker at a time (and the cursor batch size)
+	 * @param blockSize
+	 * @return
+	 */
+	public TopicCovariance setBlockSize(int blockSize){
+		this.blockSize = blockSize;
+		return this;
+	}
+	
+	/**
+	 * returns the K&times;K topic covariance matrix computed over every document in the given theta collection
+	 * @param theta
+	 * @return
+	 */
+	public double[][] compute(DBCollection theta){
+		DBCursor cur = theta.find(new BasicDBObject(), new BasicDBObject("_id", 0).append("topics", 1));
+		cur.batchSize(blockSize);
+		return compute(cur);
+	}
+	
+	/**
+	 * returns the K&times;K topic covariance matrix computed over the given theta documents
+	 * @param thetaDocs documents of the form <code>{topics: [{topic: id, prob: value}, ...]}</code>
+	 * @return
+	 */
+	public double[][] compute(Iterator<DBObject> thetaDocs){
+		BlockingQueue<Block> queue = new ArrayBlockingQueue<Block>(threads*2);
+		List<Worker> workers = new ArrayList<Worker>(threads);
+		for(int i=0; i<threads; i++){
+			Worker worker = new Worker(queue);
+			worker.start();
+			workers.add(worker);
+		}
+		
+		try{
+			try{
+				Block block = new Block(blockSize);
+				while(thetaDocs.hasNext()){
+					block.add(thetaDocs.next());
+					if(block.numDocs == blockSize){
+						queue.put(block);
+						block = new Block(blockSize);
+					}
+				}
+				queue.put(block);
+			}finally{
+				//Workers only stop on END, so it is queued even if reading theta fails
+				for(int i=0; i<threads; i++)
+					queue.put(Block.END);
+			}
+			
+			for(Worker worker : workers)
+				worker.join();
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			for(Worker worker : workers)
+				worker.interrupt();
+			throw new IllegalStateException("Interrupted while computing topic covariance", e);
+		}
+		
+		//-|===========================================
+		//-|Sum the partials and convert to covariance
+		//-|===========================================
+		long numDocs = 0;
+		double[] sum = new double[numTopics];
+		double[] products = new double[numTopics*numTopics];
+		for(Worker worker : workers){
+			if(worker.error != null)
+				throw new IllegalStateException("Could NOT compute topic covariance", worker.error);
+			
+			numDocs += worker.numDocs;
+			for(int i=0; i<numTopics; i++)
+				sum[i] += worker.sum[i];
+			for(int i=0; i<products.length; i++)
+				products[i] += worker.products[i];
+		}
+		
+		double[][] covar = new double[numTopics][numTopics];
+		if(numDocs == 0)
+			return covar;
+		
+		for(int i=0; i<numTopics; i++){
+			double meanI = sum[i]/numDocs;
+			for(int j=i; j<numTopics; j++){
+				double value = products[i*numTopics+j]/numDocs - meanI*(sum[j]/numDocs);
+				covar[i][j] = value;
+				covar[j][i] = value;
+			}
+		}
+		return covar;
+	}
+	
+	/**
+	 * replaces the contents of the given related collection with the topN co-topics of every topic,
+	 * as <code>{topic: id, cotopic: id, covar: value}</code> sorted by covar, descending, and indexes it for the LDAModel queries
+	 * @param related
+	 * @param covar the covariance matrix returned by {@link TopicCovariance#compute(DBCollection)}
+	 * @param topN the number of co-topics kept per topic
+	 */
+	public static void writeRelated(DBCollection related, double[][] covar, int topN){
+		related.drop();
+		List<DBObject> batch = new ArrayList<DBObject>();
+		for(int topic=0; topic<covar.length; topic++){
+			TopEntries<Integer> top = new TopEntries<Integer>(topN);
+			for(int cotopic=0; cotopic<covar.length; cotopic++){
+				if(cotopic != topic)
+					top.offer(cotopic, covar[topic][cotopic]);
+			}
+			
+			double[] values = new double[top.size()];
+			List<Integer> cotopics = top.sorted(values);
+			for(int i=0; i<cotopics.size(); i++)
+				batch.add(new BasicDBObject("topic", topic).append("cotopic", cotopics.get(i)).append("covar", values[i]));
+			
+			if(batch.size() >= 10000){
+				related.insert(batch, WriteConcern.SAFE);
+				batch = new ArrayList<DBObject>();
+			}
+		}
+		if(!batch.isEmpty())
+			related.insert(batch, WriteConcern.SAFE);
+		
+		related.ensureIndex(new BasicDBObject("topic", 1).append("covar", -1));
+	}
+	
+	//-|================================
+	//-|Private helper classes
+	//-|================================
+	/**
+	 * A block of sparse document-topic vectors stored in flat primitive arrays
+	 */
+	private static class Block{
+		static final Block END = new Block(0);
+		int numDocs = 0;
+		int[] offsets;
+		int[] topics;
+		double[] probs;
+		int numEntries = 0;
+		
+		Block(int capacity){
+			offsets = new int[capacity+1];
+			topics = new int[capacity*4];
+			probs = new double[capacity*4];
+		}
+		
+		@SuppressWarnings("unchecked")
+		void add(DBObject doc){
+			List<DBObject> docTopics = (List<DBObject>) doc.get("topics");
+			if(docTopics == null)
+				return;
+			
+			if(numEntries + docTopics.size() > topics.length){
+				int capacity = Math.max(topics.length*2, numEntries + docTopics.size());
+				int[] t = new int[capacity];
+				double[] p = new double[capacity];
+				System.arraycopy(topics, 0, t, 0, numEntries);
+				System.arraycopy(probs, 0, p, 0, numEntries);
+				topics = t;
+				probs = p;
+			}
+			for(DBObject topic : docTopics){
+				topics[numEntries] = ((Number)topic.get("topic")).intValue();
+				probs[numEntries++] = ((Number)topic.get("prob")).doubleValue();
+			}
+			offsets[++numDocs] = numEntries;
+		}
+	}
+	
+	/**
+	 * Worker thread accumulating partial sums for the blocks it takes from the queue
+	 */
+	private class Worker extends Thread{
+		private final BlockingQueue<Block> queue;
+		final double[] sum = new double[numTopics];
+		final double[] products = new double[numTopics*numTopics];
+		long numDocs = 0;
+		Throwable error = null;
+		
+		Worker(BlockingQueue<Block> queue){
+			super("TopicCovariance-worker");
+			setDaemon(true);
+			this.queue = queue;
+		}
+		
+		public void run(){
+			try{
+				Block block;
+				while((block = queue.take()) != Block.END)
+					accumulate(block);
+			}catch(InterruptedException e){
+				error = e;
+			}catch(RuntimeException e){
+				error = e;
+				//Keep draining so the reading thread is never blocked on a full queue
+				try{
+					while(queue.take() != Block.END);
+				}catch(InterruptedException ie){
+					return;
+				}
+			}
+		}
+		
+		private void accumulate(Block block){
+			for(int d=0; d<block.numDocs; d++){
+				int from = block.offsets[d], to = block.offsets[d+1];
+				for(int a=from; a<to; a++){
+					int i = block.topics[a];
+					if(i < 0 || i >= numTopics)
+						throw new IllegalArgumentException("Topic ID "+i+" outside of model with "+numTopics+" topics");
+					
+					double pi = block.probs[a];
+					sum[i] += pi;
+					for(int b=from; b<to; b++){
+						int j = block.topics[b];
+						//Upper triangle only; each unordered pair is visited once from its smaller topic
+						if(j >= i)
+							products[i*numTopics+j] += pi*block.probs[b];
+					}
+				}
+			}
+			numDocs += block.numDocs;
+		}
+	}
+	
+	/**
+	 * computes and writes the related collection from the command line:
+	 * <code>TopicCovariance host dbname numTopics [topN]</code>
+	 * @param args
+	 */
+	public static void main(String[] args){
+		if(args.length < 3){
+			System.err.println("Usage: TopicCovariance host dbname numTopics [topN]");
+			return;
+		}
+		MongoInstance mongo = new MongoInstance(args[0], args[1]);
+		int topN = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+		
+		long start = System.currentTimeMillis();
+		double[][] covar = new TopicCovariance(Integer.parseInt(args[2])).compute(mongo.useCollection("theta"));
+		writeRelated(mongo.useCollection("related"), covar, topN);
+		System.out.println("related: "+covar.length+" topics in "+(System.currentTimeMillis()-start)/1000+"s");
+	}
+}
@@ -0,0 +1,147 @@
+/**
+* Copyright (c) 2011, Lawrence Livermore National Security, LLC. 
+* Produced at the Lawrence Livermore National Laboratory. 
+* Written by Kevin Lawrence, lawrence22@llnl.gov
+* Under the guidance of: 
+* David Andrzejewski, andrzejewski1@llnl.gov
+* David Buttler, buttler1@llnl.gov 
+* LLNL-CODE-521811 All rights reserved. This file is part of IRIS
+*
+* This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+* License (as published by the Free Software Foundation) version 2, dated June 1991. This program is distributed in the
+* hope that it will be useful, but WITHOUT ANY WARRANTY; without even the IMPLIED WARRANTY OF MERCHANTABILITY or
+* FITNESS FOR A PARTICULAR PURPOSE. See the terms and conditions of the GNU General Public License for more details.
+* You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+* Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA For full text see license.txt
+*
+*
+*/
+package gov.llnl.iscr.iris;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+import org.apache.solr.common.SolrInputDocument;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+/**
+ * 
+ * Compact text form of a document's top topics, stored in a Solr field so that the topics of result documents
+ * come back with the search results instead of from theta. Topics are written highest probability first as
+ * <code>topic|prob</code> pairs separated by spaces, e.g. <code>"134|0.3612 474|0.1208"</code>. The same form
+ * is read by Lucene's <code>DelimitedPayloadTokenFilter</code> (with a float encoder), so the field can also be indexed
+ * with the probabilities as payloads.
+ * <p>At indexing time:
+ * <blockquote><pre>
+ * TopicFieldCodec codec = new TopicFieldCodec("topics", 8, 0.01);
+ * codec.addField(solrDoc, model.getTopics(id));
+ * </pre></blockquote>
+ * and at search time, with the field in <code>fl</code>, see {@link Iris#setLatentTopicsFromField}.
+ * 
+ */
+public class TopicFieldCodec {
+	private final String field;
+	private final int maxTopics;
+	private final double minProb;
+	
+	/**
+	 * creates a codec writing the given field
+	 * @param field name of the stored Solr field
+	 * @param maxTopics maximum number of topics stored per document
+	 * @param minProb probability below which topics are not stored
+	 */
+	public TopicFieldCodec(String field, int maxTopics, double minProb){
+		this.field = field;
+		this.maxTopics = maxTopics;
+		this.minProb = minProb;
+	}
+	
+	/**
+	 * sets the topic field of the given document from its theta entry; documents not in theta are left unchanged
+	 * @param doc
+	 * @param topicsObj theta entry <code>{topics: [{topic: id, prob: value}, ...]}</code>, as returned by {@link LDAModel#getTopics(Object)}
+	 * @return true if the field was set
+	 */
+	@SuppressWarnings("unchecked")
+	public boolean addField(SolrInputDocument doc, DBObject topicsObj){
+		if(topicsObj == null || topicsObj.get("topics") == null)
+			return false;
+		
+		doc.setField(field, encode((List<DBObject>) topicsObj.get("topics"), maxTopics, minProb));
+		return true;
+	}
+	
+	/**
+	 * returns the field value for the given topics
+	 * @param topics a list of key-value maps (topic: id, prob: value), in any order
+	 * @param maxTopics maximum number of topics written
+	 * @param minProb probability below which topics are not written
+	 * @return
+	 */
+	public static String encode(List<DBObject> topics, int maxTopics, double minProb){
+		List<DBObject> sorted = new ArrayList<DBObject>(topics);
+		Collections.sort(sorted, new Comparator<DBObject>(){
+			public int compare(DBObject o1, DBObject o2){
+				return Double.compare(((Number)o2.get("prob")).doubleValue(), ((Number)o1.get("prob")).doubleValue());
+			}
+		});
+		
+		StringBuilder value = new StringBuilder();
+		int count = 0;
+		for(DBObject topic : sorted){
+			double prob = ((Number)topic.get("prob")).doubleValue();
+			if(count == maxTopics || prob < minProb)
+				break;
+			if(count++ > 0)
+				value.append(' ');
+			value.append(((Number)topic.get("topic")).intValue()).append('|').append(format(prob));
+		}
+		return value.toString();
+	}
+	
+	/**
+	 * returns the topics held by the given field value, in the stored order
+	 * @param value
+	 * @return a list of key-value maps (topic: id, prob: value)
+	 */
+	public static List<DBObject> decode(String value){
+		List<DBObject> topics = new ArrayList<DBObject>();
+		int start = 0;
+		int length = value.length();
+		while(start < length){
+			int end = value.indexOf(' ', start);
+			if(end < 0)
+				end = length;
+			int bar = value.indexOf('|', start);
+			if(bar > start && bar < end){
+				try{
+					int topic = Integer.parseInt(value.substring(start, bar));
+					double prob = Double.parseDouble(value.substring(bar+1, end));
+					topics.add(new BasicDBObject("topic", topic).append("prob", prob));
+				}catch(NumberFormatException e){
+					System.err.println("Skipping malformed topic entry: "+value.substring(start, end));
+				}
+			}
+			start = end+1;
+		}
+		return topics;
+	}
+	
+	/**
+	 * private helper that writes a probability to four decimal places, without trailing zeros
+	 */
+	private static String format(double prob){
+		String s = String.format(Locale.ROOT, "%.4f", prob);
+		int end = s.length();
+		while(s.charAt(end-1) == '0')
+			--end;
+		if(s.charAt(end-1) == '.')
+			--end;
+		return s.substring(0, end);
+	}
+}
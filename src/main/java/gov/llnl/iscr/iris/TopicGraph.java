@@ -0,0 +1,276 @@
+/**
+* Copyright (c) 2011, Lawrence Livermore National Security, LLC. 
+* Produced at the Lawrence Livermore National Laboratory. 
+* Written by Kevin Lawrence, lawrence22@llnl.gov
+* Under the guidance of: 
+* David Andrzejewski, andrzejewski1@llnl.gov
+* David Buttler, buttler1@llnl.gov 
+* LLNL-CODE-521811 All rights reserved. This file is part of IRIS
+*
+* This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+* License (as published by the Free Software Foundation) version 2, dated June 1991. This program is distributed in the
+* hope that it will be useful, but WITHOUT ANY WARRANTY; without even the IMPLIED WARRANTY OF MERCHANTABILITY or
+* FITNESS FOR A PARTICULAR PURPOSE. See the terms and conditions of the GNU General Public License for more details.
+* You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+* Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA For full text see license.txt
+*
+*
+*/
+package gov.llnl.iscr.iris;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import com.mongodb.DBObject;
+
+/**
+ * 
+ * In-memory view of the related collection used for multi-hop related topic expansion.
+ * Co-topic edges are held in compressed sparse row form: the edges of topic <code>t</code> are
+ * <code>cotopics[offsets[t]] .. cotopics[offsets[t+1]-1]</code>, sorted by covariance descending, with their weights
+ * in the parallel <code>covars</code> array. Only positively covarying co-topics are kept since the walk multiplies weights
+ * along a path. Semantic coherence scores are held per topic so the walk can skip junk topics without a Mongo query.
+ * <p>The graph is immutable once loaded and can be shared by every {@link LDAHandler}:
+ * <blockquote><pre>
+ * TopicGraph graph = new TopicGraph(model);
+ * lda.setEnrichedTopicSet(docIDs).setRelatedTopicSet(graph, 2, 8);
+ * </pre></blockquote>
+ * 
+ */
+public class TopicGraph {
+	private final int[] offsets;
+	private final int[] cotopics;
+	private final float[] covars;
+	private final float[] semco;
+	
+	/**
+	 * loads the graph from the related and semco collections of the given model
+	 * @param model
+	 */
+	public TopicGraph(LDAModel model){
+		this(model.getRelatedEdges(), model.getTopicSemcoValues());
+	}
+	
+	/**
+	 * builds the graph from related objects <code>{topic: id, cotopic: id, covar: value}</code>
+	 * and semco objects <code>{topic: id, semco: value}</code>
+	 * @param related
+	 * @param semcoValues
+	 */
+	public TopicGraph(Iterator<DBObject> related, Iterator<DBObject> semcoValues){
+		//-|=======================================
+		//-|1. Read the positive edges into flat
+		//-|	arrays, counting the edges per topic
+		//-|=======================================
+		int[] from = new int[1024];
+		int[] to = new int[1024];
+		float[] weight = new float[1024];
+		int[] degree = new int[64];
+		int edges = 0;
+		int numTopics = 0;
+		while(related.hasNext()){
+			DBObject obj = related.next();
+			int topic = ((Number)obj.get("topic")).intValue();
+			int cotopic = ((Number)obj.get("cotopic")).intValue();
+			double covar = ((Number)obj.get("covar")).doubleValue();
+			numTopics = Math.max(numTopics, Math.max(topic, cotopic)+1);
+			if(covar <= 0 || topic == cotopic)
+				continue;
+			
+			if(edges == from.length){
+				from = Arrays.copyOf(from, edges*2);
+				to = Arrays.copyOf(to, edges*2);
+				weight = Arrays.copyOf(weight, edges*2);
+			}
+			if(topic >= degree.length)
+				degree = Arrays.copyOf(degree, Math.max(degree.length*2, topic+1));
+			from[edges] = topic;
+			to[edges] = cotopic;
+			weight[edges++] = (float)covar;
+			++degree[topic];
+		}
+		
+		List<DBObject> semcoList = new ArrayList<DBObject>();
+		while(semcoValues.hasNext()){
+			DBObject obj = semcoValues.next();
+			semcoList.add(obj);
+			numTopics = Math.max(numTopics, ((Number)obj.get("topic")).intValue()+1);
+		}
+		
+		//-|=======================================
+		//-|2. Lay the edges out by topic and sort
+		//-|	each row by covariance
+		//-|=======================================
+		offsets = new int[numTopics+1];
+		for(int t=0; t<numTopics; t++)
+			offsets[t+1] = offsets[t] + (t < degree.length ? degree[t] : 0);
+		
+		cotopics = new int[edges];
+		covars = new float[edges];
+		int[] fill = Arrays.copyOf(offsets, numTopics);
+		for(int e=0; e<edges; e++){
+			int slot = fill[from[e]]++;
+			cotopics[slot] = to[e];
+			covars[slot] = weight[e];
+		}
+		for(int t=0; t<numTopics; t++)
+			sortRow(offsets[t], offsets[t+1]);
+		
+		semco = new float[numTopics];
+		Arrays.fill(semco, Float.NaN);
+		for(DBObject obj : semcoList){
+			Object value = obj.get("semco");
+			if(value instanceof Number)
+				semco[((Number)obj.get("topic")).intValue()] = ((Number)value).floatValue();
+		}
+	}
+	
+	/**
+	 * returns the number of topics in the graph
+	 * @return
+	 */
+	public int getNumTopics(){
+		return semco.length;
+	}
+	
+	/**
+	 * returns the number of co-topic edges in the graph
+	 * @return
+	 */
+	public int getNumEdges(){
+		return cotopics.length;
+	}
+	
+	/**
+	 * returns the related topics reached from the given topics by a best-first walk.
+	 * Each seed starts with weight 1 and a topic reached over an edge gets the weight of its parent times the edge covariance;
+	 * the heaviest unvisited topic is expanded next until <code>limit</code> topics are found or no topic within
+	 * <code>depth</code> hops is left. Topics whose semantic coherence is below the threshold are neither returned nor walked through.
+	 * @param seeds topics the walk starts from; they are never returned
+	 * @param depth maximum number of hops from a seed
+	 * @param limit maximum number of topics returned
+	 * @param threshold semantic coherence threshold
+	 * @return related topic IDs in the order they were reached
+	 */
+	public List<Integer> expand(List<Integer> seeds, int depth, int limit, double threshold){
+		List<Integer> result = new ArrayList<Integer>(limit);
+		boolean[] visited = new boolean[semco.length];
+		Frontier frontier = new Frontier(Math.max(16, seeds.size()*4));
+		for(Integer seed : seeds){
+			if(seed != null && seed >= 0 && seed < semco.length)
+				frontier.push(1.0, seed, 0);
+		}
+		
+		//A topic may be pushed once per path reaching it; the first pop carries its heaviest path
+		while(frontier.size > 0 && result.size() < limit){
+			double weight = frontier.topWeight();
+			int hops = frontier.topHops();
+			int topic = frontier.pop();
+			if(visited[topic])
+				continue;
+			visited[topic] = true;
+			if(hops > 0)
+				result.add(topic);
+			if(hops == depth)
+				continue;
+			
+			for(int e=offsets[topic]; e<offsets[topic+1]; e++){
+				int cotopic = cotopics[e];
+				if(!visited[cotopic] && !(semco[cotopic] < threshold))
+					frontier.push(weight * covars[e], cotopic, hops+1);
+			}
+		}
+		return result;
+	}
+	
+	//-|================================
+	//-|Private helper methods
+	//-|================================
+	/**
+	 * insertion sort of a row by covariance descending; rows are short (one per co-topic)
+	 */
+	private void sortRow(int start, int end){
+		for(int i=start+1; i<end; i++){
+			float w = covars[i];
+			int c = cotopics[i];
+			int j = i-1;
+			while(j >= start && covars[j] < w){
+				covars[j+1] = covars[j];
+				cotopics[j+1] = cotopics[j];
+				--j;
+			}
+			covars[j+1] = w;
+			cotopics[j+1] = c;
+		}
+	}
+	
+	/**
+	 * Max-heap of (weight, topic, hops) entries held in parallel primitive arrays
+	 */
+	private static class Frontier{
+		private double[] weights;
+		private int[] topics;
+		private int[] hops;
+		private int size = 0;
+		
+		Frontier(int capacity){
+			weights = new double[capacity];
+			topics = new int[capacity];
+			hops = new int[capacity];
+		}
+		
+		void push(double weight, int topic, int hop){
+			if(size == weights.length){
+				weights = Arrays.copyOf(weights, size*2);
+				topics = Arrays.copyOf(topics, size*2);
+				hops = Arrays.copyOf(hops, size*2);
+			}
+			int i = size++;
+			while(i > 0){
+				int parent = (i-1) >>> 1;
+				if(weights[parent] >= weight)
+					break;
+				set(i, weights[parent], topics[parent], hops[parent]);
+				i = parent;
+			}
+			set(i, weight, topic, hop);
+		}
+		
+		double topWeight(){
+			return weights[0];
+		}
+		
+		int topHops(){
+			return hops[0];
+		}
+		
+		int pop(){
+			int top = topics[0];
+			--size;
+			double w = weights[size];
+			int t = topics[size], h = hops[size];
+			int i = 0;
+			while(true){
+				int child = 2*i+1;
+				if(child >= size)
+					break;
+				if(child+1 < size && weights[child+1] > weights[child])
+					++child;
+				if(weights[child] <= w)
+					break;
+				set(i, weights[child], topics[child], hops[child]);
+				i = child;
+			}
+			set(i, w, t, h);
+			return top;
+		}
+		
+		private void set(int i, double weight, int topic, int hop){
+			weights[i] = weight;
+			topics[i] = topic;
+			hops[i] = hop;
+		}
+	}
+}
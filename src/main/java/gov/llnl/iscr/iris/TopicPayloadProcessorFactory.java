@@ -0,0 +1,131 @@
+/**
+* Copyright (c) 2011, Lawrence Livermore National Security, LLC. 
+* Produced at the Lawrence Livermore National Laboratory. 
+* Written by Kevin Lawrence, lawrence22@llnl.gov
+* Under the guidance of: 
+* David Andrzejewski, andrzejewski1@llnl.gov
+* David Buttler, buttler1@llnl.gov 
+* LLNL-CODE-521811 All rights reserved. This file is part of IRIS
+*
+* This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+* License (as published by the Free Software Foundation) version 2, dated June 1991. This program is distributed in the
+* hope that it will be useful, but WITHOUT ANY WARRANTY; without even the IMPLIED WARRANTY OF MERCHANTABILITY or
+* FITNESS FOR A PARTICULAR PURPOSE. See the terms and conditions of the GNU General Public License for more details.
+* You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+* Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA For full text see license.txt
+*
+*
+*/
+package gov.llnl.iscr.iris;
+
+import java.io.IOException;
+
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.response.SolrQueryResponse;
+import org.apache.solr.update.AddUpdateCommand;
+import org.apache.solr.update.processor.UpdateRequestProcessor;
+import org.apache.solr.update.processor.UpdateRequestProcessorFactory;
+
+/**
+ * 
+ * Update processor that writes each added document's top theta topics into a payload field at index time,
+ * in the {@link TopicFieldCodec} form (<code>134|0.3612 474|0.12</code>). Indexed with a delimited payload filter,
+ * every topic becomes a term carrying its probability, which {@link TopicPayloadQParserPlugin} and
+ * {@link DisMaxQuery#addTopicBoost(int, float)} boost on with one clause per topic.
+ * Documents that already carry the field, or that are not in theta, are passed on unchanged.
+ * <p>Configuration:
+ * <blockquote><pre>
+ * &lt;fieldType name="topic_payloads" class="solr.TextField"&gt;
+ *   &lt;analyzer&gt;
+ *     &lt;tokenizer class="solr.WhitespaceTokenizerFactory"/&gt;
+ *     &lt;filter class="solr.DelimitedPayloadTokenFilterFactory" delimiter="|" encoder="float"/&gt;
+ *   &lt;/analyzer&gt;
+ * &lt;/fieldType&gt;
+ * &lt;field name="topics" type="topic_payloads" indexed="true" stored="true"/&gt;
+ * 
+ * &lt;updateRequestProcessorChain name="iris"&gt;
+ *   &lt;processor class="gov.llnl.iscr.iris.TopicPayloadProcessorFactory"&gt;
+ *     &lt;str name="host"&gt;127.0.0.1&lt;/str&gt;
+ *     &lt;str name="db"&gt;topicModel&lt;/str&gt;
+ *     &lt;str name="field"&gt;topics&lt;/str&gt;
+ *     &lt;int name="maxTopics"&gt;8&lt;/int&gt;
+ *   &lt;/processor&gt;
+ *   &lt;processor class="solr.RunUpdateProcessorFactory"/&gt;
+ * &lt;/updateRequestProcessorChain&gt;
+ * </pre></blockquote>
+ * The field is stored, so {@link Iris#setLatentTopicsFromField} can read it from the results as well.
+ * 
+ */
+public class TopicPayloadProcessorFactory extends UpdateRequestProcessorFactory {
+	private LDAModel model;
+	private String field = "topics";
+	private TopicFieldCodec codec;
+	
+	/**
+	 * creates the factory; the model is opened by {@link TopicPayloadProcessorFactory#init(NamedList)}
+	 */
+	public TopicPayloadProcessorFactory(){
+	}
+	
+	/**
+	 * creates a factory that reads document topics from the given model instead of opening one
+	 * @param model
+	 * @param field
+	 * @param maxTopics
+	 * @param minProb
+	 */
+	TopicPayloadProcessorFactory(LDAModel model, String field, int maxTopics, double minProb){
+		this.model = model;
+		this.field = field;
+		this.codec = new TopicFieldCodec(field, maxTopics, minProb);
+	}
+	
+	public void init(@SuppressWarnings("rawtypes") NamedList args){
+		String host = args.get("host") != null ? args.get("host").toString() : "127.0.0.1";
+		String db = args.get("db") != null ? args.get("db").toString() : "topicModel";
+		if(args.get("field") != null)
+			field = args.get("field").toString();
+		int maxTopics = args.get("maxTopics") != null ? ((Number)args.get("maxTopics")).intValue() : 8;
+		double minProb = args.get("minProb") != null ? ((Number)args.get("minProb")).doubleValue() : 0.01;
+		
+		codec = new TopicFieldCodec(field, maxTopics, minProb);
+		model = new LDAModel(new MongoInstance(host, db), Boolean.TRUE.equals(args.get("filterTheta")));
+	}
+	
+	public UpdateRequestProcessor getInstance(SolrQueryRequest req, SolrQueryResponse rsp, UpdateRequestProcessor next){
+		return getInstance(req.getSchema().getUniqueKeyField().getName(), next);
+	}
+	
+	/**
+	 * returns a processor for documents identified by the given unique key field
+	 * @param uniqueKey
+	 * @param next
+	 * @return
+	 */
+	UpdateRequestProcessor getInstance(String uniqueKey, UpdateRequestProcessor next){
+		return new TopicPayloadProcessor(uniqueKey, next);
+	}
+	
+	/**
+	 * Processor adding the topic field to each document before passing it down the chain
+	 */
+	private class TopicPayloadProcessor extends UpdateRequestProcessor{
+		private final String uniqueKey;
+		
+		TopicPayloadProcessor(String uniqueKey, UpdateRequestProcessor next){
+			super(next);
+			this.uniqueKey = uniqueKey;
+		}
+		
+		public void processAdd(AddUpdateCommand cmd) throws IOException{
+			SolrInputDocument doc = cmd.getSolrInputDocument();
+			Object id = doc.getFieldValue(uniqueKey);
+			if(id != null && doc.getFieldValue(field) == null)
+				codec.addField(doc, model.getTopics(id));
+			
+			super.processAdd(cmd);
+		}
+	}
+}
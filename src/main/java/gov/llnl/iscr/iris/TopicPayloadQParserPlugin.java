@@ -0,0 +1,107 @@
+/**
+* Copyright (c) 2011, Lawrence Livermore National Security, LLC. 
+* Produced at the Lawrence Livermore National Laboratory. 
+* Written by Kevin Lawrence, lawrence22@llnl.gov
+* Under the guidance of: 
+* David Andrzejewski, andrzejewski1@llnl.gov
+* David Buttler, buttler1@llnl.gov 
+* LLNL-CODE-521811 All rights reserved. This file is part of IRIS
+*
+* This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+* License (as published by the Free Software Foundation) version 2, dated June 1991. This program is distributed in the
+* hope that it will be useful, but WITHOUT ANY WARRANTY; without even the IMPLIED WARRANTY OF MERCHANTABILITY or
+* FITNESS FOR A PARTICULAR PURPOSE. See the terms and conditions of the GNU General Public License for more details.
+* You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+* Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA For full text see license.txt
+*
+*
+*/
+package gov.llnl.iscr.iris;
+
+import org.apache.lucene.index.Term;
+import org.apache.lucene.queryParser.ParseException;
+import org.apache.lucene.search.Explanation;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.payloads.MaxPayloadFunction;
+import org.apache.lucene.search.payloads.PayloadTermQuery;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.search.QParser;
+import org.apache.solr.search.QParserPlugin;
+
+/**
+ * 
+ * Query parser matching documents on a topic of the payload field written by {@link TopicPayloadProcessorFactory},
+ * scored by the topic's probability in the document (the term payload, read by {@link TopicPayloadSimilarity}).
+ * A topic boost is one clause, e.g. as a dismax boost query:
+ * <blockquote><pre>
+ * bq={!topic f=topics b=2.0}134
+ * </pre></blockquote>
+ * where <code>f</code> is the payload field (defaults to the <code>field</code> init argument, or "topics")
+ * and <code>b</code> the boost; a matching document scores <code>b * prob</code>. Configured with:
+ * <blockquote><pre>
+ * &lt;queryParser name="topic" class="gov.llnl.iscr.iris.TopicPayloadQParserPlugin"/&gt;
+ * &lt;similarity class="gov.llnl.iscr.iris.TopicPayloadSimilarity"/&gt;
+ * </pre></blockquote>
+ * 
+ */
+public class TopicPayloadQParserPlugin extends QParserPlugin {
+	public static final String NAME = "topic";
+	private String defaultField = "topics";
+	
+	public void init(@SuppressWarnings("rawtypes") NamedList args){
+		if(args != null && args.get("field") != null)
+			defaultField = args.get("field").toString();
+	}
+	
+	public QParser createParser(String qstr, SolrParams localParams, SolrParams params, SolrQueryRequest req){
+		return new QParser(qstr, localParams, params, req){
+			public Query parse() throws ParseException{
+				String topic = qstr == null ? "" : qstr.trim();
+				try{
+					Integer.parseInt(topic);
+				}catch(NumberFormatException e){
+					throw new ParseException("Not a topic ID: "+topic);
+				}
+				String field = localParams != null ? localParams.get("f", defaultField) : defaultField;
+				
+				//Scored by the payload alone, which ignores the query boost, so the boost is applied by the payload function
+				float boost = localParams != null ? localParams.getFloat("b", 1.0F) : 1.0F;
+				return new PayloadTermQuery(new Term(field, topic), new BoostedMaxPayloadFunction(boost), false);
+			}
+		};
+	}
+	
+	/**
+	 * Scores a document by its largest payload times a constant boost
+	 */
+	static class BoostedMaxPayloadFunction extends MaxPayloadFunction {
+		private static final long serialVersionUID = 1L;
+		private final float boost;
+		
+		BoostedMaxPayloadFunction(float boost){
+			this.boost = boost;
+		}
+		
+		public float docScore(int docId, String field, int numPayloadsSeen, float payloadScore){
+			return boost * super.docScore(docId, field, numPayloadsSeen, payloadScore);
+		}
+		
+		public Explanation explain(int docId, int numPayloadsSeen, float payloadScore){
+			Explanation max = super.explain(docId, numPayloadsSeen, payloadScore);
+			Explanation result = new Explanation(boost * max.getValue(), "product of:");
+			result.addDetail(new Explanation(boost, "boost"));
+			result.addDetail(max);
+			return result;
+		}
+		
+		public int hashCode(){
+			return 31 * super.hashCode() + Float.floatToIntBits(boost);
+		}
+		
+		public boolean equals(Object obj){
+			return obj instanceof BoostedMaxPayloadFunction && ((BoostedMaxPayloadFunction)obj).boost == boost;
+		}
+	}
+}
@@ -0,0 +1,39 @@
+/**
+* Copyright (c) 2011, Lawrence Livermore National Security, LLC. 
+* Produced at the Lawrence Livermore National Laboratory. 
+* Written by Kevin Lawrence, lawrence22@llnl.gov
+* Under the guidance of: 
+* David Andrzejewski, andrzejewski1@llnl.gov
+* David Buttler, buttler1@llnl.gov 
+* LLNL-CODE-521811 All rights reserved. This file is part of IRIS
+*
+* This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+* License (as published by the Free Software Foundation) version 2, dated June 1991. This program is distributed in the
+* hope that it will be useful, but WITHOUT ANY WARRANTY; without even the IMPLIED WARRANTY OF MERCHANTABILITY or
+* FITNESS FOR A PARTICULAR PURPOSE. See the terms and conditions of the GNU General Public License for more details.
+* You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+* Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA For full text see license.txt
+*
+*
+*/
+package gov.llnl.iscr.iris;
+
+import org.apache.lucene.analysis.payloads.PayloadHelper;
+import org.apache.lucene.search.DefaultSimilarity;
+
+/**
+ * 
+ * Similarity that scores payload queries by the float stored in the term payload, such as the topic probabilities
+ * indexed by {@link TopicPayloadProcessorFactory}. Only payload queries consult {@link #scorePayload}, so other queries
+ * score as with the default similarity.
+ * 
+ */
+public class TopicPayloadSimilarity extends DefaultSimilarity {
+	private static final long serialVersionUID = 1L;
+	
+	public float scorePayload(int docId, String fieldName, int start, int end, byte[] payload, int offset, int length){
+		if(payload == null || length < 4)
+			return 1.0F;
+		return PayloadHelper.decodeFloat(payload, offset);
+	}
+}
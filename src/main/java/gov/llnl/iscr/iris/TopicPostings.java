@@ -0,0 +1,540 @@
+/**
+* Copyright (c) 2011, Lawrence Livermore National Security, LLC. 
+* Produced at the Lawrence Livermore National Laboratory. 
+* Written by Kevin Lawrence, lawrence22@llnl.gov
+* Under the guidance of: 
+* David Andrzejewski, andrzejewski1@llnl.gov
+* David Buttler, buttler1@llnl.gov 
+* LLNL-CODE-521811 All rights reserved. This file is part of IRIS
+*
+* This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+* License (as published by the Free Software Foundation) version 2, dated June 1991. This program is distributed in the
+* hope that it will be useful, but WITHOUT ANY WARRANTY; without even the IMPLIED WARRANTY OF MERCHANTABILITY or
+* FITNESS FOR A PARTICULAR PURPOSE. See the terms and conditions of the GNU General Public License for more details.
+* You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+* Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA For full text see license.txt
+*
+*
+*/
+package gov.llnl.iscr.iris;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+/**
+ * 
+ * Memory-mapped index from each topic to the documents it appears in, used to browse "documents about this topic"
+ * without scanning theta. Each posting list holds the documents of a topic in document order as
+ * varint-encoded gaps between document ordinals, each followed by one byte holding the topic probability
+ * on a {@link ProbQuantizer.Mode#LOG8} scale between the smallest and largest probability of the list. Document IDs are kept in a table at the end of the file and decoded only for returned documents.
+ * <p>The index file is written once from theta and then opened read-only:
+ * <blockquote><pre>
+ * TopicPostings.build(model.getThetaEntries(), new File("postings.idx"), 0.01);
+ * TopicPostings postings = TopicPostings.open(new File("postings.idx"));
+ * List&lt;BasicDBObject&gt; docs = postings.top(134, 20);
+ * List&lt;BasicDBObject&gt; both = postings.intersect(Arrays.asList(134, 474), 20);
+ * </pre></blockquote>
+ * Theta is read twice while building: the first pass sizes each list and finds its probability range, the second
+ * writes each posting directly to its place in the file, so memory use does not grow with the number of postings.
+ * Lists are kept in document order, rather than by probability, so that gaps are small and several lists can be
+ * intersected or merged in one linear pass; the top documents of a list are selected with a bounded heap while it is decoded.
+ * Files of any length are supported: the file is mapped in chunks of at most 1 GB and positions are kept as longs.
+ * Only the document ID bytes are limited to 2 GB, as their offsets are stored as ints.
+ * Instances only read the mapped chunks through absolute gets and are safe to share between threads.
+ * 
+ */
+public class TopicPostings {
+	private static final int MAGIC = 0x49524950;
+	private static final int CHUNK_BITS = 30;
+	private final MappedChunks buffer;
+	private final int numTopics;
+	private final int numDocs;
+	private final long topicTable;
+	private final long rangeTable;
+	private final long docTable;
+	private final long docBytes;
+	
+	private TopicPostings(MappedChunks buffer) throws IOException{
+		this.buffer = buffer;
+		if(buffer.size() < 12 || buffer.getInt(0) != MAGIC)
+			throw new IOException("Not a topic postings file");
+		numTopics = buffer.getInt(4);
+		numDocs = buffer.getInt(8);
+		topicTable = 12;
+		rangeTable = topicTable + (numTopics+1)*8L;
+		docTable = rangeTable + numTopics*8L;
+		docBytes = docTable + (numDocs+1)*4L;
+	}
+	
+	/**
+	 * memory-maps the given index file
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static TopicPostings open(File file) throws IOException{
+		return open(file, CHUNK_BITS);
+	}
+	
+	/**
+	 * memory-maps the given index file in chunks of <code>1 &lt;&lt; chunkBits</code> bytes
+	 * @param file
+	 * @param chunkBits
+	 * @return
+	 * @throws IOException
+	 */
+	static TopicPostings open(File file, int chunkBits) throws IOException{
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try{
+			FileChannel channel = raf.getChannel();
+			return new TopicPostings(new MappedChunks(channel, FileChannel.MapMode.READ_ONLY, channel.size(), chunkBits));
+		}finally{
+			raf.close();
+		}
+	}
+	
+	/**
+	 * writes the index file for the given theta objects <code>{document: id, topics: [{topic: id, prob: value}, ...]}</code>.
+	 * Theta is iterated twice and must return the same documents in the same order both times, as a
+	 * <code>DBCursor</code> over an unchanged collection does.
+	 * @param theta
+	 * @param file
+	 * @param minProb topic probability below which a document is not posted to a topic
+	 * @throws IOException if theta changed between the two passes
+	 */
+	public static void build(Iterable<DBObject> theta, File file, double minProb) throws IOException{
+		//-|=======================================
+		//-|1. Size the posting list of each topic
+		//-|	and find its probability range
+		//-|=======================================
+		List<ListWriter> lists = new ArrayList<ListWriter>();
+		List<String> docs = new ArrayList<String>();
+		for(DBObject obj : theta){
+			@SuppressWarnings("unchecked")
+			List<DBObject> topics = (List<DBObject>) obj.get("topics");
+			if(topics == null)
+				continue;
+			
+			int ordinal = docs.size();
+			docs.add(String.valueOf(obj.get("document")));
+			for(DBObject topic : topics){
+				int id = ((Number)topic.get("topic")).intValue();
+				double prob = ((Number)topic.get("prob")).doubleValue();
+				if(prob < minProb)
+					continue;
+				while(lists.size() <= id)
+					lists.add(new ListWriter());
+				lists.get(id).count(ordinal, prob);
+			}
+		}
+		
+		//-|=======================================
+		//-|2. Write the header, topic table and
+		//-|	document table
+		//-|=======================================
+		byte[][] docIds = new byte[docs.size()][];
+		long docLength = 0;
+		for(int d=0; d<docIds.length; d++){
+			docIds[d] = docs.get(d).getBytes("UTF-8");
+			docLength += docIds[d].length;
+		}
+		if(docLength > Integer.MAX_VALUE)
+			throw new IOException("Document IDs take "+docLength+" bytes, more than the 2 GB the document table can address");
+		int numTopics = lists.size();
+		long position = 12L + (numTopics+1)*8L + numTopics*8L + (docIds.length+1)*4L + docLength;
+		
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+		try{
+			out.writeInt(MAGIC);
+			out.writeInt(numTopics);
+			out.writeInt(docIds.length);
+			for(ListWriter list : lists){
+				out.writeLong(position);
+				position = list.start(position);
+			}
+			out.writeLong(position);
+			for(ListWriter list : lists){
+				out.writeFloat((float)list.quantizer.getMin());
+				out.writeFloat((float)list.quantizer.getMax());
+			}
+			
+			int offset = 0;
+			for(byte[] id : docIds){
+				out.writeInt(offset);
+				offset += id.length;
+			}
+			out.writeInt(offset);
+			for(byte[] id : docIds)
+				out.write(id);
+		}finally{
+			out.close();
+		}
+		
+		//-|=======================================
+		//-|3. Encode each posting in place while
+		//-|	theta is read again
+		//-|=======================================
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try{
+			raf.setLength(position);
+			MappedChunks chunks = new MappedChunks(raf.getChannel(), FileChannel.MapMode.READ_WRITE, position, CHUNK_BITS);
+			int ordinal = 0;
+			for(DBObject obj : theta){
+				@SuppressWarnings("unchecked")
+				List<DBObject> topics = (List<DBObject>) obj.get("topics");
+				if(topics == null)
+					continue;
+				if(ordinal == docIds.length)
+					throw new IOException("Theta returned more documents on the second pass");
+				
+				for(DBObject topic : topics){
+					int id = ((Number)topic.get("topic")).intValue();
+					double prob = ((Number)topic.get("prob")).doubleValue();
+					if(prob < minProb)
+						continue;
+					if(id >= lists.size() || !lists.get(id).write(chunks, ordinal, prob))
+						throw new IOException("Theta changed between the two passes at document "+docs.get(ordinal));
+				}
+				++ordinal;
+			}
+			for(ListWriter list : lists){
+				if(!list.finished())
+					throw new IOException("Theta returned fewer postings on the second pass");
+			}
+			chunks.force();
+		}finally{
+			raf.close();
+		}
+	}
+	
+	/**
+	 * returns the number of topics in the index
+	 * @return
+	 */
+	public int getNumTopics(){
+		return numTopics;
+	}
+	
+	/**
+	 * returns the number of documents in the index
+	 * @return
+	 */
+	public int getNumDocs(){
+		return numDocs;
+	}
+	
+	/**
+	 * returns the number of documents posted to the given topic
+	 * @param topic
+	 * @return
+	 */
+	public int size(int topic){
+		int count = 0;
+		Cursor cursor = new Cursor(topic);
+		while(cursor.next())
+			++count;
+		return count;
+	}
+	
+	/**
+	 * returns the documents with the highest probability for the given topic
+	 * @param topic
+	 * @param k maximum number of documents returned
+	 * @return a list of key-value maps (document: id, prob: value), highest probability first
+	 */
+	public List<BasicDBObject> top(int topic, int k){
+		return union(Arrays.asList(topic), k);
+	}
+	
+	/**
+	 * returns the documents posted to every given topic, ranked by the sum of their probabilities for those topics
+	 * @param topics
+	 * @param k maximum number of documents returned
+	 * @return a list of key-value maps (document: id, prob: summed value), highest first
+	 */
+	public List<BasicDBObject> intersect(List<Integer> topics, int k){
+		TopEntries<Integer> top = new TopEntries<Integer>(k);
+		Cursor[] cursors = cursors(topics);
+		if(cursors.length == 0)
+			return toList(top);
+		for(Cursor cursor : cursors){
+			if(!cursor.next())
+				return toList(top);
+		}
+		
+		//Advance every list to the largest current document until they all agree
+		int target = cursors[0].doc;
+		while(true){
+			boolean aligned = true;
+			for(Cursor cursor : cursors){
+				while(cursor.doc < target){
+					if(!cursor.next())
+						return toList(top);
+				}
+				if(cursor.doc > target){
+					target = cursor.doc;
+					aligned = false;
+				}
+			}
+			if(!aligned)
+				continue;
+			
+			double prob = 0;
+			for(Cursor cursor : cursors)
+				prob += cursor.prob();
+			if(prob > top.minScore())
+				top.offer(target, prob);
+			
+			if(!cursors[0].next())
+				return toList(top);
+			target = cursors[0].doc;
+		}
+	}
+	
+	/**
+	 * returns the documents posted to any of the given topics, ranked by the sum of their probabilities for those topics
+	 * @param topics
+	 * @param k maximum number of documents returned
+	 * @return a list of key-value maps (document: id, prob: summed value), highest first
+	 */
+	public List<BasicDBObject> union(List<Integer> topics, int k){
+		TopEntries<Integer> top = new TopEntries<Integer>(k);
+		Cursor[] cursors = cursors(topics);
+		int live = 0;
+		for(int i=0; i<cursors.length; i++){
+			if(cursors[i].next())
+				cursors[live++] = cursors[i];
+		}
+		
+		//Few topics are merged at once, so the smallest document is found by a scan
+		while(live > 0){
+			int doc = Integer.MAX_VALUE;
+			for(int i=0; i<live; i++)
+				doc = Math.min(doc, cursors[i].doc);
+			
+			double prob = 0;
+			for(int i=0; i<live; i++){
+				if(cursors[i].doc == doc){
+					prob += cursors[i].prob();
+					if(!cursors[i].next())
+						cursors[i--] = cursors[--live];
+				}
+			}
+			if(prob > top.minScore())
+				top.offer(doc, prob);
+		}
+		return toList(top);
+	}
+	
+	/**
+	 * builds the index file from the theta collection on the command line:
+	 * <code>TopicPostings host dbname file [minProb]</code>
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException{
+		if(args.length < 3){
+			System.err.println("Usage: TopicPostings host dbname file [minProb]");
+			return;
+		}
+		long start = System.currentTimeMillis();
+		LDAModel model = new LDAModel(new MongoInstance(args[0], args[1]));
+		build(model.getThetaEntries(), new File(args[2]), args.length > 3 ? Double.parseDouble(args[3]) : 0.01);
+		System.out.println("postings: "+new File(args[2]).length()+" bytes in "+(System.currentTimeMillis()-start)/1000+"s");
+	}
+	
+	//-|================================
+	//-|Private helper methods
+	//-|================================
+	private Cursor[] cursors(List<Integer> topics){
+		List<Cursor> cursors = new ArrayList<Cursor>();
+		for(Integer topic : topics){
+			if(topic != null && topic >= 0 && topic < numTopics)
+				cursors.add(new Cursor(topic));
+		}
+		return cursors.toArray(new Cursor[cursors.size()]);
+	}
+	
+	private List<BasicDBObject> toList(TopEntries<Integer> top){
+		double[] probs = new double[top.size()];
+		List<Integer> docs = top.sorted(probs);
+		List<BasicDBObject> result = new ArrayList<BasicDBObject>(docs.size());
+		for(int i=0; i<docs.size(); i++)
+			result.add(new BasicDBObject("document", getDocument(docs.get(i))).append("prob", probs[i]));
+		
+		return result;
+	}
+	
+	private String getDocument(int ordinal){
+		int start = buffer.getInt(docTable + ordinal*4L);
+		int end = buffer.getInt(docTable + (ordinal+1)*4L);
+		byte[] bytes = new byte[end-start];
+		for(int i=0; i<bytes.length; i++)
+			bytes[i] = buffer.get(docBytes + start + i);
+		try{
+			return new String(bytes, "UTF-8");
+		}catch(IOException e){
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	/**
+	 * Decodes one posting list with absolute reads from the shared buffer
+	 */
+	private class Cursor{
+		private long position;
+		private final long end;
+		private final ProbQuantizer quantizer;
+		int doc = -1;
+		int quantized;
+		
+		Cursor(int topic){
+			position = buffer.getLong(topicTable + topic*8L);
+			end = buffer.getLong(topicTable + (topic+1)*8L);
+			quantizer = new ProbQuantizer(ProbQuantizer.Mode.LOG8, buffer.getFloat(rangeTable + topic*8L), buffer.getFloat(rangeTable + topic*8L + 4));
+		}
+		
+		boolean next(){
+			if(position >= end)
+				return false;
+			int gap = 0;
+			int shift = 0;
+			byte b;
+			do{
+				b = buffer.get(position++);
+				gap |= (b & 0x7f) << shift;
+				shift += 7;
+			}while(b < 0);
+			doc += gap;
+			quantized = buffer.get(position++) & 0xff;
+			return true;
+		}
+		
+		double prob(){
+			return quantizer.decode(quantized);
+		}
+	}
+	
+	/**
+	 * Maps a file as consecutive chunks, each overlapping the next by eight bytes so that a value read at any
+	 * position lies within a single chunk
+	 */
+	static class MappedChunks{
+		private static final int OVERLAP = 8;
+		private final MappedByteBuffer[] chunks;
+		private final int chunkBits;
+		private final long mask;
+		private final long size;
+		
+		MappedChunks(FileChannel channel, FileChannel.MapMode mode, long size, int chunkBits) throws IOException{
+			this.chunkBits = chunkBits;
+			this.mask = (1L << chunkBits) - 1;
+			this.size = size;
+			chunks = new MappedByteBuffer[(int)((size + mask) >>> chunkBits)];
+			for(int i=0; i<chunks.length; i++){
+				long start = (long)i << chunkBits;
+				chunks[i] = channel.map(mode, start, Math.min(mask + 1 + OVERLAP, size - start));
+			}
+		}
+		
+		long size(){
+			return size;
+		}
+		
+		byte get(long position){
+			return chunks[(int)(position >>> chunkBits)].get((int)(position & mask));
+		}
+		
+		int getInt(long position){
+			return chunks[(int)(position >>> chunkBits)].getInt((int)(position & mask));
+		}
+		
+		long getLong(long position){
+			return chunks[(int)(position >>> chunkBits)].getLong((int)(position & mask));
+		}
+		
+		float getFloat(long position){
+			return chunks[(int)(position >>> chunkBits)].getFloat((int)(position & mask));
+		}
+		
+		void put(long position, int b){
+			chunks[(int)(position >>> chunkBits)].put((int)(position & mask), (byte)b);
+		}
+		
+		void force(){
+			for(MappedByteBuffer chunk : chunks)
+				chunk.force();
+		}
+	}
+	
+	/**
+	 * Tracks one posting list while the index is built: its length and probability range on the first pass of theta,
+	 * and the position of its next posting on the second
+	 */
+	private static class ListWriter{
+		private long length = 0;
+		private double min = Double.MAX_VALUE;
+		private double max = 0;
+		private int last = -1;
+		private long position;
+		private long end;
+		ProbQuantizer quantizer;
+		
+		void count(int ordinal, double prob){
+			length += varintLength(ordinal - last) + 1;
+			last = ordinal;
+			if(prob > 0){
+				min = Math.min(min, prob);
+				max = Math.max(max, prob);
+			}
+		}
+		
+		long start(long position){
+			//Range is taken from the float values stored in the file so encoding and decoding agree
+			quantizer = new ProbQuantizer(ProbQuantizer.Mode.LOG8, max == 0 ? 0 : (float)min, (float)max);
+			this.position = position;
+			this.end = position + length;
+			this.last = -1;
+			return end;
+		}
+		
+		boolean write(MappedChunks chunks, int ordinal, double prob){
+			int gap = ordinal - last;
+			if(gap < 0 || position + varintLength(gap) + 1 > end)
+				return false;
+			last = ordinal;
+			while((gap & ~0x7f) != 0){
+				chunks.put(position++, (gap & 0x7f) | 0x80);
+				gap >>>= 7;
+			}
+			chunks.put(position++, gap);
+			chunks.put(position++, quantizer.encode(prob));
+			return true;
+		}
+		
+		boolean finished(){
+			return position == end;
+		}
+		
+		private static int varintLength(int value){
+			int length = 1;
+			while((value & ~0x7f) != 0){
+				value >>>= 7;
+				++length;
+			}
+			return length;
+		}
+	}
+}
@@ -0,0 +1,290 @@
+/**
+* Copyright (c) 2011, Lawrence Livermore National Security, LLC. 
+* Produced at the Lawrence Livermore National Laboratory. 
+* Written by Kevin Lawrence, lawrence22@llnl.gov
+* Under the guidance of: 
+* David Andrzejewski, andrzejewski1@llnl.gov
+* David Buttler, buttler1@llnl.gov 
+* LLNL-CODE-521811 All rights reserved. This file is part of IRIS
+*
+* This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+* License (as published by the Free Software Foundation) version 2, dated June 1991. This program is distributed in the
+* hope that it will be useful, but WITHOUT ANY WARRANTY; without even the IMPLIED WARRANTY OF MERCHANTABILITY or
+* FITNESS FOR A PARTICULAR PURPOSE. See the terms and conditions of the GNU General Public License for more details.
+* You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+* Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA For full text see license.txt
+*
+*
+*/
+package gov.llnl.iscr.iris;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+/**
+ * 
+ * In-memory index over theta for "more like this" searches by topic distribution.
+ * Every document's topic vector is held sparsely, L2-normalized, in flat primitive arrays, so the similarity
+ * of two documents is the cosine of their topic distributions. An inverted index maps each topic to the documents
+ * for which it is one of their dominant topics, sorted by probability descending.
+ * <p>A search builds a dense query vector, collects candidates from the posting lists of the query's dominant topics
+ * (at most <code>maxCandidates</code> per topic, highest probability first) and scores each candidate once
+ * with a dot product of its sparse vector against the dense query vector:
+ * <blockquote><pre>
+ * TopicSimilarityIndex index = new TopicSimilarityIndex(model, 3);
+ * List&lt;BasicDBObject&gt; similar = index.similar("LA092590-0030", 10);
+ * </pre></blockquote>
+ * The index is immutable once built and safe to share between threads.
+ * 
+ */
+public class TopicSimilarityIndex {
+	private final Object[] documents;
+	private final Map<Object, Integer> ordinals;
+	private final int[] docOffsets;
+	private final int[] topicIds;
+	private final float[] probs;
+	private final int[] postingOffsets;
+	private final int[] postings;
+	private final int numTopics;
+	private final int dominantTopics;
+	private int maxCandidates = 20000;
+	private final ThreadLocal<int[]> marks = new ThreadLocal<int[]>();
+	
+	/**
+	 * builds the index from the theta collection of the given model
+	 * @param model
+	 * @param dominantTopics number of highest probability topics of a document that are indexed
+	 */
+	public TopicSimilarityIndex(LDAModel model, int dominantTopics){
+		this(model.getThetaEntries(), dominantTopics);
+	}
+	
+	/**
+	 * builds the index from theta objects <code>{document: id, topics: [{topic: id, prob: value}, ...]}</code>
+	 * @param theta
+	 * @param dominantTopics number of highest probability topics of a document that are indexed
+	 */
+	public TopicSimilarityIndex(Iterator<DBObject> theta, int dominantTopics){
+		this.dominantTopics = dominantTopics;
+		
+		//-|=======================================
+		//-|1. Read the sparse, normalized topic
+		//-|	vectors into flat arrays
+		//-|=======================================
+		List<Object> docs = new ArrayList<Object>();
+		ordinals = new HashMap<Object, Integer>();
+		int[] offsets = new int[1024];
+		int[] ids = new int[4096];
+		float[] values = new float[4096];
+		int entries = 0;
+		int maxTopic = -1;
+		while(theta.hasNext()){
+			DBObject obj = theta.next();
+			@SuppressWarnings("unchecked")
+			List<DBObject> topics = (List<DBObject>) obj.get("topics");
+			if(topics == null)
+				continue;
+			
+			if(entries + topics.size() > ids.length){
+				int cap = Math.max(ids.length*2, entries+topics.size());
+				ids = Arrays.copyOf(ids, cap);
+				values = Arrays.copyOf(values, cap);
+			}
+			int start = entries;
+			double norm = 0;
+			for(DBObject topic : topics){
+				int id = ((Number)topic.get("topic")).intValue();
+				double prob = ((Number)topic.get("prob")).doubleValue();
+				if(prob <= 0)
+					continue;
+				ids[entries] = id;
+				values[entries++] = (float)prob;
+				norm += prob*prob;
+				maxTopic = Math.max(maxTopic, id);
+			}
+			norm = Math.sqrt(norm);
+			sortByProb(ids, values, start, entries);
+			for(int j=start; j<entries; j++)
+				values[j] /= norm;
+			
+			int ordinal = docs.size();
+			if(ordinal+1 >= offsets.length)
+				offsets = Arrays.copyOf(offsets, offsets.length*2);
+			docs.add(obj.get("document"));
+			ordinals.put(obj.get("document"), ordinal);
+			offsets[ordinal+1] = entries;
+		}
+		documents = docs.toArray();
+		docOffsets = Arrays.copyOf(offsets, documents.length+1);
+		topicIds = Arrays.copyOf(ids, entries);
+		probs = Arrays.copyOf(values, entries);
+		numTopics = maxTopic+1;
+		
+		//-|=======================================
+		//-|2. Build the inverted index over the
+		//-|	dominant topics of each document
+		//-|=======================================
+		postingOffsets = new int[numTopics+1];
+		for(int d=0; d<documents.length; d++){
+			for(int j=docOffsets[d]; j<dominantEnd(d); j++)
+				++postingOffsets[topicIds[j]+1];
+		}
+		for(int t=0; t<numTopics; t++)
+			postingOffsets[t+1] += postingOffsets[t];
+		
+		//Entries pack (prob bits, ordinal) into a long; the bits of positive floats sort like the floats
+		long[] packed = new long[postingOffsets[numTopics]];
+		int[] fill = Arrays.copyOf(postingOffsets, numTopics);
+		for(int d=0; d<documents.length; d++){
+			for(int j=docOffsets[d]; j<dominantEnd(d); j++)
+				packed[fill[topicIds[j]]++] = ((long)Float.floatToIntBits(probs[j]) << 32) | d;
+		}
+		postings = new int[packed.length];
+		for(int t=0; t<numTopics; t++){
+			int start = postingOffsets[t], end = postingOffsets[t+1];
+			Arrays.sort(packed, start, end);
+			for(int p=start; p<end; p++)
+				postings[start + end-1-p] = (int)packed[p];
+		}
+	}
+	
+	/**
+	 * sets the maximum number of candidates taken from the posting list of each query topic
+	 * @param maxCandidates
+	 * @return
+	 */
+	public TopicSimilarityIndex setMaxCandidates(int maxCandidates){
+		this.maxCandidates = maxCandidates;
+		return this;
+	}
+	
+	/**
+	 * returns the number of documents in the index
+	 * @return
+	 */
+	public int size(){
+		return documents.length;
+	}
+	
+	/**
+	 * returns the documents whose topic distributions are most similar to that of the given document, the document itself excluded
+	 * @param docid document ID used in theta
+	 * @param k maximum number of documents returned
+	 * @return a list of key-value maps (document: id, score: cosine similarity), most similar first;
+	 * empty if the document is not indexed
+	 */
+	public List<BasicDBObject> similar(Object docid, int k){
+		Integer ordinal = ordinals.get(docid);
+		if(ordinal == null)
+			return new ArrayList<BasicDBObject>();
+		
+		float[] query = new float[numTopics];
+		for(int j=docOffsets[ordinal]; j<docOffsets[ordinal+1]; j++)
+			query[topicIds[j]] = probs[j];
+		
+		int[] queryTopics = Arrays.copyOfRange(topicIds, docOffsets[ordinal], dominantEnd(ordinal));
+		return search(query, queryTopics, ordinal, k);
+	}
+	
+	/**
+	 * returns the documents whose topic distributions are most similar to the given one
+	 * @param topics a list of key-value maps (topic: id, prob: value)
+	 * @param k maximum number of documents returned
+	 * @return a list of key-value maps (document: id, score: cosine similarity), most similar first
+	 */
+	public List<BasicDBObject> similar(List<DBObject> topics, int k){
+		float[] query = new float[numTopics];
+		int[] ids = new int[topics.size()];
+		float[] values = new float[topics.size()];
+		int n = 0;
+		double norm = 0;
+		for(DBObject topic : topics){
+			int id = ((Number)topic.get("topic")).intValue();
+			double prob = ((Number)topic.get("prob")).doubleValue();
+			if(id < 0 || id >= numTopics || prob <= 0)
+				continue;
+			ids[n] = id;
+			values[n++] = (float)prob;
+			norm += prob*prob;
+		}
+		norm = Math.sqrt(norm);
+		for(int j=0; j<n; j++)
+			query[ids[j]] = (float)(values[j] / norm);
+		
+		sortByProb(ids, values, 0, n);
+		return search(query, Arrays.copyOf(ids, Math.min(n, dominantTopics)), -1, k);
+	}
+	
+	//-|================================
+	//-|Private helper methods
+	//-|================================
+	private List<BasicDBObject> search(float[] query, int[] queryTopics, int exclude, int k){
+		//Documents are marked with a per-search stamp, kept in the last slot, so the array never needs clearing
+		int[] seen = marks.get();
+		if(seen == null){
+			seen = new int[documents.length+1];
+			marks.set(seen);
+		}
+		int mark = ++seen[documents.length];
+		if(mark == Integer.MAX_VALUE){
+			Arrays.fill(seen, 0);
+			seen[documents.length] = mark = 1;
+		}
+		if(exclude >= 0)
+			seen[exclude] = mark;
+		
+		TopEntries<Integer> top = new TopEntries<Integer>(k);
+		for(int topic : queryTopics){
+			int end = Math.min(postingOffsets[topic+1], postingOffsets[topic] + maxCandidates);
+			for(int p=postingOffsets[topic]; p<end; p++){
+				int d = postings[p];
+				if(seen[d] == mark)
+					continue;
+				seen[d] = mark;
+				
+				float score = 0f;
+				for(int j=docOffsets[d]; j<docOffsets[d+1]; j++)
+					score += query[topicIds[j]] * probs[j];
+				if(score > top.minScore())
+					top.offer(d, score);
+			}
+		}
+		
+		double[] scores = new double[top.size()];
+		List<Integer> ranked = top.sorted(scores);
+		List<BasicDBObject> result = new ArrayList<BasicDBObject>(ranked.size());
+		for(int i=0; i<ranked.size(); i++)
+			result.add(new BasicDBObject("document", documents[ranked.get(i)]).append("score", scores[i]));
+		
+		return result;
+	}
+	
+	private int dominantEnd(int d){
+		return Math.min(docOffsets[d+1], docOffsets[d] + dominantTopics);
+	}
+	
+	/**
+	 * insertion sort of a range of parallel arrays by value descending; used on the (short) topic list of a document
+	 */
+	private static void sortByProb(int[] ids, float[] values, int start, int end){
+		for(int i=start+1; i<end; i++){
+			float v = values[i];
+			int id = ids[i];
+			int j = i-1;
+			while(j >= start && values[j] < v){
+				values[j+1] = values[j];
+				ids[j+1] = ids[j];
+				--j;
+			}
+			values[j+1] = v;
+			ids[j+1] = id;
+		}
+	}
+}
@@ -0,0 +1,67 @@
+/**
+* Copyright (c) 2011, Lawrence Livermore National Security, LLC. 
+* Produced at the Lawrence Livermore National Laboratory. 
+* Written by Kevin Lawrence, lawrence22@llnl.gov
+* Under the guidance of: 
+* David Andrzejewski, andrzejewski1@llnl.gov
+* David Buttler, buttler1@llnl.gov 
+* LLNL-CODE-521811 All rights reserved. This file is part of IRIS
+*
+* This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+* License (as published by the Free Software Foundation) version 2, dated June 1991. This program is distributed in the
+* hope that it will be useful, but WITHOUT ANY WARRANTY; without even the IMPLIED WARRANTY OF MERCHANTABILITY or
+* FITNESS FOR A PARTICULAR PURPOSE. See the terms and conditions of the GNU General Public License for more details.
+* You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+* Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA For full text see license.txt
+*
+*
+*/
+package gov.llnl.iscr.iris;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+public class BoostQueryBuilderTest extends TestCase {
+
+	public void testSum() {
+		BoostQueryBuilder builder = new BoostQueryBuilder(BoostQueryBuilder.Merge.SUM);
+		builder.addAll(Arrays.asList("policy", "environmental"), 1.0F);
+		builder.addAll(Arrays.asList("policy", "public"), 0.5F);
+		
+		Map<String, Float> expected = new LinkedHashMap<String, Float>();
+		expected.put("policy", 1.5F);
+		expected.put("environmental", 1.0F);
+		expected.put("public", 0.5F);
+		assertEquals(expected, builder.build('+'));
+		assertEquals(3, builder.size());
+	}
+	
+	public void testMaxNegative() {
+		BoostQueryBuilder builder = new BoostQueryBuilder(BoostQueryBuilder.Merge.MAX);
+		builder.add("policy", 0.5F).add("court", 1.0F).add("policy", 2.0F).add("-court", 3.0F);
+		assertEquals(2, builder.size());
+		
+		Map<String, Float> expected = new LinkedHashMap<String, Float>();
+		expected.put("-policy", 2.0F);
+		expected.put("-court", 3.0F);
+		assertEquals(expected, builder.build('-'));
+		
+		expected.clear();
+		expected.put("policy", 2.0F);
+		expected.put("court", 3.0F);
+		assertEquals(expected, builder.build('+'));
+	}
+	
+	public void testBudget() {
+		BoostQueryBuilder builder = new BoostQueryBuilder(BoostQueryBuilder.Merge.SUM);
+		builder.add("policy", 0.04F).add("court", 0.01F).add("environmental", 0.03F).add("policy", 0.04F);
+		
+		Map<String, Float> expected = new LinkedHashMap<String, Float>();
+		expected.put("policy", 2.0F);
+		expected.put("environmental", 0.75F);
+		assertEquals(expected, builder.build('+', 2, 2.0F));
+	}
+}
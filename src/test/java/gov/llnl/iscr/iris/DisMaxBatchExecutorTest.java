@@ -0,0 +1,101 @@
+/**
+* Copyright (c) 2011, Lawrence Livermore National Security, LLC. 
+* Produced at the Lawrence Livermore National Laboratory. 
+* Written by Kevin Lawrence, lawrence22@llnl.gov
+* Under the guidance of: 
+* David Andrzejewski, andrzejewski1@llnl.gov
+* David Buttler, buttler1@llnl.gov 
+* LLNL-CODE-521811 All rights reserved. This file is part of IRIS
+*
+* This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+* License (as published by the Free Software Foundation) version 2, dated June 1991. This program is distributed in the
+* hope that it will be useful, but WITHOUT ANY WARRANTY; without even the IMPLIED WARRANTY OF MERCHANTABILITY or
+* FITNESS FOR A PARTICULAR PURPOSE. See the terms and conditions of the GNU General Public License for more details.
+* You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+* Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA For full text see license.txt
+*
+*
+*/
+package gov.llnl.iscr.iris;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.util.NamedList;
+
+import junit.framework.TestCase;
+
+public class DisMaxBatchExecutorTest extends TestCase {
+	
+	/**
+	 * answers each query after sleeping the number of milliseconds given in its q param
+	 */
+	private static class SleepingServer extends SolrServer {
+		private static final long serialVersionUID = 1L;
+		
+		public NamedList<Object> request(SolrRequest request) throws SolrServerException {
+			try{
+				Thread.sleep(Long.parseLong(request.getParams().get("q")));
+			}catch(InterruptedException e){
+				throw new SolrServerException(e);
+			}
+			NamedList<Object> response = new NamedList<Object>();
+			response.add("q", request.getParams().get("q"));
+			return response;
+		}
+	}
+	
+	public void testRun() throws InterruptedException {
+		List<DisMaxQuery> queries = new ArrayList<DisMaxQuery>();
+		for(String sleep : new String[]{"50", "1", "2000", "1", "30"})
+			queries.add(new DisMaxQuery(sleep));
+		
+		final List<Integer> ok = new ArrayList<Integer>();
+		final List<Integer> failed = new ArrayList<Integer>();
+		DisMaxBatchExecutor executor = new DisMaxBatchExecutor(new SleepingServer(), 3, 500);
+		DisMaxBatchExecutor.Summary summary = executor.run(queries.iterator(), new DisMaxBatchExecutor.Listener(){
+			public void onResponse(int index, SolrParams query, QueryResponse response){
+				ok.add(index);
+			}
+			public void onError(int index, SolrParams query, Exception e){
+				assertTrue(e instanceof TimeoutException);
+				failed.add(index);
+			}
+		});
+		executor.shutdown();
+		
+		assertEquals(5, summary.getSubmitted());
+		assertEquals(4, summary.getSucceeded());
+		assertEquals(1, summary.getTimedOut());
+		assertEquals(Collections.singletonList(2), failed);
+		assertEquals(4, ok.size());
+		assertTrue(ok.indexOf(1) < ok.indexOf(0));
+		assertTrue(summary.getElapsedMillis() < 2000);
+	}
+	
+	public void testPooledServerTimeout() throws IOException {
+		//The socket accepts connections but never answers
+		ServerSocket silent = new ServerSocket(0);
+		try{
+			SolrServer server = DisMaxBatchExecutor.pooledServer("http://127.0.0.1:"+silent.getLocalPort()+"/solr", 1, 200);
+			long start = System.currentTimeMillis();
+			try{
+				server.query(new DisMaxQuery("policy"));
+				fail("expected SolrServerException");
+			}catch(SolrServerException e){
+				assertTrue(System.currentTimeMillis() - start < 5000);
+			}
+		}finally{
+			silent.close();
+		}
+	}
+}
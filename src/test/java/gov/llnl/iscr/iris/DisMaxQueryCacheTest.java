@@ -0,0 +1,112 @@
+/**
+* Copyright (c) 2011, Lawrence Livermore National Security, LLC. 
+* Produced at the Lawrence Livermore National Laboratory. 
+* Written by Kevin Lawrence, lawrence22@llnl.gov
+* Under the guidance of: 
+* David Andrzejewski, andrzejewski1@llnl.gov
+* David Buttler, buttler1@llnl.gov 
+* LLNL-CODE-521811 All rights reserved. This file is part of IRIS
+*
+* This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+* License (as published by the Free Software Foundation) version 2, dated June 1991. This program is distributed in the
+* hope that it will be useful, but WITHOUT ANY WARRANTY; without even the IMPLIED WARRANTY OF MERCHANTABILITY or
+* FITNESS FOR A PARTICULAR PURPOSE. See the terms and conditions of the GNU General Public License for more details.
+* You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+* Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA For full text see license.txt
+*
+*
+*/
+package gov.llnl.iscr.iris;
+
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.impl.CommonsHttpSolrServer;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.util.NamedList;
+
+import junit.framework.TestCase;
+
+public class DisMaxQueryCacheTest extends TestCase {
+	private long time = 0;
+	private SolrServer server = server();
+	private DisMaxQueryCache cache = new DisMaxQueryCache(2, 1000){
+		protected long now(){
+			return time;
+		}
+	};
+	
+	public void testKey() {
+		DisMaxQuery first = new DisMaxQuery("environmental policy");
+		first.setQueryFields("text", "title");
+		first.setBoostQuery("impact").addBoostQuery("government");
+		first.addFilterQuery("year:2011", "type:article");
+		
+		DisMaxQuery second = new DisMaxQuery("environmental policy");
+		second.addFilterQuery("type:article", "year:2011");
+		second.setQueryFields("title", "text");
+		second.setBoostQuery("government").addBoostQuery("impact");
+		
+		assertEquals(DisMaxQueryCache.key(first), DisMaxQueryCache.key(second));
+		second.setStart(10);
+		assertFalse(DisMaxQueryCache.key(first).equals(DisMaxQueryCache.key(second)));
+	}
+	
+	public void testKeyEscaping() {
+		ModifiableSolrParams joined = new ModifiableSolrParams();
+		joined.set("q", "x&rows=10");
+		ModifiableSolrParams separate = new ModifiableSolrParams();
+		separate.set("q", "x");
+		separate.set("rows", "10");
+		assertFalse(DisMaxQueryCache.key(joined).equals(DisMaxQueryCache.key(separate)));
+		
+		ModifiableSolrParams multi = new ModifiableSolrParams();
+		multi.set("fq", "a", "b");
+		ModifiableSolrParams single = new ModifiableSolrParams();
+		single.set("fq", "a&fq=b");
+		assertFalse(DisMaxQueryCache.key(multi).equals(DisMaxQueryCache.key(single)));
+	}
+	
+	public void testEviction() {
+		QueryResponse response = new QueryResponse();
+		DisMaxQuery a = new DisMaxQuery("a"), b = new DisMaxQuery("b"), c = new DisMaxQuery("c");
+		cache.put(server, a, response);
+		cache.put(server, b, response);
+		assertSame(response, cache.get(server, a));
+		cache.put(server, c, response);
+		assertNull(cache.get(server, b));
+		assertSame(response, cache.get(server, a));
+		
+		time = 1001;
+		assertNull(cache.get(server, a));
+		assertEquals(1, cache.size());
+		
+		cache.setIndexVersion(7);
+		assertEquals(0, cache.size());
+		assertEquals(2, cache.getHits());
+		assertEquals(2, cache.getMisses());
+	}
+	
+	public void testServers() throws Exception {
+		SolrServer first = server(), second = server();
+		DisMaxQuery query = new DisMaxQuery("environmental policy");
+		QueryResponse response = cache.query(first, query);
+		assertSame(response, cache.query(first, query));
+		assertNotSame(response, cache.query(second, query));
+		assertEquals(1, cache.getHits());
+		
+		cache.clear();
+		cache.put(new CommonsHttpSolrServer("http://localhost:8983/solr/core0"), query, response);
+		assertSame(response, cache.get(new CommonsHttpSolrServer("http://localhost:8983/solr/core0"), query));
+		assertNull(cache.get(new CommonsHttpSolrServer("http://localhost:8983/solr/core1"), query));
+	}
+	
+	private static SolrServer server() {
+		return new SolrServer(){
+			private static final long serialVersionUID = 1L;
+			public NamedList<Object> request(SolrRequest request) {
+				return new NamedList<Object>();
+			}
+		};
+	}
+}
@@ -0,0 +1,65 @@
+/**
+* Copyright (c) 2011, Lawrence Livermore National Security, LLC. 
+* Produced at the Lawrence Livermore National Laboratory. 
+* Written by Kevin Lawrence, lawrence22@llnl.gov
+* Under the guidance of: 
+* David Andrzejewski, andrzejewski1@llnl.gov
+* David Buttler, buttler1@llnl.gov 
+* LLNL-CODE-521811 All rights reserved. This file is part of IRIS
+*
+* This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+* License (as published by the Free Software Foundation) version 2, dated June 1991. This program is distributed in the
+* hope that it will be useful, but WITHOUT ANY WARRANTY; without even the IMPLIED WARRANTY OF MERCHANTABILITY or
+* FITNESS FOR A PARTICULAR PURPOSE. See the terms and conditions of the GNU General Public License for more details.
+* You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+* Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA For full text see license.txt
+*
+*
+*/
+package gov.llnl.iscr.iris;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+
+import junit.framework.TestCase;
+
+public class DisMaxQueryTemplateTest extends TestCase {
+	private DisMaxQueryTemplate template;
+	
+	protected void setUp(){
+		DisMaxQuery prototype = new DisMaxQuery();
+		prototype.setQueryFields("text", "title");
+		prototype.setBoostQuery("impact");
+		prototype.setHighlights(3, "text");
+		template = new DisMaxQueryTemplate(prototype);
+	}
+	
+	public void testNewQuery() throws UnsupportedEncodingException {
+		DisMaxQuery query = template.newQuery("environmental policy");
+		assertEquals("q=environmental policy&defType=dismax&qf=text^1.0 title^1.0&bq=impact^1.0&hl=true&hl.fl=text&hl.snippets=3", 
+				URLDecoder.decode(query.toString(), "UTF-8"));
+	}
+	
+	public void testCopyOnWrite() {
+		DisMaxQuery first = template.newQuery("environmental policy");
+		first.addBoostQuery("government", 2.0F);
+		first.addQueryField("body");
+		DisMaxQuery second = template.newQuery("supreme court");
+		
+		assertEquals("impact^1.0 government^2.0", first.get("bq"));
+		assertEquals("text^1.0 title^1.0 body^1.0", first.get("qf"));
+		assertEquals("impact^1.0", second.get("bq"));
+		assertEquals("text^1.0 title^1.0", second.get("qf"));
+		assertEquals(1, second.getBoostQuery().get("").size());
+	}
+	
+	public void testParamsCopied() {
+		DisMaxQuery first = template.newQuery("environmental policy");
+		first.getParams("hl.fl")[0] = "title";
+		template.getParams().get("qf")[0] = "body^1.0";
+		
+		DisMaxQuery second = template.newQuery("supreme court");
+		assertEquals("text", second.get("hl.fl"));
+		assertEquals("text^1.0 title^1.0", second.get("qf"));
+	}
+}
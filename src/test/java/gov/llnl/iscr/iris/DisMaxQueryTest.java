@@ -133,6 +133,67 @@ public class DisMaxQueryTest extends TestCase {
 		assertEquals(qstr.toString(), parseQuery());
 	}
 	
+	public void testAddTopicBoost() {
+		query.addTopicBoost(134, 2.0F);
+		query.addBoostQuery("government");
+		String qstr = "q=environmental policy&defType=dismax&qf=text^1.0&bq=impact^1.0 government^1.0&bq={!topic f=topics b=2.0}134";
+		
+		assertEquals(qstr.toString(), parseQuery());
+		
+		query.clearTopicBoosts();
+		assertEquals("q=environmental policy&defType=dismax&qf=text^1.0&bq=impact^1.0 government^1.0", parseQuery());
+	}
+	
+	public void testAddExclusionFilter() {
+		query.addExclusionFilter("text", Arrays.asList("policy", "court", "-policy", "u.s."));
+		query.addExclusionFilter("text", Arrays.asList("u.s.", "court", "policy"));
+		assertEquals("q=environmental policy&defType=dismax&qf=text^1.0&bq=impact^1.0&fq=-text:(court OR policy OR u.s.)", parseQuery());
+	}
+	
+	public void testToProbeQuery() throws UnsupportedEncodingException {
+		query.setHighlights(3, "text");
+		query.setStart(20);
+		query.addFilterQuery("year:2011");
+		DisMaxQuery probe = query.toProbeQuery(10);
+		assertEquals("q=environmental policy&defType=dismax&qf=text^1.0&bq=impact^1.0&start=0&fq=year:2011&fl=id,score&rows=10&hl=false&facet=false", 
+				URLDecoder.decode(probe.toString(), "UTF-8"));
+		assertEquals("20", query.get("start"));
+		assertEquals("true", query.get("hl"));
+	}
+	
+	public void testLazyRendering() {
+		for(int i=0; i<1000; i++)
+			query.addBoostQuery("w"+i, 0.5F);
+		assertTrue(query.get("bq").startsWith("impact^1.0 w0^0.5 w1^0.5"));
+		assertTrue(query.get("bq").endsWith("w999^0.5"));
+		
+		query.addQueryField("title", 2.0F);
+		assertEquals("text^1.0 title^2.0", query.get("qf"));
+		
+		query.set("bq", "custom^3.0");
+		assertEquals("custom^3.0", query.get("bq"));
+	}
+	
+	public void testConcurrentReads() throws InterruptedException {
+		for(int i=0; i<1000; i++)
+			query.addBoostQuery("w"+i, 0.5F);
+		final String[] keys = new String[4];
+		Thread[] readers = new Thread[keys.length];
+		for(int t=0; t<readers.length; t++){
+			final int index = t;
+			readers[t] = new Thread(){
+				public void run(){
+					keys[index] = DisMaxQueryCache.key(query);
+				}
+			};
+			readers[t].start();
+		}
+		for(Thread reader : readers)
+			reader.join();
+		for(String key : keys)
+			assertEquals(DisMaxQueryCache.key(query), key);
+	}
+	
 	private String parseQuery(){
 		String dismaxquery = new String();
 		try {
@@ -0,0 +1,166 @@
+/**
+* Copyright (c) 2011, Lawrence Livermore National Security, LLC. 
+* Produced at the Lawrence Livermore National Laboratory. 
+* Written by Kevin Lawrence, lawrence22@llnl.gov
+* Under the guidance of: 
+* David Andrzejewski, andrzejewski1@llnl.gov
+* David Buttler, buttler1@llnl.gov 
+* LLNL-CODE-521811 All rights reserved. This file is part of IRIS
+*
+* This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+* License (as published by the Free Software Foundation) version 2, dated June 1991. This program is distributed in the
+* hope that it will be useful, but WITHOUT ANY WARRANTY; without even the IMPLIED WARRANTY OF MERCHANTABILITY or
+* FITNESS FOR A PARTICULAR PURPOSE. See the terms and conditions of the GNU General Public License for more details.
+* You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+* Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA For full text see license.txt
+*
+*
+*/
+package gov.llnl.iscr.iris;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.apache.solr.request.SolrQueryRequest;
+import org.apache.solr.request.SolrQueryRequestBase;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+
+import junit.framework.TestCase;
+
+public class IrisSearchComponentTest extends TestCase {
+	private IrisSearchComponent component;
+
+	protected void setUp() {
+		LDAModel model = new LDAModel();
+		model.cacheUnigrams(topic(134, "policy", "environmental", "impact", "government", "public"));
+		model.cacheUnigrams(topic(474, "court", "judge", "trial", "jury", "policy"));
+		component = new IrisSearchComponent(model);
+	}
+
+	public void testExpansion() {
+		SolrQueryRequest req = request("134, 474");
+		NamedList<Object> section = component.expand(req, Collections.emptyList());
+		
+		assertEquals(Arrays.asList("134", "474"), section.get("expansionTopics"));
+		String[] bqs = req.getParams().getParams(DisMaxQuery.DisMaxParams.BQ);
+		assertEquals(2, bqs.length);
+		assertEquals("existing", bqs[0]);
+		assertEquals(Arrays.asList(bqs[1]), section.get("bq"));
+		for(String word : new String[]{"policy", "environmental", "impact", "government", "public", "court", "judge", "trial", "jury"})
+			assertTrue(bqs[1].contains(word));
+		assertEquals(bqs[1].indexOf("policy"), bqs[1].lastIndexOf("policy"));
+	}
+
+	public void testClauseBudget() {
+		ModifiableSolrParams params = new ModifiableSolrParams(request("474").getParams());
+		params.set(IrisSearchComponent.CLAUSES, 2);
+		params.set(IrisSearchComponent.FIELD, "title");
+		SolrQueryRequest req = new SolrQueryRequestBase(null, params){};
+		component.expand(req, Collections.emptyList());
+		
+		String bq = req.getParams().getParams(DisMaxQuery.DisMaxParams.BQ)[1];
+		assertTrue(bq.startsWith("title:court"));
+		assertTrue(bq.contains("judge"));
+		assertFalse(bq.contains("jury"));
+	}
+
+	public void testBadTopics() {
+		for(String topics : new String[]{"134,999", "134,abc"}){
+			try {
+				component.expand(request(topics), Collections.emptyList());
+				fail("expected SolrException for "+topics);
+			} catch(SolrException e) {
+				assertEquals(SolrException.ErrorCode.BAD_REQUEST.code, e.code());
+			}
+		}
+	}
+
+	public void testSparseRelatedTopics() {
+		LDAModel model = model(new int[]{134}, new int[]{474});
+		model.cacheUnigrams(topic(134, "policy", "environmental", "impact", "government", "public"));
+		model.cacheUnigrams(topic(474, "court", "judge", "trial", "jury", "policy"));
+		NamedList<Object> section = new IrisSearchComponent(model).expand(request(), Arrays.<Object>asList("doc1"));
+		
+		assertEquals(Arrays.asList(134, 474), section.get("latentTopics"));
+		assertEquals(Arrays.asList("134"), section.get("expansionTopics"));
+	}
+
+	public void testMissingEnrichedTopic() {
+		LDAModel model = model(new int[]{134, 999}, new int[0]);
+		model.cacheUnigrams(topic(134, "policy", "environmental", "impact", "government", "public"));
+		try {
+			new IrisSearchComponent(model).expand(request(), Arrays.<Object>asList("doc1"));
+			fail("expected SolrException for topic 999");
+		} catch(SolrException e) {
+			assertEquals(SolrException.ErrorCode.SERVER_ERROR.code, e.code());
+		}
+	}
+
+	private static SolrQueryRequest request(String topics) {
+		ModifiableSolrParams params = new ModifiableSolrParams();
+		params.set(IrisSearchComponent.IRIS, true);
+		params.set(IrisSearchComponent.TOPICS, topics);
+		params.set(DisMaxQuery.DisMaxParams.BQ, "existing");
+		return new SolrQueryRequestBase(null, params){};
+	}
+
+	private static SolrQueryRequest request() {
+		ModifiableSolrParams params = new ModifiableSolrParams();
+		params.set(IrisSearchComponent.IRIS, true);
+		return new SolrQueryRequestBase(null, params){};
+	}
+
+	/**
+	 * returns a model whose every document has the given topics and whose every topic has the given co-topics,
+	 * with no junk topics
+	 */
+	private static LDAModel model(final int[] topics, final int[] cotopics) {
+		return new LDAModel(){
+			public DBObject getTopics(Object docid) {
+				double[] probs = new double[topics.length];
+				for(int i=0; i<topics.length; i++)
+					probs[i] = 0.6 - i*0.1;
+				return ThetaFixture.doc(docid, topics, probs);
+			}
+			public DBCursor getTopicsLessThan(List<Integer> semcoArgs, double threshold) {
+				return cursor(new ArrayList<DBObject>());
+			}
+			public List<DBCursor> getRelatedTopics(List<Integer> enrichedSet) {
+				List<DBCursor> curList = new ArrayList<DBCursor>();
+				for(Integer id : enrichedSet){
+					List<DBObject> list = new ArrayList<DBObject>();
+					for(int cotopic : cotopics)
+						list.add(new BasicDBObject("topic", id).append("cotopic", cotopic));
+					curList.add(cursor(list));
+				}
+				return curList;
+			}
+		};
+	}
+
+	private static DBCursor cursor(final List<DBObject> objs) {
+		return new DBCursor(null, null, null){
+			public boolean hasNext() {
+				return false;
+			}
+			public List<DBObject> toArray() {
+				return objs;
+			}
+		};
+	}
+
+	private static DBObject topic(int id, String... words) {
+		List<DBObject> list = new ArrayList<DBObject>();
+		for(int i=0; i<words.length; i++)
+			list.add(new BasicDBObject("word", words[i]).append("prob", 0.1 - i*0.01));
+		return new BasicDBObject("topic", id).append("words", list);
+	}
+}
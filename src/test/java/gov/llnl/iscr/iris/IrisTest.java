@@ -26,10 +26,14 @@ import java.io.InputStream;
 import java.io.ObjectInput;
 import java.io.ObjectInputStream;
 import java.net.MalformedURLException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.apache.solr.client.solrj.SolrServer;
 import org.apache.solr.client.solrj.SolrServerException;
@@ -81,6 +85,27 @@ public class IrisTest extends TestCase {
 		assertEquals(topicNgrams, iris.getLatentTopicNgrams());
 	}
 	
+	public void testStreamLatentTopics() throws InterruptedException {
+		Iris streaming = new Iris(new LDAHandler(new LDAModel(new MongoInstance("127.0.0.1", "trecla"))));
+		final List<Integer> labelled = new ArrayList<Integer>();
+		final List<String> events = new ArrayList<String>();
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		streaming.streamLatentTopics(getResults(new DisMaxQuery("environmental policy")), executor, new Iris.LatentTopicListener(){
+			public void onEnrichedTopics(List<Integer> topics){ events.add("enriched"); }
+			public void onRelatedTopics(List<Integer> topics){ events.add("related"); }
+			public void onTopicLabels(Integer topic, List<BasicDBObject> ngrams){ labelled.add(topic); }
+			public void onExpansionWords(Integer topic, List<String> words){ assertFalse(words.isEmpty()); }
+			public void onError(Integer topic, Exception e){ fail(e.toString()); }
+			public void onComplete(){ events.add("complete"); }
+		});
+		executor.shutdown();
+		
+		assertEquals(Arrays.asList("enriched", "related", "complete"), events);
+		assertEquals(iris.getLatentTopics(), streaming.getLatentTopics());
+		assertEquals(new HashSet<Integer>(iris.getLatentTopics()), new HashSet<Integer>(labelled));
+		assertEquals(iris.getLatentTopicNgrams(), streaming.getLatentTopicNgrams());
+	}
+	
 	public SolrDocumentList getResults(DisMaxQuery query){
 		SolrServer server = null;
 		QueryResponse response = null;
@@ -18,10 +18,13 @@
 */
 package gov.llnl.iscr.iris;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 import com.mongodb.BasicDBObject;
 import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
 
 import junit.framework.TestCase;
 
@@ -54,6 +57,14 @@ public class LDAHandlerTest extends TestCase {
 		assertEquals(Arrays.asList(134, 474, 391, 81), handler.getEnrichedTopicSet());
 	}
 	
+	public void testSetEnrichedTopicSetWeighted() {
+		//A single feedback document ranks its own topics by probability
+		Object docid1 = "LA092590-0030";
+		handler.setEnrichedTopicSet(Arrays.asList(docid1), null, 2);
+		
+		assertEquals(Arrays.asList(134, 474), handler.getEnrichedTopicSet());
+	}
+	
 	public void testSetRelatedTopicSet() {
 		//Using default threshold for test: -100.0
 		Object docid1 = "LA092590-0030";
@@ -86,5 +97,22 @@ public class LDAHandlerTest extends TestCase {
 		handler.setUnigrams(selectedTopic);
 		assertEquals(Arrays.asList(unigram1, unigram2, unigram3, unigram4), handler.getSelectedUnigrams());
 	}
+	
+	public void testSetEnrichedTopicSetAggregated() {
+		LDAModel ranked = new LDAModel(){
+			public List<DBObject> getRankedTopics(Object docid, double threshold){
+				if(docid.equals("missing"))
+					return null;
+				if(docid.equals("filtered"))
+					return new ArrayList<DBObject>();
+				return Arrays.asList((DBObject)new BasicDBObject("topic", 5L).append("prob", 0.6),
+						new BasicDBObject("topic", 6.0).append("prob", 0.3));
+			}
+		};
+		//A document whose topics are all filtered is still one of the two feedback documents, as with filterTopics
+		LDAHandler aggregated = new LDAHandler(ranked).setTopicAggregation(true);
+		aggregated.setEnrichedTopicSet(Arrays.asList((Object)"missing", "filtered", "first", "second"));
+		assertEquals(Arrays.asList(5, 6), aggregated.getEnrichedTopicSet());
+	}
 
 }
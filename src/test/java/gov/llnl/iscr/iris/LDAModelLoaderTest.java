@@ -0,0 +1,83 @@
+/**
+* Copyright (c) 2011, Lawrence Livermore National Security, LLC. 
+* Produced at the Lawrence Livermore National Laboratory. 
+* Written by Kevin Lawrence, lawrence22@llnl.gov
+* Under the guidance of: 
+* David Andrzejewski, andrzejewski1@llnl.gov
+* David Buttler, buttler1@llnl.gov 
+* LLNL-CODE-521811 All rights reserved. This file is part of IRIS
+*
+* This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+* License (as published by the Free Software Foundation) version 2, dated June 1991. This program is distributed in the
+* hope that it will be useful, but WITHOUT ANY WARRANTY; without even the IMPLIED WARRANTY OF MERCHANTABILITY or
+* FITNESS FOR A PARTICULAR PURPOSE. See the terms and conditions of the GNU General Public License for more details.
+* You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+* Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA For full text see license.txt
+*
+*
+*/
+package gov.llnl.iscr.iris;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+import com.mongodb.DBObject;
+
+import junit.framework.TestCase;
+
+public class LDAModelLoaderTest extends TestCase {
+
+	@SuppressWarnings("unchecked")
+	private static List<DBObject> topics(DBObject doc){
+		return (List<DBObject>) doc.get("topics");
+	}
+	
+	public void testParseSparse() {
+		DBObject doc = LDAModelLoader.parseDocTopics("LA010189-0001 7 0.25 3 0.6 12 0.05 9 0.1", LDAModelLoader.DocTopicsFormat.SPARSE, 0.05);
+		assertEquals("LA010189-0001", doc.get("document"));
+		List<DBObject> topics = topics(doc);
+		assertEquals(3, topics.size());
+		assertEquals(3, topics.get(0).get("topic"));
+		assertEquals(0.6, topics.get(0).get("prob"));
+		assertEquals(9, topics.get(2).get("topic"));
+		assertNull(LDAModelLoader.parseDocTopics("LA010189-0001", LDAModelLoader.DocTopicsFormat.SPARSE, 0.0));
+	}
+	
+	public void testParseIndexedSparse() {
+		//An even number of fields after the index: parity cannot tell the layouts apart
+		DBObject doc = LDAModelLoader.parseDocTopics("0 LA010189-0001 7 0.25 3 0.6", LDAModelLoader.DocTopicsFormat.INDEXED_SPARSE, 0.0);
+		assertEquals("LA010189-0001", doc.get("document"));
+		assertEquals(2, topics(doc).size());
+		assertEquals(3, topics(doc).get(0).get("topic"));
+	}
+	
+	public void testParseDense() {
+		DBObject doc = LDAModelLoader.parseDocTopics("4 LA010189-0005 0.1 0.02 0.7 0.18", LDAModelLoader.DocTopicsFormat.DENSE, 0.05);
+		assertEquals("LA010189-0005", doc.get("document"));
+		List<DBObject> topics = topics(doc);
+		assertEquals(3, topics.size());
+		assertEquals(2, topics.get(0).get("topic"));
+		assertEquals(3, topics.get(1).get("topic"));
+		assertEquals(0, topics.get(2).get("topic"));
+	}
+	
+	public void testDetectFormat() throws IOException {
+		File file = File.createTempFile("doc-topics", ".txt");
+		try{
+			Writer out = new FileWriter(file);
+			out.write("#doc name topic proportion ...\n0 LA010189-0001 7 0.25 3 0.6\n");
+			out.close();
+			assertEquals(LDAModelLoader.DocTopicsFormat.INDEXED_SPARSE, LDAModelLoader.detectDocTopicsFormat(file));
+			
+			out = new FileWriter(file);
+			out.write("LA010189-0001 7 0.25 3 0.6\n");
+			out.close();
+			assertEquals(LDAModelLoader.DocTopicsFormat.SPARSE, LDAModelLoader.detectDocTopicsFormat(file));
+		}finally{
+			file.delete();
+		}
+	}
+}
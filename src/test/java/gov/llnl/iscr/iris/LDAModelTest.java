@@ -24,11 +24,68 @@ import java.util.List;
 
 import com.mongodb.BasicDBObject;
 import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
 
 import junit.framework.TestCase;
 
 public class LDAModelTest extends TestCase {
 
+	public void testReadCursor() {
+		final List<DBObject> commands = new ArrayList<DBObject>();
+		LDAModel.CommandRunner runner = new LDAModel.CommandRunner(){
+			public DBObject run(DBObject command){
+				commands.add(command);
+				long id = ((Number)command.get("getMore")).longValue();
+				List<DBObject> batch = Arrays.asList((DBObject)new BasicDBObject("topic", (int)id));
+				return new BasicDBObject("ok", 1.0).append("cursor", new BasicDBObject("id", id == 7L ? 8L : 0L).append("nextBatch", batch));
+			}
+		};
+		List<DBObject> first = Arrays.asList((DBObject)new BasicDBObject("topic", 1), new BasicDBObject("topic", 2));
+		DBObject result = new BasicDBObject("ok", 1.0).append("cursor", new BasicDBObject("id", 7L).append("firstBatch", first));
+		
+		List<DBObject> topics = LDAModel.readCursor(result, "theta", runner);
+		assertEquals(4, topics.size());
+		assertEquals(8, topics.get(3).get("topic"));
+		assertEquals(2, commands.size());
+		assertEquals("theta", commands.get(0).get("collection"));
+	}
+	
+	@SuppressWarnings("unchecked")
+	public void testPrefetchedUnigrams() {
+		LDAModel model = new LDAModel();
+		List<DBObject> words = new ArrayList<DBObject>();
+		words.add(new BasicDBObject("word", "policy").append("prob", 0.04));
+		words.add(new BasicDBObject("word", "court").append("prob", 0.01));
+		model.cacheUnigrams(new BasicDBObject("topic", 134).append("words", words));
+		
+		DBObject first = model.getUnigrams(134);
+		assertNull(first.get("topic"));
+		assertEquals(words, first.get("words"));
+		((List<DBObject>)first.get("words")).clear();
+		first.put("words", null);
+		
+		//Each hit is a copy, so changes by one caller are not seen by the next
+		DBObject second = model.getUnigrams(134);
+		assertNotSame(first, second);
+		assertEquals(2, ((List<DBObject>)second.get("words")).size());
+		assertNull(model.getUnigrams(7));
+	}
+	
+	public void testPrefetchedPackedNgrams() {
+		LDAModel model = new LDAModel();
+		PackedNgramList ngrams = new PackedNgramList();
+		ngrams.add("public opinion", 2, 121.18);
+		ngrams.add("public opinion poll", 3, 20.5);
+		model.cacheNgrams(new BasicDBObject("topic", 134).append("ngrams", ngrams));
+		
+		//Packed lists are read-only and shared, sorted once when cached
+		DBObject hit = model.getNgrams(134);
+		assertSame(ngrams, hit.get("ngrams"));
+		assertEquals("public opinion poll", ngrams.get(0).getString("ngram"));
+		assertNull(model.getNgrams(474));
+	}
+	
+
 	public void testGetSemcoValuesListOfInteger() {
 		
 		LDAModel model =  new LDAModel(new MongoInstance("127.0.0.1", "trecla"));
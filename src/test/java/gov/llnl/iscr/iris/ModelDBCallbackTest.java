@@ -0,0 +1,88 @@
+/**
+* Copyright (c) 2011, Lawrence Livermore National Security, LLC. 
+* Produced at the Lawrence Livermore National Laboratory. 
+* Written by Kevin Lawrence, lawrence22@llnl.gov
+* Under the guidance of: 
+* David Andrzejewski, andrzejewski1@llnl.gov
+* David Buttler, buttler1@llnl.gov 
+* LLNL-CODE-521811 All rights reserved. This file is part of IRIS
+*
+* This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+* License (as published by the Free Software Foundation) version 2, dated June 1991. This program is distributed in the
+* hope that it will be useful, but WITHOUT ANY WARRANTY; without even the IMPLIED WARRANTY OF MERCHANTABILITY or
+* FITNESS FOR A PARTICULAR PURPOSE. See the terms and conditions of the GNU General Public License for more details.
+* You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+* Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA For full text see license.txt
+*
+*
+*/
+package gov.llnl.iscr.iris;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.bson.BSONDecoder;
+import org.bson.BSONEncoder;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+import junit.framework.TestCase;
+
+public class ModelDBCallbackTest extends TestCase {
+
+	public void testPackedWords() {
+		BasicDBObject phi = new BasicDBObject("topic", 134);
+		phi.put("words", Arrays.asList(
+				new BasicDBObject("word", "public").append("prob", 1792.0155588668767),
+				new BasicDBObject("word", "issue").append("prob", 3572.0155588668767),
+				new BasicDBObject("word", "policy").append("prob", 3147.0155588668767)));
+
+		DBObject decoded = decode(phi, new ModelDBCallback(null, "words"));
+		assertEquals(134, decoded.get("topic"));
+		assertTrue(decoded.get("words") instanceof PackedWordList);
+
+		PackedWordList words = (PackedWordList) decoded.get("words");
+		words.sortByProb();
+		assertEquals(Arrays.asList(
+				new BasicDBObject("word", "issue").append("prob", 3572.0155588668767),
+				new BasicDBObject("word", "policy").append("prob", 3147.0155588668767),
+				new BasicDBObject("word", "public").append("prob", 1792.0155588668767)), words);
+	}
+
+	public void testQuantizedWords() {
+		BasicDBObject phi = new BasicDBObject("topic", 134);
+		phi.put("words", Arrays.asList(
+				new BasicDBObject("word", "public").append("prob", 1792.0155588668767),
+				new BasicDBObject("word", "issue").append("prob", 3572.0155588668767)));
+
+		PackedWordList full = (PackedWordList) decode(phi, new ModelDBCallback(null, "words")).get("words");
+		assertNull(full.getQuantizer());
+		PackedWordList quantized = (PackedWordList) decode(phi, new ModelDBCallback(null, "words", ProbQuantizer.Mode.LOG8)).get("words");
+		assertEquals(ProbQuantizer.Mode.LOG8, quantized.getQuantizer().getMode());
+		assertEquals(3572.0155588668767, quantized.getProb(1), 1e-9 * 3572);
+	}
+
+	public void testPackedNgrams() {
+		BasicDBObject ngram = new BasicDBObject("topic", 134);
+		ngram.put("ngrams", Arrays.asList(
+				new BasicDBObject("ngram", "conflict interest").append("size", 2).append("score", 118.03008258436529),
+				new BasicDBObject("ngram", "public opinion poll").append("size", 3).append("score", 20.5),
+				new BasicDBObject("ngram", "public opinion").append("size", 2).append("score", 121.1848328909918)));
+
+		DBObject decoded = decode(ngram, new ModelDBCallback(null, "ngrams"));
+		PackedNgramList ngrams = (PackedNgramList) decoded.get("ngrams");
+		ngrams.sortBySizeAndScore();
+
+		List<BasicDBObject> sorted = ngrams;
+		assertEquals("public opinion poll", sorted.get(0).getString("ngram"));
+		assertEquals(new BasicDBObject("size", 2).append("score", 121.1848328909918).append("ngram", "public opinion"), sorted.get(1));
+		assertEquals(2, sorted.get(2).getInt("size"));
+	}
+
+	private DBObject decode(BasicDBObject obj, ModelDBCallback callback){
+		byte[] bytes = new BSONEncoder().encode(obj);
+		new BSONDecoder().decode(bytes, callback);
+		return (DBObject) callback.get();
+	}
+}
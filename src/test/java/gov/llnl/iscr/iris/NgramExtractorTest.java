@@ -0,0 +1,86 @@
+/**
+* Copyright (c) 2011, Lawrence Livermore National Security, LLC. 
+* Produced at the Lawrence Livermore National Laboratory. 
+* Written by Kevin Lawrence, lawrence22@llnl.gov
+* Under the guidance of: 
+* David Andrzejewski, andrzejewski1@llnl.gov
+* David Buttler, buttler1@llnl.gov 
+* LLNL-CODE-521811 All rights reserved. This file is part of IRIS
+*
+* This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+* License (as published by the Free Software Foundation) version 2, dated June 1991. This program is distributed in the
+* hope that it will be useful, but WITHOUT ANY WARRANTY; without even the IMPLIED WARRANTY OF MERCHANTABILITY or
+* FITNESS FOR A PARTICULAR PURPOSE. See the terms and conditions of the GNU General Public License for more details.
+* You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+* Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA For full text see license.txt
+*
+*
+*/
+package gov.llnl.iscr.iris;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+import java.util.Map;
+
+import com.mongodb.BasicDBObject;
+
+import junit.framework.TestCase;
+
+public class NgramExtractorTest extends TestCase {
+	private static final String STATE = "#doc source pos typeindex type topic\n"+
+			"#alpha : 0.1 0.1\n"+
+			"#beta : 0.01\n"+
+			"0 NA 0 0 supreme 1\n"+
+			"0 NA 1 1 court 1\n"+
+			"0 NA 2 2 ruling 1\n"+
+			"0 NA 3 3 policy 0\n"+
+			"1 NA 0 0 supreme 1\n"+
+			"1 NA 1 1 court 1\n"+
+			"1 NA 2 2 ruling 1\n"+
+			"1 NA 3 1 court 0\n"+
+			"2 NA 0 3 policy 0\n"+
+			"2 NA 1 0 supreme 1\n"+
+			"2 NA 2 1 court 1\n";
+
+	public void testExtract() throws IOException {
+		Map<Integer, List<BasicDBObject>> ngrams = extract(1 << 20);
+
+		assertEquals(1, ngrams.size());
+		List<BasicDBObject> topic = ngrams.get(1);
+		assertEquals(3, topic.size());
+		assertEquals("supreme court ruling", topic.get(0).get("ngram"));
+		assertEquals(3, topic.get(0).get("size"));
+		assertEquals(2, topic.get(0).get("count"));
+		assertEquals("supreme court", topic.get(1).get("ngram"));
+		assertEquals(3, topic.get(1).get("count"));
+		assertEquals("court ruling", topic.get(2).get("ngram"));
+		//c * log(c * N / (c1 * c2)) with N = 8 tokens in topic 1
+		assertEquals(3 * Math.log(3.0 * 8 / (3 * 3)), (Double)topic.get(1).get("score"), 1e-12);
+	}
+
+	public void testSpill() throws IOException {
+		assertEquals(extract(1 << 20).toString(), extract(2).toString());
+	}
+
+	public void testTableClear() {
+		NgramExtractor.NgramTable table = new NgramExtractor.NgramTable(16);
+		for(int i=0; i<100; i++)
+			table.increment(i, i+1, 1);
+		table.clear();
+		assertEquals(0, table.size());
+		assertEquals(0, table.get(5, 6));
+		table.increment(5, 6, 2);
+		table.increment(5, 6, 1);
+		assertEquals(1, table.size());
+		assertEquals(3, table.get(5, 6));
+	}
+
+	private Map<Integer, List<BasicDBObject>> extract(int maxEntries) throws IOException {
+		NgramExtractor extractor = new NgramExtractor().setMinCount(2).setMaxEntries(maxEntries)
+				.setTempDir(new File(System.getProperty("java.io.tmpdir")));
+		return extractor.extract(new BufferedReader(new StringReader(STATE)));
+	}
+}
@@ -0,0 +1,61 @@
+/**
+* Copyright (c) 2011, Lawrence Livermore National Security, LLC. 
+* Produced at the Lawrence Livermore National Laboratory. 
+* Written by Kevin Lawrence, lawrence22@llnl.gov
+* Under the guidance of: 
+* David Andrzejewski, andrzejewski1@llnl.gov
+* David Buttler, buttler1@llnl.gov 
+* LLNL-CODE-521811 All rights reserved. This file is part of IRIS
+*
+* This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+* License (as published by the Free Software Foundation) version 2, dated June 1991. This program is distributed in the
+* hope that it will be useful, but WITHOUT ANY WARRANTY; without even the IMPLIED WARRANTY OF MERCHANTABILITY or
+* FITNESS FOR A PARTICULAR PURPOSE. See the terms and conditions of the GNU General Public License for more details.
+* You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+* Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA For full text see license.txt
+*
+*
+*/
+package gov.llnl.iscr.iris;
+
+import junit.framework.TestCase;
+
+public class ProbQuantizerTest extends TestCase {
+
+	public void testHalf() {
+		assertEquals(1.0f, ProbQuantizer.fromHalf(ProbQuantizer.toHalf(1.0f)));
+		assertEquals(0.0f, ProbQuantizer.fromHalf(ProbQuantizer.toHalf(0.0f)));
+		assertEquals(65504.0f, ProbQuantizer.fromHalf(ProbQuantizer.toHalf(65504.0f)));
+		assertTrue(Float.isInfinite(ProbQuantizer.fromHalf(ProbQuantizer.toHalf(1e6f))));
+		assertEquals(0.3f, ProbQuantizer.fromHalf(ProbQuantizer.toHalf(0.3f)), 0.3f/1024);
+		//Subnormal halves
+		assertEquals(1e-6f, ProbQuantizer.fromHalf(ProbQuantizer.toHalf(1e-6f)), 6e-8f);
+	}
+
+	public void testOrderPreserved() {
+		double[] values = {3572.0155588668767, 3147.0155588668767, 1792.0155588668767, 1634.0155588668767, 0.0155588668767, 0.0};
+		for(ProbQuantizer.Mode mode : new ProbQuantizer.Mode[]{ProbQuantizer.Mode.HALF, ProbQuantizer.Mode.LOG8}){
+			ProbQuantizer quantizer = ProbQuantizer.forValues(mode, values, 0, values.length);
+			for(int i=1; i<values.length; i++)
+				assertTrue(quantizer.encode(values[i-1]) > quantizer.encode(values[i]));
+			assertEquals(3572.0155588668767, quantizer.decode(quantizer.encode(values[0])), 1e-9 * 3572);
+			assertEquals(0.0, quantizer.decode(quantizer.encode(0.0)));
+		}
+	}
+
+	public void testPackedWordList() {
+		PackedWordList words = new PackedWordList();
+		words.add("public", 1792.0155588668767);
+		words.add("issue", 3572.0155588668767);
+		words.add("policy", 3147.0155588668767);
+		words.quantize(ProbQuantizer.Mode.LOG8);
+		words.sortByProb();
+
+		assertEquals("issue", words.getWord(0));
+		assertEquals("policy", words.getWord(1));
+		assertEquals("public", words.getWord(2));
+		assertEquals(1, words.getQuantizer().width());
+		assertEquals(1792.0155588668767, words.getProb(2), 1e-6 * 1792);
+		assertEquals(3147.0155588668767, ((Double)words.get(1).get("prob")), 0.02 * 3147);
+	}
+}
@@ -0,0 +1,47 @@
+/**
+* Copyright (c) 2011, Lawrence Livermore National Security, LLC. 
+* Produced at the Lawrence Livermore National Laboratory. 
+* Written by Kevin Lawrence, lawrence22@llnl.gov
+* Under the guidance of: 
+* David Andrzejewski, andrzejewski1@llnl.gov
+* David Buttler, buttler1@llnl.gov 
+* LLNL-CODE-521811 All rights reserved. This file is part of IRIS
+*
+* This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+* License (as published by the Free Software Foundation) version 2, dated June 1991. This program is distributed in the
+* hope that it will be useful, but WITHOUT ANY WARRANTY; without even the IMPLIED WARRANTY OF MERCHANTABILITY or
+* FITNESS FOR A PARTICULAR PURPOSE. See the terms and conditions of the GNU General Public License for more details.
+* You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+* Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA For full text see license.txt
+*
+*
+*/
+package gov.llnl.iscr.iris;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+public class SemcoEngineTest extends TestCase {
+
+	public void testCompute() throws IOException {
+		Map<Integer, List<String>> topWords = new LinkedHashMap<Integer, List<String>>();
+		topWords.put(7, Arrays.asList("policy", "environmental"));
+		topWords.put(3, Arrays.asList("environmental", "court"));
+
+		String corpus = "Environmental policy act\npolicy environmental impact\nenvironmental damage\nsupreme court\n";
+		SemcoEngine engine = new SemcoEngine(2, 2).setLeafSize(1).setBlockSize(3);
+		Map<Integer, Double> semco = engine.compute(topWords, new BufferedReader(new StringReader(corpus)));
+		engine.shutdown();
+
+		assertEquals(Arrays.asList(7, 3), Arrays.asList(semco.keySet().toArray()));
+		assertEquals(Math.log(3.0 / 2.0), semco.get(7), 1e-12);
+		assertEquals(Math.log(1.0 / 3.0), semco.get(3), 1e-12);
+	}
+}
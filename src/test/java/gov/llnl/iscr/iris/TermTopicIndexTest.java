@@ -0,0 +1,52 @@
+/**
+* Copyright (c) 2011, Lawrence Livermore National Security, LLC. 
+* Produced at the Lawrence Livermore National Laboratory. 
+* Written by Kevin Lawrence, lawrence22@llnl.gov
+* Under the guidance of: 
+* David Andrzejewski, andrzejewski1@llnl.gov
+* David Buttler, buttler1@llnl.gov 
+* LLNL-CODE-521811 All rights reserved. This file is part of IRIS
+*
+* This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+* License (as published by the Free Software Foundation) version 2, dated June 1991. This program is distributed in the
+* hope that it will be useful, but WITHOUT ANY WARRANTY; without even the IMPLIED WARRANTY OF MERCHANTABILITY or
+* FITNESS FOR A PARTICULAR PURPOSE. See the terms and conditions of the GNU General Public License for more details.
+* You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+* Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA For full text see license.txt
+*
+*
+*/
+package gov.llnl.iscr.iris;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+import junit.framework.TestCase;
+
+public class TermTopicIndexTest extends TestCase {
+
+	private static DBObject topic(int id, Object... words){
+		List<DBObject> list = new ArrayList<DBObject>();
+		for(int i=0; i<words.length; i+=2)
+			list.add(new BasicDBObject("word", words[i]).append("prob", words[i+1]));
+		return new BasicDBObject("topic", id).append("words", list);
+	}
+	
+	public void testCandidates() {
+		List<DBObject> phi = Arrays.asList(
+				topic(3, "court", 0.05, "supreme", 0.04, "policy", 0.001),
+				topic(7, "policy", 0.06, "environmental", 0.05),
+				topic(9, "policy", 0.02, "public", 0.03),
+				topic(12, "policy", 0.01, "Environmental", 0.002));
+		TermTopicIndex index = TermTopicIndex.build(phi.iterator(), 2);
+		
+		assertEquals(5, index.size());
+		assertEquals(Arrays.asList(7, 9), index.candidates("Environmental policy", 2));
+		assertEquals(Arrays.asList(3), index.candidates("court:supreme", 5));
+		assertTrue(index.candidates("unknown", 5).isEmpty());
+	}
+}
@@ -0,0 +1,48 @@
+/**
+* Copyright (c) 2011, Lawrence Livermore National Security, LLC. 
+* Produced at the Lawrence Livermore National Laboratory. 
+* Written by Kevin Lawrence, lawrence22@llnl.gov
+* Under the guidance of: 
+* David Andrzejewski, andrzejewski1@llnl.gov
+* David Buttler, buttler1@llnl.gov 
+* LLNL-CODE-521811 All rights reserved. This file is part of IRIS
+*
+* This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+* License (as published by the Free Software Foundation) version 2, dated June 1991. This program is distributed in the
+* hope that it will be useful, but WITHOUT ANY WARRANTY; without even the IMPLIED WARRANTY OF MERCHANTABILITY or
+* FITNESS FOR A PARTICULAR PURPOSE. See the terms and conditions of the GNU General Public License for more details.
+* You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+* Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA For full text see license.txt
+*
+*
+*/
+package gov.llnl.iscr.iris;
+
+import junit.framework.TestCase;
+
+public class ThetaFilterTest extends TestCase {
+
+	public void testMightContain() {
+		ThetaFilter filter = new ThetaFilter(10000, 0.01);
+		for(int d=0; d<10000; d++)
+			filter.add("LA0925"+d);
+
+		assertEquals(10000, filter.size());
+		for(int d=0; d<10000; d++)
+			assertTrue(filter.mightContain("LA0925"+d));
+
+		int falsePositives = 0;
+		for(int d=0; d<10000; d++){
+			if(filter.mightContain("FT9311"+d))
+				++falsePositives;
+		}
+		assertTrue("false positives: "+falsePositives, falsePositives < 300);
+	}
+
+	public void testStringForm() {
+		//IDs from Solr and from theta are matched on their string form
+		ThetaFilter filter = new ThetaFilter(10, 0.01);
+		filter.add(12345);
+		assertTrue(filter.mightContain("12345"));
+	}
+}
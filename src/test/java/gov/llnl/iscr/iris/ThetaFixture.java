@@ -0,0 +1,42 @@
+/**
+* Copyright (c) 2011, Lawrence Livermore National Security, LLC. 
+* Produced at the Lawrence Livermore National Laboratory. 
+* Written by Kevin Lawrence, lawrence22@llnl.gov
+* Under the guidance of: 
+* David Andrzejewski, andrzejewski1@llnl.gov
+* David Buttler, buttler1@llnl.gov 
+* LLNL-CODE-521811 All rights reserved. This file is part of IRIS
+*
+* This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+* License (as published by the Free Software Foundation) version 2, dated June 1991. This program is distributed in the
+* hope that it will be useful, but WITHOUT ANY WARRANTY; without even the IMPLIED WARRANTY OF MERCHANTABILITY or
+* FITNESS FOR A PARTICULAR PURPOSE. See the terms and conditions of the GNU General Public License for more details.
+* You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+* Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA For full text see license.txt
+*
+*
+*/
+package gov.llnl.iscr.iris;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+/**
+ * Builds theta documents, as read from the model's theta collection, for tests
+ */
+final class ThetaFixture {
+	private ThetaFixture() {}
+
+	/**
+	 * returns a theta document with the given topics, each with the probability at the same index
+	 */
+	static DBObject doc(Object id, int[] topics, double[] probs) {
+		List<DBObject> list = new ArrayList<DBObject>();
+		for(int i=0; i<topics.length; i++)
+			list.add(new BasicDBObject("topic", topics[i]).append("prob", probs[i]));
+		return new BasicDBObject("document", id).append("topics", list);
+	}
+}
@@ -0,0 +1,57 @@
+/**
+* Copyright (c) 2011, Lawrence Livermore National Security, LLC. 
+* Produced at the Lawrence Livermore National Laboratory. 
+* Written by Kevin Lawrence, lawrence22@llnl.gov
+* Under the guidance of: 
+* David Andrzejewski, andrzejewski1@llnl.gov
+* David Buttler, buttler1@llnl.gov 
+* LLNL-CODE-521811 All rights reserved. This file is part of IRIS
+*
+* This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+* License (as published by the Free Software Foundation) version 2, dated June 1991. This program is distributed in the
+* hope that it will be useful, but WITHOUT ANY WARRANTY; without even the IMPLIED WARRANTY OF MERCHANTABILITY or
+* FITNESS FOR A PARTICULAR PURPOSE. See the terms and conditions of the GNU General Public License for more details.
+* You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+* Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA For full text see license.txt
+*
+*
+*/
+package gov.llnl.iscr.iris;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class TopEntriesTest extends TestCase {
+
+	public void testSorted() {
+		TopEntries<String> top = new TopEntries<String>(3);
+		top.offer("policy", 3147.0);
+		top.offer("the", 10.0);
+		top.offer("issue", 3572.0);
+		top.offer("public", 1792.0);
+		top.offer("issues", 1634.0);
+
+		double[] scores = new double[3];
+		assertEquals(Arrays.asList("issue", "policy", "public"), top.sorted(scores));
+		assertEquals(3572.0, scores[0]);
+		assertEquals(1792.0, scores[2]);
+		assertEquals(1792.0, top.minScore());
+	}
+
+	public void testNotFull() {
+		TopEntries<Integer> top = new TopEntries<Integer>(5);
+		top.offer(1, 0.5);
+		top.offer(2, 0.7);
+
+		assertEquals(Double.NEGATIVE_INFINITY, top.minScore());
+		assertEquals(Arrays.asList(2, 1), top.sorted(null));
+	}
+
+	public void testNoCapacity() {
+		TopEntries<Integer> top = new TopEntries<Integer>(0);
+		assertFalse(top.offer(1, 0.5));
+		assertEquals(Double.NEGATIVE_INFINITY, top.minScore());
+		assertTrue(top.sorted(null).isEmpty());
+	}
+}
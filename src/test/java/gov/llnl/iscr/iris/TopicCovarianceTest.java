@@ -0,0 +1,71 @@
+/**
+* Copyright (c) 2011, Lawrence Livermore National Security, LLC. 
+* Produced at the Lawrence Livermore National Laboratory. 
+* Written by Kevin Lawrence, lawrence22@llnl.gov
+* Under the guidance of: 
+* David Andrzejewski, andrzejewski1@llnl.gov
+* David Buttler, buttler1@llnl.gov 
+* LLNL-CODE-521811 All rights reserved. This file is part of IRIS
+*
+* This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+* License (as published by the Free Software Foundation) version 2, dated June 1991. This program is distributed in the
+* hope that it will be useful, but WITHOUT ANY WARRANTY; without even the IMPLIED WARRANTY OF MERCHANTABILITY or
+* FITNESS FOR A PARTICULAR PURPOSE. See the terms and conditions of the GNU General Public License for more details.
+* You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+* Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA For full text see license.txt
+*
+*
+*/
+package gov.llnl.iscr.iris;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+import junit.framework.TestCase;
+
+public class TopicCovarianceTest extends TestCase {
+
+	public void testCompute() {
+		List<DBObject> theta = new ArrayList<DBObject>();
+		theta.add(doc(0, 0.5, 1, 0.5));
+		theta.add(doc(0, 1.0));
+		theta.add(doc(2, 1.0));
+		theta.add(doc(1, 0.25, 2, 0.75));
+		
+		double[][] covar = new TopicCovariance(3, 2).setBlockSize(1).compute(theta.iterator());
+		
+		//means: topic0 = 0.375, topic1 = 0.1875, topic2 = 0.4375
+		assertEquals((0.25+1.0)/4 - 0.375*0.375, covar[0][0], 1e-12);
+		assertEquals(0.25/4 - 0.375*0.1875, covar[0][1], 1e-12);
+		assertEquals(covar[0][1], covar[1][0], 1e-12);
+		assertEquals(0.0 - 0.375*0.4375, covar[0][2], 1e-12);
+		assertEquals(0.1875/4 - 0.1875*0.4375, covar[1][2], 1e-12);
+	}
+	
+	private DBObject doc(Object... topicProbs){
+		List<DBObject> topics = new ArrayList<DBObject>();
+		for(int i=0; i<topicProbs.length; i+=2)
+			topics.add(new BasicDBObject("topic", topicProbs[i]).append("prob", topicProbs[i+1]));
+		
+		return new BasicDBObject("topics", topics);
+	}
+	
+	public void testThetaFailure() {
+		List<DBObject> theta = Arrays.asList(doc(0, 1.0), new BasicDBObject("topics", "not a list"));
+		try{
+			new TopicCovariance(2, 2).setBlockSize(1).compute(theta.iterator());
+			fail("expected ClassCastException");
+		}catch(ClassCastException e){
+			//The workers were stopped, so compute returned rather than waiting on them
+		}
+	}
+	
+	public void testSymmetric() {
+		double[][] covar = new TopicCovariance(2, 1).compute(Arrays.asList(doc(0, 0.3, 1, 0.7), doc(1, 1.0)).iterator());
+		assertEquals(covar[0][1], covar[1][0], 1e-12);
+	}
+}
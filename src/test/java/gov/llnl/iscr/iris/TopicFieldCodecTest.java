@@ -0,0 +1,65 @@
+/**
+* Copyright (c) 2011, Lawrence Livermore National Security, LLC. 
+* Produced at the Lawrence Livermore National Laboratory. 
+* Written by Kevin Lawrence, lawrence22@llnl.gov
+* Under the guidance of: 
+* David Andrzejewski, andrzejewski1@llnl.gov
+* David Buttler, buttler1@llnl.gov 
+* LLNL-CODE-521811 All rights reserved. This file is part of IRIS
+*
+* This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+* License (as published by the Free Software Foundation) version 2, dated June 1991. This program is distributed in the
+* hope that it will be useful, but WITHOUT ANY WARRANTY; without even the IMPLIED WARRANTY OF MERCHANTABILITY or
+* FITNESS FOR A PARTICULAR PURPOSE. See the terms and conditions of the GNU General Public License for more details.
+* You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+* Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA For full text see license.txt
+*
+*
+*/
+package gov.llnl.iscr.iris;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.solr.common.SolrInputDocument;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+import junit.framework.TestCase;
+
+public class TopicFieldCodecTest extends TestCase {
+
+	public void testEncode() {
+		List<DBObject> topics = new ArrayList<DBObject>();
+		topics.add(new BasicDBObject("topic", 474).append("prob", 0.12));
+		topics.add(new BasicDBObject("topic", 3).append("prob", 0.001));
+		topics.add(new BasicDBObject("topic", 134).append("prob", 0.361234));
+		topics.add(new BasicDBObject("topic", 81).append("prob", 0.05));
+
+		assertEquals("134|0.3612 474|0.12 81|0.05", TopicFieldCodec.encode(topics, 8, 0.01));
+		assertEquals("134|0.3612 474|0.12", TopicFieldCodec.encode(topics, 2, 0.01));
+	}
+
+	public void testDecode() {
+		List<DBObject> topics = TopicFieldCodec.decode("134|0.3612 474|0.12 bad|x 81|1");
+
+		assertEquals(3, topics.size());
+		assertEquals(134, topics.get(0).get("topic"));
+		assertEquals(0.3612, topics.get(0).get("prob"));
+		assertEquals(81, topics.get(2).get("topic"));
+		assertEquals(1.0, topics.get(2).get("prob"));
+		assertTrue(TopicFieldCodec.decode("").isEmpty());
+	}
+
+	public void testAddField() {
+		List<DBObject> topics = new ArrayList<DBObject>();
+		topics.add(new BasicDBObject("topic", 134).append("prob", 0.36));
+		SolrInputDocument doc = new SolrInputDocument();
+
+		TopicFieldCodec codec = new TopicFieldCodec("topics", 8, 0.01);
+		assertFalse(codec.addField(doc, null));
+		assertTrue(codec.addField(doc, new BasicDBObject("topics", topics)));
+		assertEquals("134|0.36", doc.getFieldValue("topics"));
+	}
+}
@@ -0,0 +1,73 @@
+/**
+* Copyright (c) 2011, Lawrence Livermore National Security, LLC. 
+* Produced at the Lawrence Livermore National Laboratory. 
+* Written by Kevin Lawrence, lawrence22@llnl.gov
+* Under the guidance of: 
+* David Andrzejewski, andrzejewski1@llnl.gov
+* David Buttler, buttler1@llnl.gov 
+* LLNL-CODE-521811 All rights reserved. This file is part of IRIS
+*
+* This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+* License (as published by the Free Software Foundation) version 2, dated June 1991. This program is distributed in the
+* hope that it will be useful, but WITHOUT ANY WARRANTY; without even the IMPLIED WARRANTY OF MERCHANTABILITY or
+* FITNESS FOR A PARTICULAR PURPOSE. See the terms and conditions of the GNU General Public License for more details.
+* You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+* Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA For full text see license.txt
+*
+*
+*/
+package gov.llnl.iscr.iris;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+import junit.framework.TestCase;
+
+public class TopicGraphTest extends TestCase {
+	private TopicGraph graph;
+
+	protected void setUp() {
+		List<DBObject> related = new ArrayList<DBObject>();
+		related.add(edge(0, 1, 0.5));
+		related.add(edge(0, 2, 0.9));
+		related.add(edge(0, 3, -0.4));
+		related.add(edge(1, 4, 0.8));
+		related.add(edge(2, 5, 0.1));
+		related.add(edge(2, 6, 0.7));
+		related.add(edge(6, 7, 0.9));
+
+		List<DBObject> semco = new ArrayList<DBObject>();
+		for(int t=0; t<8; t++)
+			semco.add(new BasicDBObject("topic", t).append("semco", t == 4 ? -300.0 : -50.0));
+
+		graph = new TopicGraph(related.iterator(), semco.iterator());
+	}
+
+	public void testLayout() {
+		assertEquals(8, graph.getNumTopics());
+		assertEquals(6, graph.getNumEdges());
+	}
+
+	public void testOneHop() {
+		assertEquals(Arrays.asList(2, 1), graph.expand(Collections.singletonList(0), 1, 10, -100.0));
+	}
+
+	public void testBestFirst() {
+		//0.9*0.7 = 0.63 beats 0.5, 0.9*0.7*0.9 = 0.567 beats 0.5*0.8 = 0.4 which is also below the threshold
+		assertEquals(Arrays.asList(2, 6, 7, 1, 5), graph.expand(Collections.singletonList(0), 3, 10, -100.0));
+		assertEquals(Arrays.asList(2, 6, 1), graph.expand(Collections.singletonList(0), 2, 3, -100.0));
+	}
+
+	public void testSeedsExcluded() {
+		assertEquals(Arrays.asList(4, 6, 7), graph.expand(Arrays.asList(0, 1, 2), 2, 3, -500.0));
+	}
+
+	private static DBObject edge(int topic, int cotopic, double covar) {
+		return new BasicDBObject("topic", topic).append("cotopic", cotopic).append("covar", covar);
+	}
+}
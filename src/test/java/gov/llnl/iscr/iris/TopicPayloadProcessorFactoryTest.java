@@ -0,0 +1,83 @@
+/**
+* Copyright (c) 2011, Lawrence Livermore National Security, LLC. 
+* Produced at the Lawrence Livermore National Laboratory. 
+* Written by Kevin Lawrence, lawrence22@llnl.gov
+* Under the guidance of: 
+* David Andrzejewski, andrzejewski1@llnl.gov
+* David Buttler, buttler1@llnl.gov 
+* LLNL-CODE-521811 All rights reserved. This file is part of IRIS
+*
+* This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+* License (as published by the Free Software Foundation) version 2, dated June 1991. This program is distributed in the
+* hope that it will be useful, but WITHOUT ANY WARRANTY; without even the IMPLIED WARRANTY OF MERCHANTABILITY or
+* FITNESS FOR A PARTICULAR PURPOSE. See the terms and conditions of the GNU General Public License for more details.
+* You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+* Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA For full text see license.txt
+*
+*
+*/
+package gov.llnl.iscr.iris;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.update.AddUpdateCommand;
+import org.apache.solr.update.processor.UpdateRequestProcessor;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+import junit.framework.TestCase;
+
+public class TopicPayloadProcessorFactoryTest extends TestCase {
+	private final List<SolrInputDocument> added = new ArrayList<SolrInputDocument>();
+	private UpdateRequestProcessor processor;
+
+	protected void setUp() {
+		LDAModel model = new LDAModel() {
+			public DBObject getTopics(Object docid) {
+				if(!docid.equals("LA092590-0030"))
+					return null;
+				List<DBObject> topics = Arrays.asList((DBObject)new BasicDBObject("topic", 474).append("prob", 0.2),
+						new BasicDBObject("topic", 134).append("prob", 0.6), new BasicDBObject("topic", 7).append("prob", 0.005));
+				return new BasicDBObject("topics", topics);
+			}
+		};
+		UpdateRequestProcessor next = new UpdateRequestProcessor(null) {
+			public void processAdd(AddUpdateCommand cmd) {
+				added.add(cmd.getSolrInputDocument());
+			}
+		};
+		processor = new TopicPayloadProcessorFactory(model, "topics", 8, 0.01).getInstance("id", next);
+	}
+
+	public void testProcessAdd() throws IOException {
+		add(document("LA092590-0030", null));
+		add(document("LA022190-0160", null));
+		add(document("LA092590-0030", "81|0.9"));
+		
+		assertEquals(3, added.size());
+		assertEquals(TopicFieldCodec.encode(Arrays.asList((DBObject)new BasicDBObject("topic", 134).append("prob", 0.6),
+				new BasicDBObject("topic", 474).append("prob", 0.2)), 8, 0.01), added.get(0).getFieldValue("topics"));
+		assertTrue(added.get(0).getFieldValue("topics").toString().startsWith("134|"));
+		assertNull(added.get(1).getFieldValue("topics"));
+		assertEquals("81|0.9", added.get(2).getFieldValue("topics"));
+	}
+
+	private void add(SolrInputDocument doc) throws IOException {
+		AddUpdateCommand cmd = new AddUpdateCommand();
+		cmd.solrDoc = doc;
+		processor.processAdd(cmd);
+	}
+
+	private static SolrInputDocument document(String id, String topics) {
+		SolrInputDocument doc = new SolrInputDocument();
+		doc.setField("id", id);
+		if(topics != null)
+			doc.setField("topics", topics);
+		return doc;
+	}
+}
@@ -0,0 +1,102 @@
+/**
+* Copyright (c) 2011, Lawrence Livermore National Security, LLC. 
+* Produced at the Lawrence Livermore National Laboratory. 
+* Written by Kevin Lawrence, lawrence22@llnl.gov
+* Under the guidance of: 
+* David Andrzejewski, andrzejewski1@llnl.gov
+* David Buttler, buttler1@llnl.gov 
+* LLNL-CODE-521811 All rights reserved. This file is part of IRIS
+*
+* This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+* License (as published by the Free Software Foundation) version 2, dated June 1991. This program is distributed in the
+* hope that it will be useful, but WITHOUT ANY WARRANTY; without even the IMPLIED WARRANTY OF MERCHANTABILITY or
+* FITNESS FOR A PARTICULAR PURPOSE. See the terms and conditions of the GNU General Public License for more details.
+* You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+* Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA For full text see license.txt
+*
+*
+*/
+package gov.llnl.iscr.iris;
+
+import java.io.IOException;
+import java.io.Reader;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.WhitespaceTokenizer;
+import org.apache.lucene.analysis.payloads.DelimitedPayloadTokenFilter;
+import org.apache.lucene.analysis.payloads.FloatEncoder;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.queryParser.ParseException;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+import org.apache.solr.common.params.ModifiableSolrParams;
+import org.apache.solr.request.SolrQueryRequestBase;
+
+import junit.framework.TestCase;
+
+public class TopicPayloadQParserPluginTest extends TestCase {
+	private RAMDirectory directory;
+	private IndexSearcher searcher;
+	private TopicPayloadQParserPlugin plugin = new TopicPayloadQParserPlugin();
+
+	protected void setUp() throws IOException {
+		Analyzer analyzer = new Analyzer() {
+			public TokenStream tokenStream(String fieldName, Reader reader) {
+				return new DelimitedPayloadTokenFilter(new WhitespaceTokenizer(Version.LUCENE_33, reader), '|', new FloatEncoder());
+			}
+		};
+		directory = new RAMDirectory();
+		IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(Version.LUCENE_33, analyzer));
+		for(String topics : new String[]{"134|0.6 474|0.2", "474|0.5 134|0.3", "81|0.9"}){
+			Document doc = new Document();
+			doc.add(new Field("topics", topics, Field.Store.NO, Field.Index.ANALYZED));
+			writer.addDocument(doc);
+		}
+		writer.close();
+		
+		searcher = new IndexSearcher(directory, true);
+		searcher.setSimilarity(new TopicPayloadSimilarity());
+	}
+
+	protected void tearDown() throws IOException {
+		searcher.close();
+		directory.close();
+	}
+
+	public void testBoost() throws Exception {
+		ScoreDoc[] plain = searcher.search(parse("134", "1.0"), 10).scoreDocs;
+		assertEquals(2, plain.length);
+		assertEquals(0, plain[0].doc);
+		assertEquals(0.6F, plain[0].score, 1e-6);
+		assertEquals(0.3F, plain[1].score, 1e-6);
+		
+		ScoreDoc[] boosted = searcher.search(parse("134", "2.5"), 10).scoreDocs;
+		assertEquals(1.5F, boosted[0].score, 1e-6);
+		assertEquals(0.75F, boosted[1].score, 1e-6);
+		assertFalse(parse("134", "1.0").equals(parse("134", "2.5")));
+	}
+
+	public void testInvalidTopic() {
+		try {
+			parse("policy", "1.0");
+			fail("expected ParseException");
+		} catch(ParseException e) {
+			assertTrue(e.getMessage().contains("policy"));
+		}
+	}
+
+	private Query parse(String topic, String boost) throws ParseException {
+		ModifiableSolrParams localParams = new ModifiableSolrParams();
+		localParams.set("f", "topics");
+		localParams.set("b", boost);
+		ModifiableSolrParams params = new ModifiableSolrParams();
+		return plugin.createParser(topic, localParams, params, new SolrQueryRequestBase(null, params){}).getQuery();
+	}
+}
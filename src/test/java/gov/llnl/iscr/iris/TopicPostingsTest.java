@@ -0,0 +1,103 @@
+/**
+* Copyright (c) 2011, Lawrence Livermore National Security, LLC. 
+* Produced at the Lawrence Livermore National Laboratory. 
+* Written by Kevin Lawrence, lawrence22@llnl.gov
+* Under the guidance of: 
+* David Andrzejewski, andrzejewski1@llnl.gov
+* David Buttler, buttler1@llnl.gov 
+* LLNL-CODE-521811 All rights reserved. This file is part of IRIS
+*
+* This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+* License (as published by the Free Software Foundation) version 2, dated June 1991. This program is distributed in the
+* hope that it will be useful, but WITHOUT ANY WARRANTY; without even the IMPLIED WARRANTY OF MERCHANTABILITY or
+* FITNESS FOR A PARTICULAR PURPOSE. See the terms and conditions of the GNU General Public License for more details.
+* You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+* Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA For full text see license.txt
+*
+*
+*/
+package gov.llnl.iscr.iris;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+import junit.framework.TestCase;
+
+public class TopicPostingsTest extends TestCase {
+	private File file;
+	private TopicPostings postings;
+
+	protected void setUp() throws IOException {
+		List<DBObject> theta = new ArrayList<DBObject>();
+		theta.add(ThetaFixture.doc("LA092590-0030", new int[]{134, 474}, new double[]{0.6, 0.3}));
+		theta.add(ThetaFixture.doc("LA022190-0160", new int[]{474, 81}, new double[]{0.5, 0.4}));
+		theta.add(ThetaFixture.doc("LA010189-0001", new int[]{134, 81, 7}, new double[]{0.2, 0.7, 0.005}));
+		for(int d=0; d<300; d++)
+			theta.add(ThetaFixture.doc("filler-"+d, new int[]{391}, new double[]{0.9}));
+		theta.add(ThetaFixture.doc("LA123190-0100", new int[]{134, 474}, new double[]{0.4, 0.4}));
+
+		file = File.createTempFile("postings", ".idx");
+		TopicPostings.build(theta, file, 0.01);
+		postings = TopicPostings.open(file);
+	}
+
+	protected void tearDown() {
+		file.delete();
+	}
+
+	public void testTop() {
+		assertEquals(304, postings.getNumDocs());
+		assertEquals(3, postings.size(134));
+		assertEquals(0, postings.size(7));
+		assertEquals(Arrays.asList("LA092590-0030", "LA123190-0100"), documents(postings.top(134, 2)));
+		assertEquals(0.6, (Double)postings.top(134, 1).get(0).get("prob"), 1.0/510);
+	}
+
+	public void testIntersect() {
+		assertEquals(Arrays.asList("LA092590-0030", "LA123190-0100"), documents(postings.intersect(Arrays.asList(134, 474), 10)));
+		assertTrue(postings.intersect(Arrays.asList(134, 391), 10).isEmpty());
+	}
+
+	public void testUnion() {
+		List<Object> docs = documents(postings.union(Arrays.asList(474, 81), 10));
+		assertEquals(Arrays.asList("LA022190-0160", "LA010189-0001", "LA123190-0100", "LA092590-0030"), docs);
+	}
+
+	public void testChunkedMapping() throws IOException {
+		TopicPostings chunked = TopicPostings.open(file, 5);
+		assertEquals(304, chunked.getNumDocs());
+		assertEquals(postings.top(134, 3), chunked.top(134, 3));
+		assertEquals(postings.union(Arrays.asList(474, 81, 391), 400), chunked.union(Arrays.asList(474, 81, 391), 400));
+	}
+
+	public void testChangedTheta() throws IOException {
+		final List<DBObject> first = Arrays.asList(ThetaFixture.doc("a", new int[]{1}, new double[]{0.5}), ThetaFixture.doc("b", new int[]{1}, new double[]{0.5}));
+		final List<DBObject> second = Arrays.asList(ThetaFixture.doc("a", new int[]{1}, new double[]{0.5}), ThetaFixture.doc("b", new int[]{2}, new double[]{0.5}));
+		Iterable<DBObject> theta = new Iterable<DBObject>() {
+			private int passes = 0;
+			public Iterator<DBObject> iterator() {
+				return (passes++ == 0 ? first : second).iterator();
+			}
+		};
+		try {
+			TopicPostings.build(theta, file, 0.01);
+			fail("expected IOException");
+		} catch(IOException e) {
+			assertTrue(e.getMessage().contains("changed"));
+		}
+	}
+
+	private static List<Object> documents(List<BasicDBObject> result) {
+		List<Object> docs = new ArrayList<Object>();
+		for(BasicDBObject obj : result)
+			docs.add(obj.get("document"));
+		return docs;
+	}
+}
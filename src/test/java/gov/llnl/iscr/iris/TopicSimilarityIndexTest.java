@@ -0,0 +1,69 @@
+/**
+* Copyright (c) 2011, Lawrence Livermore National Security, LLC. 
+* Produced at the Lawrence Livermore National Laboratory. 
+* Written by Kevin Lawrence, lawrence22@llnl.gov
+* Under the guidance of: 
+* David Andrzejewski, andrzejewski1@llnl.gov
+* David Buttler, buttler1@llnl.gov 
+* LLNL-CODE-521811 All rights reserved. This file is part of IRIS
+*
+* This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public
+* License (as published by the Free Software Foundation) version 2, dated June 1991. This program is distributed in the
+* hope that it will be useful, but WITHOUT ANY WARRANTY; without even the IMPLIED WARRANTY OF MERCHANTABILITY or
+* FITNESS FOR A PARTICULAR PURPOSE. See the terms and conditions of the GNU General Public License for more details.
+* You should have received a copy of the GNU General Public License along with this program; if not, write to the Free
+* Software Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA For full text see license.txt
+*
+*
+*/
+package gov.llnl.iscr.iris;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+import junit.framework.TestCase;
+
+public class TopicSimilarityIndexTest extends TestCase {
+	private TopicSimilarityIndex index;
+
+	protected void setUp() {
+		List<DBObject> theta = new ArrayList<DBObject>();
+		theta.add(ThetaFixture.doc("a", new int[]{1, 2, 5}, new double[]{0.6, 0.3, 0.1}));
+		theta.add(ThetaFixture.doc("b", new int[]{1, 2}, new double[]{0.5, 0.5}));
+		theta.add(ThetaFixture.doc("c", new int[]{2, 3}, new double[]{0.9, 0.1}));
+		theta.add(ThetaFixture.doc("d", new int[]{4, 5}, new double[]{0.8, 0.2}));
+		theta.add(ThetaFixture.doc("e", new int[]{5, 1}, new double[]{0.7, 0.3}));
+		index = new TopicSimilarityIndex(theta.iterator(), 2);
+	}
+
+	public void testSimilar() {
+		List<BasicDBObject> similar = index.similar("a", 3);
+
+		assertEquals(3, similar.size());
+		assertEquals("b", similar.get(0).get("document"));
+		assertEquals("e", similar.get(1).get("document"));
+		//cos(a, b) = (0.6*0.5 + 0.3*0.5) / (|a| |b|)
+		double expected = 0.45 / (Math.sqrt(0.46) * Math.sqrt(0.5));
+		assertEquals(expected, (Double)similar.get(0).get("score"), 1e-6);
+	}
+
+	public void testPruning() {
+		//d shares no dominant topic with a and is never scored
+		List<BasicDBObject> similar = index.similar("a", 10);
+		List<Object> docs = new ArrayList<Object>();
+		for(BasicDBObject obj : similar)
+			docs.add(obj.get("document"));
+		assertEquals(Arrays.asList("b", "e", "c"), docs);
+	}
+
+	public void testSimilarTopics() {
+		List<DBObject> query = new ArrayList<DBObject>();
+		query.add(new BasicDBObject("topic", 4).append("prob", 1.0));
+		assertEquals("d", index.similar(query, 1).get(0).get("document"));
+		assertTrue(index.similar("z", 5).isEmpty());
+	}
+}